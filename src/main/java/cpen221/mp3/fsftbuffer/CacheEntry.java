@@ -0,0 +1,50 @@
+package cpen221.mp3.fsftbuffer;
+
+public final class CacheEntry<T> {
+    private final T value;
+    private final boolean stale;
+    /**
+     * Rep Invariant:
+     * value is not null
+     */
+    /**
+     * Abstraction Function:
+     * Represents the result of a lookup in a buffer: the object value,
+     * which was served after its timeout, within the grace period of
+     * the buffer, if stale is true.
+     */
+    /**
+     * Thread safety argument:
+     * CacheEntry only has final fields and never modifies value.
+     */
+
+    /**
+     * Creates the result of a lookup.
+     *
+     * @param value the object found or loaded
+     * @param stale true if value had timed out
+     */
+    public CacheEntry(T value, boolean stale) {
+        this.value = value;
+        this.stale = stale;
+    }
+
+    /**
+     * Returns the object found or loaded by the lookup.
+     *
+     * @return the object
+     */
+    public T value() {
+        return value;
+    }
+
+    /**
+     * Tells whether the object had timed out and was served during the
+     * grace period of the buffer while it was being reloaded.
+     *
+     * @return true if the object was stale
+     */
+    public boolean isStale() {
+        return stale;
+    }
+}
@@ -0,0 +1,351 @@
+package cpen221.mp3.fsftbuffer;
+
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long evictionCount;
+    private final long expirationCount;
+    private final long loadSuccessCount;
+    private final long loadFailureCount;
+    private final long totalLoadTime;
+    private final long refreshCount;
+    private final long refreshSuccessCount;
+    private final long refreshFailureCount;
+    private final long listenerFailureCount;
+    private final long size;
+    private final long weight;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final double compressionRatio;
+    private final long decodeCount;
+    private final long totalDecodeTime;
+    /**
+     * Rep Invariant:
+     * every field is >= 0
+     * refreshSuccessCount + refreshFailureCount <= refreshCount
+     * compressionRatio is uncompressedBytes / compressedBytes, or 1 if
+     *      compressedBytes is 0
+     */
+    /**
+     * Abstraction Function:
+     * Represents the statistics of a buffer at one point in time.
+     * hitCount and missCount count lookups that found or did not find
+     * their object, putCount the objects added, evictionCount the
+     * objects removed to make room and expirationCount the objects
+     * that timed out. loadSuccessCount and loadFailureCount count the
+     * loads run after a miss that returned an object or failed, which
+     * took totalLoadTime nanoseconds together. refreshCount,
+     * refreshSuccessCount and refreshFailureCount count the background
+     * reloads of refresh-ahead that were started, stored or failed.
+     * listenerFailureCount counts the calls of the removal listener
+     * that threw.
+     * size and weight are the number and total weight of the objects
+     * held. If the objects are compressed, uncompressedBytes and
+     * compressedBytes sum the sizes of every content compressed before
+     * and after compression, and decodeCount and totalDecodeTime count
+     * the decompressions and the nanoseconds they took; otherwise they
+     * are 0.
+     */
+    /**
+     * Thread safety argument:
+     * CacheStats is immutable.
+     */
+
+    /**
+     * Creates a snapshot of buffer statistics.
+     *
+     * @param hitCount             the number of lookups that found their object
+     * @param missCount            the number of lookups that did not
+     * @param putCount             the number of objects added
+     * @param evictionCount        the number of objects removed to make room
+     * @param expirationCount      the number of objects that timed out
+     * @param loadSuccessCount     the number of loads that returned an object
+     * @param loadFailureCount     the number of loads that failed
+     * @param totalLoadTime        the time spent loading, in nanoseconds
+     * @param refreshCount         the number of background reloads started
+     * @param refreshSuccessCount  the number of background reloads stored
+     * @param refreshFailureCount  the number of background reloads that failed
+     * @param listenerFailureCount the number of removal listener calls that threw
+     * @param size                 the number of objects held
+     * @param weight               the total weight of the objects held
+     */
+    CacheStats(long hitCount, long missCount, long putCount, long evictionCount,
+               long expirationCount, long loadSuccessCount, long loadFailureCount,
+               long totalLoadTime, long refreshCount, long refreshSuccessCount,
+               long refreshFailureCount, long listenerFailureCount, long size, long weight) {
+        this(hitCount, missCount, putCount, evictionCount, expirationCount, loadSuccessCount,
+            loadFailureCount, totalLoadTime, refreshCount, refreshSuccessCount,
+            refreshFailureCount, listenerFailureCount, size, weight, 0, 0, 0, 0);
+    }
+
+    /**
+     * Creates a snapshot of the statistics of a buffer whose objects
+     * may be compressed.
+     *
+     * @param uncompressedBytes the size of every content compressed
+     * @param compressedBytes   the size of those contents once compressed
+     * @param decodeCount       the number of decompressions
+     * @param totalDecodeTime   the time spent decompressing, in nanoseconds
+     */
+    private CacheStats(long hitCount, long missCount, long putCount, long evictionCount,
+                       long expirationCount, long loadSuccessCount, long loadFailureCount,
+                       long totalLoadTime, long refreshCount, long refreshSuccessCount,
+                       long refreshFailureCount, long listenerFailureCount, long size,
+                       long weight, long uncompressedBytes, long compressedBytes, long decodeCount,
+                       long totalDecodeTime) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadFailureCount = loadFailureCount;
+        this.totalLoadTime = totalLoadTime;
+        this.refreshCount = refreshCount;
+        this.refreshSuccessCount = refreshSuccessCount;
+        this.refreshFailureCount = refreshFailureCount;
+        this.listenerFailureCount = listenerFailureCount;
+        this.size = size;
+        this.weight = weight;
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressionRatio =
+            compressedBytes == 0 ? 1.0 : (double) uncompressedBytes / compressedBytes;
+        this.decodeCount = decodeCount;
+        this.totalDecodeTime = totalDecodeTime;
+    }
+
+    /**
+     * Returns the number of lookups that found their object.
+     *
+     * @return the number of hits
+     */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that did not find their object.
+     *
+     * @return the number of misses
+     */
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the fraction of lookups that found their object.
+     *
+     * @return the hit ratio, or 1 if there were no lookups
+     */
+    public double hitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * Returns the number of objects added to the buffer.
+     *
+     * @return the number of puts that added an object
+     */
+    public long putCount() {
+        return putCount;
+    }
+
+    /**
+     * Returns the number of objects removed to make room for others.
+     *
+     * @return the number of capacity or weight evictions
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of objects removed because they timed out.
+     *
+     * @return the number of expirations
+     */
+    public long expirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Returns the number of loads after a miss that returned an object.
+     *
+     * @return the number of successful loads
+     */
+    public long loadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    /**
+     * Returns the number of loads after a miss that threw or returned
+     * nothing.
+     *
+     * @return the number of failed loads
+     */
+    public long loadFailureCount() {
+        return loadFailureCount;
+    }
+
+    /**
+     * Returns the time spent in loads after a miss.
+     *
+     * @return the total load time in nanoseconds
+     */
+    public long totalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Returns the average time a load after a miss took.
+     *
+     * @return the average load time in nanoseconds, or 0 if nothing
+     * was loaded
+     */
+    public double averageLoadPenalty() {
+        long loads = loadSuccessCount + loadFailureCount;
+        return loads == 0 ? 0.0 : (double) totalLoadTime / loads;
+    }
+
+    /**
+     * Returns the number of background reloads started by
+     * refresh-ahead.
+     *
+     * @return the number of refreshes issued
+     */
+    public long refreshCount() {
+        return refreshCount;
+    }
+
+    /**
+     * Returns the number of background reloads whose result was stored.
+     *
+     * @return the number of refreshes that succeeded
+     */
+    public long refreshSuccessCount() {
+        return refreshSuccessCount;
+    }
+
+    /**
+     * Returns the number of background reloads that failed, returned
+     * nothing, or finished after their object left the buffer.
+     *
+     * @return the number of refreshes that failed
+     */
+    public long refreshFailureCount() {
+        return refreshFailureCount;
+    }
+
+    /**
+     * Returns the number of calls of the removal listener that threw.
+     * Such failures do not affect the buffer.
+     *
+     * @return the number of listener failures
+     */
+    public long listenerFailureCount() {
+        return listenerFailureCount;
+    }
+
+    /**
+     * Returns the number of objects held when the snapshot was taken.
+     *
+     * @return the size of the buffer
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the total weight of the objects held when the snapshot
+     * was taken.
+     *
+     * @return the weight of the buffer
+     */
+    public long weight() {
+        return weight;
+    }
+
+    /**
+     * Returns the ratio of the original size to the compressed size of
+     * every content compressed.
+     *
+     * @return the compression ratio, or 1 if nothing was compressed
+     */
+    public double compressionRatio() {
+        return compressionRatio;
+    }
+
+    /**
+     * Returns the number of times a compressed content was
+     * decompressed to be read.
+     *
+     * @return the number of decompressions
+     */
+    public long decodeCount() {
+        return decodeCount;
+    }
+
+    /**
+     * Returns the time spent decompressing contents.
+     *
+     * @return the total decompression time in nanoseconds
+     */
+    public long totalDecodeTime() {
+        return totalDecodeTime;
+    }
+
+    /**
+     * Adds the statistics of the compressor of the objects, which a
+     * buffer does not see, to these statistics.
+     *
+     * @param compressor the compressor of the objects of the buffer
+     * @return statistics equal to these, with the compression ratio,
+     * decompressions and decompression time of compressor
+     */
+    public CacheStats withCompression(PageCompressor compressor) {
+        return new CacheStats(hitCount, missCount, putCount, evictionCount, expirationCount,
+            loadSuccessCount, loadFailureCount, totalLoadTime, refreshCount,
+            refreshSuccessCount, refreshFailureCount, listenerFailureCount, size, weight,
+            compressor.uncompressedBytes(), compressor.compressedBytes(),
+            compressor.decodeCount(), compressor.totalDecodeTime());
+    }
+
+    /**
+     * Combines the statistics of two buffers, such as two segments of
+     * a concurrent buffer.
+     *
+     * @param other the statistics to add
+     * @return statistics whose every count is the sum of the counts of
+     * this and other
+     */
+    public CacheStats plus(CacheStats other) {
+        return new CacheStats(hitCount + other.hitCount, missCount + other.missCount,
+            putCount + other.putCount, evictionCount + other.evictionCount,
+            expirationCount + other.expirationCount, loadSuccessCount + other.loadSuccessCount,
+            loadFailureCount + other.loadFailureCount, totalLoadTime + other.totalLoadTime,
+            refreshCount + other.refreshCount, refreshSuccessCount + other.refreshSuccessCount,
+            refreshFailureCount + other.refreshFailureCount,
+            listenerFailureCount + other.listenerFailureCount, size + other.size,
+            weight + other.weight, uncompressedBytes + other.uncompressedBytes,
+            compressedBytes + other.compressedBytes, decodeCount + other.decodeCount,
+            totalDecodeTime + other.totalDecodeTime);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount
+            + ", hitRate=" + String.format("%.3f", hitRate()) + ", puts=" + putCount
+            + ", evictions=" + evictionCount + ", expirations=" + expirationCount
+            + ", loadSuccesses=" + loadSuccessCount + ", loadFailures=" + loadFailureCount
+            + ", totalLoadTime=" + totalLoadTime + ", refreshes=" + refreshCount
+            + ", refreshSuccesses=" + refreshSuccessCount
+            + ", refreshFailures=" + refreshFailureCount
+            + ", listenerFailures=" + listenerFailureCount + ", size=" + size
+            + ", weight=" + weight
+            + ", compressionRatio=" + String.format("%.3f", compressionRatio)
+            + ", decodes=" + decodeCount + ", totalDecodeTime=" + totalDecodeTime + "}";
+    }
+}
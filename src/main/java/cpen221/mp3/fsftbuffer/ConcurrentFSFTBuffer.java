@@ -0,0 +1,353 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+public class ConcurrentFSFTBuffer<T extends Bufferable> {
+
+    private final FSFTBuffer<T>[] segments;
+    private final int mask;
+    /**
+     * Representation Invariant:
+     * segments and mask are not null
+     * segments.length is a power of two and mask == segments.length - 1
+     * An object with id i is only ever held by segments[segmentIndex(i)]
+     */
+    /**
+     * Abstraction Function:
+     * Represents a finite-space finite-time buffer holding the union
+     * of the objects held by every segment. Capacity and least
+     * recently used eviction apply within each segment, so the
+     * buffer as a whole evicts approximately least recently used
+     * objects once a segment is full.
+     */
+    /**
+     * Thread safety argument:
+     * segments and mask are final and segments is never modified
+     *      after construction
+     * each segment is a thread-safe FSFTBuffer with its own lock, so
+     *      operations on objects in different segments never wait
+     *      on each other
+     * every method touches exactly one segment at a time, so no
+     *      method holds two locks at once
+     */
+
+    /**
+     * Create a concurrent buffer with a fixed capacity and a timeout
+     * value, split into one segment per available processor.
+     *
+     * @param capacity the number of objects the buffer can hold
+     * @param timeout  the duration, in seconds, an object should
+     *                 be in the buffer before it times out
+     */
+    public ConcurrentFSFTBuffer(int capacity, int timeout) {
+        this(capacity, timeout, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a concurrent buffer with a fixed capacity and a timeout
+     * value, split into a given number of segments.
+     *
+     * @param capacity the number of objects the buffer can hold
+     * @param timeout  the duration, in seconds, an object should
+     *                 be in the buffer before it times out
+     * @param segments the number of segments requested; rounded down
+     *                 to a power of two and to at most capacity
+     */
+    public ConcurrentFSFTBuffer(int capacity, int timeout, int segments) {
+        this(new FSFTBuffer.Builder<T>().withCapacity(capacity).withTimeout(timeout)
+            .buildSegments(segments));
+    }
+
+    /**
+     * Create a concurrent buffer from already configured segments.
+     *
+     * @param segments the segments, a power of two of them
+     */
+    ConcurrentFSFTBuffer(List<FSFTBuffer<T>> segments) {
+        @SuppressWarnings("unchecked")
+        FSFTBuffer<T>[] array = (FSFTBuffer<T>[]) new FSFTBuffer<?>[segments.size()];
+        this.segments = segments.toArray(array);
+        this.mask = this.segments.length - 1;
+    }
+
+    /**
+     * Add a value to the buffer.
+     * If the segment of the value is full then remove the least
+     * recently accessed object of that segment to make room.
+     *
+     * @param t the object T being placed in the buffer
+     * @return false if t is already in the buffer and true otherwise
+     */
+    public boolean put(T t) {
+        return segmentFor(t.id()).put(t);
+    }
+
+    /**
+     * Retrieve from the buffer the object T which corresponds
+     * to a given String id if present, otherwise throws
+     * a NotFoundException.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object that matches the identifier from the
+     * buffer
+     * @throws NotFoundException if there is no object T with
+     *                           a matching id
+     */
+    public T get(String id) throws NotFoundException {
+        return segmentFor(id).get(id);
+    }
+
+    /**
+     * Retrieve the object with a given id, loading and adding it to the
+     * buffer if it is not present. Concurrent misses for the same id
+     * share a single call to loader.
+     *
+     * @param id     the identifier of the object to be retrieved
+     * @param loader returns the object with a given id, or null if
+     *               there is none
+     * @return the object that matches the identifier
+     * @throws NotFoundException if the object is not in the buffer
+     *                           and loader returns null
+     */
+    public T get(String id, Function<String, ? extends T> loader) throws NotFoundException {
+        return segmentFor(id).get(id, loader);
+    }
+
+    /**
+     * Retrieve the object with a given id as get(id, loader) does, and
+     * tell whether it was served stale during the grace period.
+     *
+     * @param id     the identifier of the object to be retrieved
+     * @param loader returns the object with a given id, or null if
+     *               there is none
+     * @return the object that matches the identifier, marked stale if
+     * it had timed out
+     * @throws NotFoundException if the object is not in the buffer
+     *                           and loader returns null
+     */
+    public CacheEntry<T> getEntry(String id, Function<String, ? extends T> loader)
+        throws NotFoundException {
+        return segmentFor(id).getEntry(id, loader);
+    }
+
+    /**
+     * Retrieve the object with a given id without blocking, loading it
+     * on executor if it is not present. Concurrent misses for the same
+     * id share a single call to loader.
+     *
+     * @param id       the identifier of the object to be retrieved
+     * @param loader   returns the object with a given id, or null if
+     *                 there is none
+     * @param executor runs loader on a miss
+     * @return a future of the object that matches the identifier
+     */
+    public CompletableFuture<T> getAsync(String id, Function<String, ? extends T> loader,
+                                         Executor executor) {
+        return segmentFor(id).getAsync(id, loader, executor);
+    }
+
+    /**
+     * Update the last refresh time for the object with the provided id.
+     *
+     * @param id the identifier of the object to "touch"
+     * @return true if successful and false otherwise
+     */
+    public boolean touch(String id) {
+        return segmentFor(id).touch(id);
+    }
+
+    /**
+     * Update an object in the buffer.
+     *
+     * @param t the object to update
+     * @return true if successful and false otherwise
+     */
+    public boolean update(T t) {
+        return segmentFor(t.id()).update(t);
+    }
+
+    /**
+     * Retrieve every object whose id is in ids, locking each segment
+     * involved once.
+     *
+     * @param ids the identifiers of the objects to be retrieved
+     * @return a map from the id of every object found to the object;
+     * an id that is not a key of the map was a miss
+     */
+    public Map<String, T> getAll(Collection<String> ids) {
+        List<List<String>> parts = partition(ids, id -> id);
+        Map<String, T> found = new HashMap<>();
+        for (int i = 0; i < segments.length; i++) {
+            if (!parts.get(i).isEmpty()) {
+                found.putAll(segments[i].getAll(parts.get(i)));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Add every object in ts to the buffer, locking each segment
+     * involved once.
+     *
+     * @param ts the objects being placed in the buffer
+     * @return a map from the id of every object in ts to true if it was
+     * added and false otherwise
+     */
+    public Map<String, Boolean> putAll(Collection<? extends T> ts) {
+        List<List<T>> parts = partition(ts, Bufferable::id);
+        Map<String, Boolean> added = new HashMap<>();
+        for (int i = 0; i < segments.length; i++) {
+            if (!parts.get(i).isEmpty()) {
+                added.putAll(segments[i].putAll(parts.get(i)));
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Remove the object with a given id from the buffer.
+     *
+     * @param id the identifier of the object to remove
+     * @return true if the object was in the buffer and false otherwise
+     */
+    public boolean invalidate(String id) {
+        return segmentFor(id).invalidate(id);
+    }
+
+    /**
+     * Remove every object whose id is in ids from the buffer, locking
+     * each segment involved once.
+     *
+     * @param ids the identifiers of the objects to remove
+     * @return the number of objects removed
+     */
+    public int invalidateAll(Collection<String> ids) {
+        List<List<String>> parts = partition(ids, id -> id);
+        int removed = 0;
+        for (int i = 0; i < segments.length; i++) {
+            if (!parts.get(i).isEmpty()) {
+                removed += segments[i].invalidateAll(parts.get(i));
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove every object that satisfies filter from the buffer.
+     *
+     * @param filter selects the objects to remove
+     * @return the number of objects removed
+     */
+    public int invalidateAll(Predicate<? super T> filter) {
+        int removed = 0;
+        for (FSFTBuffer<T> segment : segments) {
+            removed += segment.invalidateAll(filter);
+        }
+        return removed;
+    }
+
+    /**
+     * Remove every object from the buffer.
+     *
+     * @return the number of objects removed
+     */
+    public int invalidateAll() {
+        return invalidateAll(t -> true);
+    }
+
+    /**
+     * Returns the total weight of the objects currently in the buffer.
+     *
+     * @return the sum of the weights of every segment
+     */
+    public long weight() {
+        long total = 0;
+        for (FSFTBuffer<T> segment : segments) {
+            total += segment.weight();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the statistics of the buffer, summed over every segment.
+     * Each segment is locked in turn, so the counts of different
+     * segments may be taken at slightly different times.
+     *
+     * @return the current statistics of the buffer
+     */
+    public CacheStats stats() {
+        CacheStats total = segments[0].stats();
+        for (int i = 1; i < segments.length; i++) {
+            total = total.plus(segments[i].stats());
+        }
+        return total;
+    }
+
+    /**
+     * Remove every object that has timed out from every segment.
+     */
+    public void cleanUp() {
+        for (FSFTBuffer<T> segment : segments) {
+            segment.cleanUp();
+        }
+    }
+
+    /**
+     * Returns the number of independently locked segments.
+     *
+     * @return the number of segments
+     */
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Splits items by the segment responsible for each of them.
+     *
+     * @param items the items to split
+     * @param id    returns the id an item refers to
+     * @param <E>   the type of the items
+     * @return a list holding, for every segment, the items that belong
+     * to it in the order of items
+     */
+    private <E> List<List<E>> partition(Collection<? extends E> items, Function<E, String> id) {
+        List<List<E>> parts = new ArrayList<>(segments.length);
+        for (int i = 0; i < segments.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (E item : items) {
+            parts.get(segmentIndex(id.apply(item))).add(item);
+        }
+        return parts;
+    }
+
+    /**
+     * Finds the segment responsible for the object with a given id.
+     *
+     * @param id the identifier of an object
+     * @return the segment that holds or would hold the object
+     */
+    private FSFTBuffer<T> segmentFor(String id) {
+        return segments[segmentIndex(id)];
+    }
+
+    /**
+     * Maps an id to a segment index, spreading the high bits of its
+     * hash code into the low bits used by mask.
+     *
+     * @param id the identifier of an object
+     * @return an index into segments
+     */
+    private int segmentIndex(String id) {
+        int hash = id.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
@@ -0,0 +1,402 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+public class DiskPageCache {
+
+    /* the default segment size is 16 MiB */
+    public static final int DSEGMENT = 16 * 1024 * 1024;
+
+    /* the default number of segments kept is 16 */
+    public static final int DSEGMENTS = 16;
+
+    /* marks the start of every record; unwritten space reads as 0 */
+    private static final int MAGIC = 0x50414745;
+
+    /* magic, deadline, title length, content length, content and header checksums */
+    private static final int HEADER = 4 + 8 + 4 + 4 + 4 + 4;
+
+    /* the offset of the deadline within a record */
+    private static final int DEADLINE = 4;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final LongSupplier clock;
+    private final TreeMap<Integer, Segment> segments;
+    private final Map<String, Location> index;
+    /**
+     * Rep Invariant:
+     * directory, clock, segments and index are not null
+     * segmentSize > HEADER and maxSegments >= 1
+     * segments.size() <= maxSegments
+     * every location in index lies in a segment in segments and
+     *      starts a record whose title is its key
+     * only the segment with the largest id in segments is appended to
+     */
+    /**
+     * Abstraction Function:
+     * Represents a persistent second-level page cache stored in
+     * directory as memory-mapped, append-only segment files named
+     * segment-N.dat. index maps the title of every live page to the
+     * newest record holding it and the time that record times out.
+     * Older records of the same title, and records of pages that
+     * timed out, are garbage that disappears when their segment is
+     * dropped to make room.
+     */
+    /**
+     * Thread safety argument:
+     * directory, segmentSize, maxSegments, clock, segments and index
+     *      are final references
+     * segments, index and the mapped buffers of every segment are only
+     *      read or modified inside synchronized methods
+     */
+
+    /**
+     * Opens the cache stored in directory, creating the directory if
+     * needed. The index is rebuilt by reading only the fixed-size
+     * header of each record, so opening takes time proportional to the
+     * number of records rather than to the bytes stored.
+     *
+     * @param directory   the directory holding the segment files
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxSegments the number of segments kept before the oldest
+     *                    is deleted
+     * @param clock       supplies the current time in milliseconds
+     * @throws IOException if the segment files cannot be read
+     */
+    public DiskPageCache(File directory, int segmentSize, int maxSegments, LongSupplier clock)
+        throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.clock = clock;
+        this.segments = new TreeMap<>();
+        this.index = new HashMap<>();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        load();
+    }
+
+    /**
+     * Opens the cache stored in directory with default sizes.
+     *
+     * @param directory the directory holding the segment files
+     * @throws IOException if the segment files cannot be read
+     */
+    public DiskPageCache(File directory) throws IOException {
+        this(directory, DSEGMENT, DSEGMENTS, System::currentTimeMillis);
+    }
+
+    /**
+     * Returns the content of the page with title if it is stored and
+     * has not timed out.
+     *
+     * @param title the title of the page
+     * @return the content of the page, or null if it is not available
+     */
+    synchronized public String get(String title) {
+        Location location = index.get(title);
+        if (location == null) {
+            return null;
+        }
+        if (location.deadline < clock.getAsLong()) {
+            index.remove(title);
+            return null;
+        }
+        ByteBuffer record = segments.get(location.segment).buffer.duplicate();
+        int titleLength = record.getInt(location.offset + 12);
+        int contentLength = record.getInt(location.offset + 16);
+        int checksum = record.getInt(location.offset + 20);
+        record.position(location.offset + HEADER + titleLength);
+        byte[] content = new byte[contentLength];
+        record.get(content);
+        if (checksum(content, 0, content.length) != checksum) {
+            index.remove(title);
+            return null;
+        }
+        return new String(content, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends a page to the cache, superseding any older copy.
+     *
+     * @param title    the title of the page
+     * @param content  the content of the page
+     * @param deadline the time, in milliseconds, the page times out
+     */
+    synchronized public void put(String title, String content, long deadline) {
+        byte[] titleBytes = title.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        int length = HEADER + titleBytes.length + contentBytes.length;
+        try {
+            Segment segment = segmentWithRoom(length);
+            ByteBuffer record = segment.buffer.duplicate();
+            int offset = segment.end;
+            record.position(offset);
+            record.putInt(MAGIC);
+            record.putLong(deadline);
+            record.putInt(titleBytes.length);
+            record.putInt(contentBytes.length);
+            record.putInt(checksum(contentBytes, 0, contentBytes.length));
+            record.putInt(headerChecksum(segment.buffer, offset));
+            record.put(titleBytes);
+            record.put(contentBytes);
+            segment.end = offset + length;
+            index.put(title, new Location(segment.id, offset, deadline));
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Moves a page evicted from memory into the cache, keeping the
+     * deadline it had in memory, so that a page does not outlive its
+     * timeout by moving between levels. A page that is already stored
+     * keeps the earlier of its two deadlines, updated in place.
+     *
+     * @param page     the page to store
+     * @param deadline the time, in milliseconds, the page times out
+     */
+    synchronized public void spill(Page page, long deadline) {
+        long now = clock.getAsLong();
+        if (deadline < now) {
+            return;
+        }
+        Location location = index.get(page.id());
+        if (location == null || location.deadline < now) {
+            put(page.id(), page.getContent(), deadline);
+            return;
+        }
+        if (location.deadline <= deadline) {
+            return;
+        }
+        MappedByteBuffer buffer = segments.get(location.segment).buffer;
+        buffer.putLong(location.offset + DEADLINE, deadline);
+        buffer.putInt(location.offset + HEADER - 4, headerChecksum(buffer, location.offset));
+        location.deadline = deadline;
+    }
+
+    /**
+     * Returns the number of pages stored that have not timed out.
+     *
+     * @return the number of live pages
+     */
+    synchronized public int size() {
+        long now = clock.getAsLong();
+        index.values().removeIf(location -> location.deadline < now);
+        return index.size();
+    }
+
+    /**
+     * Writes every change to the segment files to the storage device.
+     */
+    synchronized public void flush() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Rebuilds index from the segment files in directory.
+     *
+     * @throws IOException if a segment file cannot be read
+     */
+    private void load() throws IOException {
+        File[] files = directory.listFiles((dir, name) ->
+            name.startsWith("segment-") && name.endsWith(".dat"));
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            int id;
+            try {
+                id = Integer.parseInt(name.substring(8, name.length() - 4));
+            } catch (NumberFormatException nfe) {
+                // not a segment written by this cache
+                continue;
+            }
+            segments.put(id, new Segment(id, file, 0));
+        }
+        while (segments.size() > maxSegments) {
+            dropOldest();
+        }
+        long now = clock.getAsLong();
+        for (Segment segment : segments.values()) {
+            MappedByteBuffer buffer = segment.buffer;
+            int offset = 0;
+            while (offset + HEADER <= buffer.capacity() && buffer.getInt(offset) == MAGIC
+                && buffer.getInt(offset + HEADER - 4) == headerChecksum(buffer, offset)) {
+                long deadline = buffer.getLong(offset + DEADLINE);
+                int titleLength = buffer.getInt(offset + 12);
+                int contentLength = buffer.getInt(offset + 16);
+                int length = HEADER + titleLength + contentLength;
+                if (offset + length > buffer.capacity()) {
+                    break;
+                }
+                byte[] title = new byte[titleLength];
+                ByteBuffer record = buffer.duplicate();
+                record.position(offset + HEADER);
+                record.get(title);
+                String key = new String(title, StandardCharsets.UTF_8);
+                if (deadline >= now) {
+                    index.put(key, new Location(segment.id, offset, deadline));
+                } else {
+                    index.remove(key);
+                }
+                offset += length;
+            }
+            segment.end = offset;
+        }
+    }
+
+    /**
+     * Returns the newest segment if it has room for length bytes,
+     * otherwise starts a new segment, dropping the oldest segment if
+     * there are too many.
+     *
+     * @param length the number of bytes to append
+     * @return a segment with at least length free bytes at its end
+     * @throws IOException if a new segment file cannot be created
+     */
+    private Segment segmentWithRoom(int length) throws IOException {
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            if (last.end + length <= last.buffer.capacity()) {
+                return last;
+            }
+        }
+        int id = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        File file = new File(directory, "segment-" + id + ".dat");
+        Segment segment = new Segment(id, file, Math.max(segmentSize, length));
+        segments.put(id, segment);
+        while (segments.size() > maxSegments) {
+            dropOldest();
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes the oldest segment and forgets the pages it held.
+     */
+    private void dropOldest() {
+        Segment oldest = segments.pollFirstEntry().getValue();
+        Iterator<Location> locations = index.values().iterator();
+        while (locations.hasNext()) {
+            if (locations.next().segment == oldest.id) {
+                locations.remove();
+            }
+        }
+        if (!oldest.file.delete()) {
+            oldest.file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Computes the checksum of the header fields of the record at offset.
+     *
+     * @param buffer the segment holding the record
+     * @param offset the start of the record
+     * @return the checksum of every header field before the checksum
+     */
+    private static int headerChecksum(ByteBuffer buffer, int offset) {
+        byte[] header = new byte[HEADER - 4];
+        ByteBuffer record = buffer.duplicate();
+        record.position(offset);
+        record.get(header);
+        return checksum(header, 0, header.length);
+    }
+
+    /**
+     * Computes a CRC32 checksum.
+     *
+     * @param bytes  the bytes to check
+     * @param offset the first byte to include
+     * @param length the number of bytes to include
+     * @return the checksum, truncated to an int
+     */
+    private static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+        private final int id;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int end;
+        /**
+         * Rep Invariant:
+         * file and buffer are not null
+         * 0 <= end <= buffer.capacity()
+         */
+        /**
+         * Abstraction Function:
+         * Represents the segment file with a given id, mapped into
+         * memory as buffer. Records occupy the bytes before end.
+         */
+        /**
+         * Thread safety argument:
+         * Segment is only accessed while holding the lock of its cache.
+         */
+
+        /**
+         * Maps a segment file, creating it with at least size bytes.
+         *
+         * @param id   the number of the segment
+         * @param file the segment file
+         * @param size the smallest size of the file in bytes
+         * @throws IOException if the file cannot be mapped
+         */
+        Segment(int id, File file, int size) throws IOException {
+            this.id = id;
+            this.file = file;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            }
+        }
+    }
+
+    private static class Location {
+        private final int segment;
+        private final int offset;
+        private long deadline;
+        /**
+         * Rep Invariant:
+         * offset >= 0
+         */
+        /**
+         * Abstraction Function:
+         * Represents the record starting at offset in the segment with
+         * id segment, which times out at deadline.
+         */
+        /**
+         * Thread safety argument:
+         * Location is only accessed while holding the lock of its cache.
+         */
+
+        Location(int segment, int offset, long deadline) {
+            this.segment = segment;
+            this.offset = offset;
+            this.deadline = deadline;
+        }
+    }
+}
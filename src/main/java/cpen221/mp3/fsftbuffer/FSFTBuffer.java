@@ -1,7 +1,25 @@
 package cpen221.mp3.fsftbuffer;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
 
 public class FSFTBuffer<T extends Bufferable> {
 
@@ -11,31 +29,98 @@ public class FSFTBuffer<T extends Bufferable> {
     /* the default timeout value is 3600s */
     public static final int DTIMEOUT = 3600;
 
+    /* the thread shared by all buffers that expire objects in the background */
+    private static final ScheduledExecutorService MAINTENANCE =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "fsftbuffer-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
     private final int size;
-    private final int timeout;
-    private final ConcurrentHashMap<T, Long> buffer;
+    private final long maxWeight;
+    private final Weigher<? super T> weigher;
+    private final long timeoutMillis;
+    private final long graceMillis;
+    private final LongSupplier clock;
+    private final FrequencySketch sketch;
+    private final RemovalListener<? super T> listener;
+    private final Executor listenerExecutor;
+    private final Refresher<T> refresher;
+    private final ConcurrentHashMap<String, CompletableFuture<T>> loading;
+    private final StatsCounter stats;
+    private final Map<String, Node<T>> index;
+    private final Node<T> order;
+    private long weight;
     /**
      * Representation Invariant:
-     * size, timeout, and buffer are not null
-     * size >= buffer.keySet().size() == buffer.values().size()
-     * Every key, T, in buffer has a corresponding Long
-     * For every key t, buffer.get(t) >= System.currentTimeMillis()
-     * For every key t, buffer.get(t) <= System.currentTimeMillis() + timeout
+     * size, maxWeight, weigher, timeoutMillis, clock, index and order
+     *      are not null
+     * graceMillis >= 0
+     * size >= index.size()
+     * weight is the sum of n.weight for every node n in index
+     * maxWeight >= weight >= 0
+     * For every key id in index, index.get(id).value.id() equals id
+     * order is the sentinel of a circular doubly linked list that
+     *      contains exactly the nodes in index.values()
+     * The nodes in order are sorted from least recently used
+     *      (order.next) to most recently used (order.prev)
+     * The nodes in order are sorted by non-decreasing deadline
+     * For every node n in index, n.deadline <= clock + timeoutMillis
+     *      and n.written <= clock
+     * If refresher is null, n.refreshing is false for every node n
+     * loading is not null and holds only futures that have not
+     *      completed yet, or are about to be removed
+     * After checkState(now) returns, every node n in index has
+     *      n.deadline + graceMillis >= now
      */
     /**
      * Abstraction Function:
-     * For every t, where t is an object of type T and
-     * a key in buffer, buffer.get(t) represents the time
-     * when t will timeout and be removed from the buffer.
+     * sketch, if not null, estimates how often each id has recently
+     * been accessed and decides which new objects are admitted.
+     * For every id in index, index.get(id).value is the object
+     * with that id held in the buffer and index.get(id).deadline
+     * represents the time when it will timeout and be removed from
+     * the buffer. Walking order from order.next to order.prev visits
+     * the objects from least recently to most recently used, which
+     * is also the order in which they time out. An object whose
+     * deadline has passed is stale: it is still returned for up to
+     * graceMillis more, without renewing its deadline, while refresher
+     * reloads it, and is removed once that period ends. weight is the total
+     * weight of the objects held in the buffer, as measured by weigher.
+     * index.get(id).written is the time the object was last put or
+     * updated, and index.get(id).refreshing is true while refresher is
+     * reloading it. loading maps every id whose object is being loaded
+     * after a miss to the future result of that load, which every
+     * concurrent miss for the id waits on. stats counts what has
+     * happened to the buffer since it was created. listener, if not
+     * null, is told of every object that leaves the buffer, on
+     * listenerExecutor or, if that is null, on the removing thread.
      */
     /**
      * Thread safety argument:
-     * size and timeout are final
-     * the only mutable datatype used in the representation
-     *      of FSFTBuffer, ConcurrentHashMap, is thread safe
-     * the only other mutable datatype used in the implementation,
-     *      ConcurrentLinkedQueue, is thread safe
-     * all methods are synchronized
+     * size, maxWeight, weigher, timeoutMillis, graceMillis, clock,
+     *      sketch, listener, listenerExecutor and refresher are final
+     * an asynchronous listener only receives the removed object and
+     *      its cause, never a node, so it runs without the lock
+     * sketch is not thread-safe and is only used inside synchronized
+     *      methods
+     * weight is only read or modified inside synchronized methods
+     * index and order are final references and are only read or
+     *      modified inside synchronized methods
+     * the nodes of order are never handed out of the buffer
+     * all methods that read or modify index or order are synchronized
+     * the background maintenance task only calls cleanUp, which is
+     *      synchronized, and holds the buffer through a WeakReference
+     * refresher calls its loader without holding the lock and hands
+     *      the result back through completeRefresh, which is
+     *      synchronized
+     * stats is final and only made of LongAdders, which are
+     *      thread-safe
+     * loading is a final ConcurrentHashMap; putIfAbsent elects the
+     *      single caller that runs a load, and loaders run without
+     *      holding the lock and store their result through install,
+     *      which is synchronized
      */
     /**
      * Create a buffer with a fixed capacity and a timeout value.
@@ -47,9 +132,7 @@ public class FSFTBuffer<T extends Bufferable> {
      *                 be in the buffer before it times out
      */
     public FSFTBuffer(int capacity, int timeout) {
-        this.size = capacity;
-        this.timeout = timeout;
-        buffer = new ConcurrentHashMap<>(capacity);
+        this(new Builder<T>().withCapacity(capacity).withTimeout(timeout));
     }
 
     /**
@@ -59,41 +142,74 @@ public class FSFTBuffer<T extends Bufferable> {
         this(DSIZE, DTIMEOUT);
     }
 
+    /**
+     * Create a buffer configured by builder.
+     *
+     * @param builder the configuration of the buffer
+     */
+    private FSFTBuffer(Builder<T> builder) {
+        this(builder, builder.capacity, builder.maxWeight);
+    }
+
+    /**
+     * Create a buffer configured by builder that holds up to capacity
+     * objects of up to maxWeight total weight, ignoring the capacity
+     * and maximum weight of builder.
+     *
+     * @param builder   the configuration of the buffer
+     * @param capacity  the number of objects the buffer can hold
+     * @param maxWeight the total weight the buffer can hold
+     */
+    private FSFTBuffer(Builder<T> builder, int capacity, long maxWeight) {
+        this.size = capacity;
+        this.maxWeight = maxWeight;
+        this.weigher = builder.weigher;
+        this.timeoutMillis = builder.timeout * 1000L;
+        this.graceMillis = builder.grace * 1000L;
+        this.clock = builder.clock;
+        long expectedSize = Math.min(capacity, maxWeight / builder.expectedWeight);
+        this.sketch = builder.admission ? new FrequencySketch((int) expectedSize) : null;
+        this.listener = builder.listener;
+        this.listenerExecutor = builder.listenerExecutor;
+        this.refresher = builder.refresher;
+        this.loading = new ConcurrentHashMap<>();
+        this.stats = new StatsCounter();
+        this.index = new HashMap<>();
+        this.order = new Node<>(null, null, 0);
+        if (builder.maintenancePeriod > 0) {
+            Maintenance.schedule(this, builder.maintenancePeriod);
+        }
+    }
+
     /**
      * Add a value to the buffer.
      * If the buffer is full then remove the least recently accessed
-     * object to make room for the new object.
+     * objects until there is room for the new object. With an
+     * admission filter, the new object is only added to a full buffer
+     * if it has recently been accessed more often than every object
+     * it would replace.
      *
      * @param t the object T being placed in the buffer
-     * @return false if t is already in the buffer and true otherwise
+     * @return false if t is already in the buffer, weighs more than
+     * the buffer can hold or was not admitted, and true otherwise
      */
     synchronized public boolean put(T t) {
-        checkState();
-        for (T element : buffer.keySet()) {
-            if (element.id().equals(t.id())) {
-                return false;
-            }
-        }
-        if (buffer.size() == size) {
-            T nextTimeoutElement =  buffer.keySet().stream().findFirst().get();
-            long nextTimeout = buffer.get(nextTimeoutElement);
-            for (T element : buffer.keySet()) {
-                if (buffer.get(element) < nextTimeout) {
-                    nextTimeoutElement = element;
-                    nextTimeout = buffer.get(element);
-                }
-            }
-            buffer.remove(nextTimeoutElement);
+        long now = clock.getAsLong();
+        checkState(now);
+        recordAccess(t.id());
+        if (find(t.id(), now) != null) {
+            return false;
         }
-        long cacheTime = System.currentTimeMillis() + timeout * 1000;
-        buffer.put(t, cacheTime);
-        return true;
+        return insert(t, now);
     }
 
     /**
      * Retrieve from the buffer the object T which corresponds
      * to a given String id if present, otherwise throws
-     * a NotFoundException.
+     * a NotFoundException. With refresh-ahead, an object that has not
+     * been written for long enough is also reloaded in the background.
+     * With a grace period, an object that has timed out is returned
+     * stale until the grace period ends.
      *
      * @param id the identifier of the object to be retrieved
      * @return the object that matches the identifier from the
@@ -101,74 +217,1055 @@ public class FSFTBuffer<T extends Bufferable> {
      * @throws NotFoundException if there is no object T with
      *                           a matching id
      */
-    synchronized public T get(String id) throws NotFoundException {
-        checkState();
-        for (T element : buffer.keySet()) {
-            if (element.id().equals(id)) {
-                long cacheTime = System.currentTimeMillis() + timeout * 1000;
-                buffer.replace(element, cacheTime);
-                return element;
+    public T get(String id) throws NotFoundException {
+        CacheEntry<T> entry = lookup(id);
+        if (entry == null) {
+            throw new NotFoundException("No object with matching ID in cache.");
+        }
+        return entry.value();
+    }
+
+    /**
+     * Retrieve the object with a given id, loading and adding it to the
+     * buffer if it is not present. Concurrent misses for the same id
+     * share a single call to loader, made by the first of them; the
+     * others wait for its result. A load that fails leaves nothing in
+     * the buffer, so the next miss calls loader again.
+     *
+     * @param id     the identifier of the object to be retrieved
+     * @param loader returns the object with a given id, or null if
+     *               there is none; it is called without holding the
+     *               lock of the buffer
+     * @return the object that matches the identifier, which may not be
+     * kept by the buffer if it was not admitted
+     * @throws NotFoundException if the object is not in the buffer
+     *                           and loader returns null
+     */
+    public T get(String id, Function<String, ? extends T> loader) throws NotFoundException {
+        return getEntry(id, loader).value();
+    }
+
+    /**
+     * Retrieve the object with a given id as get(id, loader) does, and
+     * tell whether it was served stale. An object that has timed out
+     * but is within the grace period of the buffer is returned at once
+     * and reloaded in the background, instead of being loaded while the
+     * caller waits.
+     *
+     * @param id     the identifier of the object to be retrieved
+     * @param loader returns the object with a given id, or null if
+     *               there is none; it is called without holding the
+     *               lock of the buffer
+     * @return the object that matches the identifier, marked stale if
+     * it had timed out
+     * @throws NotFoundException if the object is not in the buffer
+     *                           and loader returns null
+     */
+    public CacheEntry<T> getEntry(String id, Function<String, ? extends T> loader)
+        throws NotFoundException {
+        CacheEntry<T> entry = lookup(id);
+        if (entry != null) {
+            return entry;
+        }
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inFlight = loading.putIfAbsent(id, load);
+        if (inFlight == null) {
+            load(id, loader, load);
+            inFlight = load;
+        }
+        try {
+            return new CacheEntry<>(inFlight.join(), false);
+        } catch (CompletionException ce) {
+            Throwable cause = ce.getCause();
+            if (cause instanceof NotFoundException) {
+                throw new NotFoundException(cause.getMessage());
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw ce;
+        }
+    }
+
+    /**
+     * Retrieve the object with a given id without blocking, loading it
+     * on executor if it is not present. Concurrent misses for the same
+     * id, whether through this method or get(id, loader), share a
+     * single call to loader.
+     *
+     * @param id       the identifier of the object to be retrieved
+     * @param loader   returns the object with a given id, or null if
+     *                 there is none
+     * @param executor runs loader on a miss
+     * @return a future of the object that matches the identifier,
+     * completed exceptionally with NotFoundException if loader returns
+     * null or with the exception loader throws
+     */
+    public CompletableFuture<T> getAsync(String id, Function<String, ? extends T> loader,
+                                         Executor executor) {
+        CacheEntry<T> entry = lookup(id);
+        if (entry != null) {
+            return CompletableFuture.completedFuture(entry.value());
+        }
+        CompletableFuture<T> load = new CompletableFuture<>();
+        CompletableFuture<T> inFlight = loading.putIfAbsent(id, load);
+        if (inFlight == null) {
+            inFlight = load;
+            try {
+                executor.execute(() -> load(id, loader, load));
+            } catch (RejectedExecutionException ree) {
+                loading.remove(id, load);
+                load.completeExceptionally(ree);
             }
         }
-        throw new NotFoundException("No object with matching ID in cache.");
+        return inFlight.copy();
+    }
+
+    /**
+     * Retrieve the object with a given id without blocking, loading it
+     * on the common fork-join pool if it is not present.
+     *
+     * @param id     the identifier of the object to be retrieved
+     * @param loader returns the object with a given id, or null if
+     *               there is none
+     * @return a future of the object that matches the identifier
+     */
+    public CompletableFuture<T> getAsync(String id, Function<String, ? extends T> loader) {
+        return getAsync(id, loader, ForkJoinPool.commonPool());
     }
 
     /**
      * Update the last refresh time for the object with the provided id.
      * This method is used to mark an object as "not stale" so that its
-     * timeout is delayed.
+     * timeout is delayed. An object that has already timed out but is
+     * within the grace period is not renewed, since its content may be
+     * out of date; it is reloaded in the background as get does.
      *
      * @param id the identifier of the object to "touch"
      * @return true if successful and false otherwise
      */
     synchronized public boolean touch(String id) {
-        checkState();
-        for (T element : buffer.keySet()) {
-            if (element.id().equals(id)) {
-                long cacheTime = System.currentTimeMillis() + timeout * 1000;
-                buffer.replace(element, cacheTime);
-                return true;
-            }
+        long now = clock.getAsLong();
+        checkState(now);
+        recordAccess(id);
+        Node<T> node = find(id, now);
+        if (node == null) {
+            return false;
         }
-        return false;
+        if (node.deadline < now) {
+            reload(node);
+            return false;
+        }
+        refresh(node, now);
+        return true;
     }
 
     /**
      * Update an object in the buffer.
      * This method updates an object and acts like a "touch" to
-     * renew the object in the cache.
+     * renew the object in the cache. If the new object is heavier,
+     * the least recently accessed objects are removed until the
+     * buffer is within its maximum weight again.
      *
      * @param t the object to update
      * @return true if successful and false otherwise
      */
     synchronized public boolean update(T t) {
-        checkState();
-        for (T element : buffer.keySet()) {
-            if (element.id().equals(t.id())) {
-                long time = buffer.get(element);
-                buffer.remove(element);
-                buffer.put(t, time);
-                return true;
+        long now = clock.getAsLong();
+        checkState(now);
+        Node<T> node = find(t.id(), now);
+        if (node == null) {
+            return false;
+        }
+        replace(node, t, now);
+        return true;
+    }
+
+    /**
+     * Retrieve every object whose id is in ids, as get does for each
+     * of them, with a single pass over timed out objects.
+     *
+     * @param ids the identifiers of the objects to be retrieved
+     * @return a map from the id of every object found to the object, in
+     * the order of ids; an id that is not a key of the map was a miss
+     */
+    synchronized public Map<String, T> getAll(Collection<String> ids) {
+        long now = clock.getAsLong();
+        checkState(now);
+        Map<String, T> found = new LinkedHashMap<>();
+        for (String id : ids) {
+            recordAccess(id);
+            Node<T> node = find(id, now);
+            if (node == null) {
+                stats.recordMiss();
+                continue;
             }
+            stats.recordHit();
+            access(node, now);
+            found.put(id, node.value);
         }
-        return false;
+        return found;
+    }
+
+    /**
+     * Add every object in ts to the buffer, as put does for each of
+     * them, with a single pass over timed out objects.
+     *
+     * @param ts the objects being placed in the buffer
+     * @return a map from the id of every object in ts to true if it was
+     * added and false if it was already in the buffer, weighs more than
+     * the buffer can hold or was not admitted
+     */
+    synchronized public Map<String, Boolean> putAll(Collection<? extends T> ts) {
+        long now = clock.getAsLong();
+        checkState(now);
+        Map<String, Boolean> added = new LinkedHashMap<>();
+        for (T t : ts) {
+            recordAccess(t.id());
+            added.put(t.id(), find(t.id(), now) == null && insert(t, now));
+        }
+        return added;
+    }
+
+    /**
+     * Remove the object with a given id from the buffer.
+     *
+     * @param id the identifier of the object to remove
+     * @return true if the object was in the buffer and false otherwise
+     */
+    synchronized public boolean invalidate(String id) {
+        Node<T> node = find(id, clock.getAsLong());
+        if (node == null) {
+            return false;
+        }
+        remove(node, RemovalCause.EXPLICIT);
+        return true;
+    }
+
+    /**
+     * Remove every object whose id is in ids from the buffer.
+     *
+     * @param ids the identifiers of the objects to remove
+     * @return the number of objects removed
+     */
+    synchronized public int invalidateAll(Collection<String> ids) {
+        long now = clock.getAsLong();
+        checkState(now);
+        int removed = 0;
+        for (String id : ids) {
+            Node<T> node = find(id, now);
+            if (node != null) {
+                remove(node, RemovalCause.EXPLICIT);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Remove every object that satisfies filter from the buffer.
+     *
+     * @param filter selects the objects to remove
+     * @return the number of objects removed
+     */
+    synchronized public int invalidateAll(Predicate<? super T> filter) {
+        checkState(clock.getAsLong());
+        int removed = 0;
+        Node<T> node = order.next;
+        while (node != order) {
+            Node<T> next = node.next;
+            if (filter.test(node.value)) {
+                remove(node, RemovalCause.EXPLICIT);
+                removed++;
+            }
+            node = next;
+        }
+        return removed;
+    }
+
+    /**
+     * Remove every object from the buffer.
+     *
+     * @return the number of objects removed
+     */
+    public int invalidateAll() {
+        return invalidateAll(t -> true);
+    }
+
+    /**
+     * Returns a snapshot of the statistics of the buffer: lookups that
+     * hit and missed, objects added, removed to make room and timed
+     * out, loads after a miss and background refreshes, and the
+     * current size and weight. Counting costs a LongAdder increment
+     * per event.
+     *
+     * @return the current statistics of the buffer
+     */
+    synchronized public CacheStats stats() {
+        checkState(clock.getAsLong());
+        return stats.snapshot(index.size(), weight);
+    }
+
+    /**
+     * Stores the result of a background reload. A result whose object
+     * has left the buffer in the meantime is handed to the removal
+     * listener as REPLACED, since nothing else will release it.
+     *
+     * @param id    the identifier of the reloaded object
+     * @param fresh the reloaded object, or null if the reload failed
+     */
+    synchronized void completeRefresh(String id, T fresh) {
+        long now = clock.getAsLong();
+        checkState(now);
+        Node<T> node = find(id, now);
+        if (node != null) {
+            node.refreshing = false;
+        }
+        if (fresh != null && node == null) {
+            notifyRemoval(fresh, RemovalCause.REPLACED, now + timeoutMillis);
+        }
+        if (fresh != null && node != null) {
+            replace(node, fresh, now);
+        }
+        stats.recordRefreshResult(fresh != null && node != null);
+    }
+
+    /**
+     * Returns the total weight of the objects currently in the buffer.
+     * Without a weigher every object weighs 1, so this is the number
+     * of objects in the buffer.
+     *
+     * @return the current weight of the buffer
+     */
+    synchronized public long weight() {
+        checkState(clock.getAsLong());
+        return weight;
+    }
+
+    /**
+     * Remove every object that has timed out from the buffer. Objects
+     * are also removed as part of every other operation, so calling
+     * this method is only needed to release timed out objects from a
+     * buffer that is not being used.
+     */
+    synchronized public void cleanUp() {
+        checkState(clock.getAsLong());
+    }
+
+    /**
+     * Runs loader for id and completes load with its result. The load
+     * is withdrawn from loading before it completes, so a failure is
+     * only seen by the misses already waiting on it.
+     *
+     * @param id     the identifier of the object to load
+     * @param loader returns the object with a given id, or null
+     * @param load   the future registered for id in loading
+     */
+    private void load(String id, Function<String, ? extends T> loader, CompletableFuture<T> load) {
+        try {
+            T value = peek(id);
+            if (value == null) {
+                long start = System.nanoTime();
+                try {
+                    value = loader.apply(id);
+                } finally {
+                    stats.recordLoad(value != null, System.nanoTime() - start);
+                }
+                if (value == null) {
+                    throw new NotFoundException("No object with matching ID could be loaded.");
+                }
+                value = install(value);
+            }
+            loading.remove(id, load);
+            load.complete(value);
+        } catch (Throwable failure) {
+            loading.remove(id, load);
+            load.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * Adds a loaded object to the buffer. If another object with the
+     * same id was put while loading, that object is kept and the loaded
+     * one is handed to the removal listener as REPLACED. A loaded
+     * object that is not admitted, or weighs more than the buffer can
+     * hold, is handed to the removal listener as REJECTED; it is still
+     * returned to every miss that shared the load.
+     *
+     * @param loaded the object returned by a loader
+     * @return the object now associated with the id of loaded
+     */
+    synchronized private T install(T loaded) {
+        long now = clock.getAsLong();
+        checkState(now);
+        Node<T> node = find(loaded.id(), now);
+        if (node != null) {
+            if (node.value != loaded) {
+                notifyRemoval(loaded, RemovalCause.REPLACED, node.deadline);
+            }
+            return node.value;
+        }
+        if (!insert(loaded, now)) {
+            notifyRemoval(loaded, RemovalCause.REJECTED, now + timeoutMillis);
+        }
+        return loaded;
+    }
+
+    /**
+     * Looks up the object with id as get does, counting the access and
+     * renewing its timeout unless it is stale.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object with id and whether it is stale, or null if it
+     * is not in the buffer
+     */
+    synchronized private CacheEntry<T> lookup(String id) {
+        long now = clock.getAsLong();
+        checkState(now);
+        recordAccess(id);
+        Node<T> node = find(id, now);
+        if (node == null) {
+            stats.recordMiss();
+            return null;
+        }
+        stats.recordHit();
+        boolean stale = access(node, now);
+        return new CacheEntry<>(node.value, stale);
+    }
+
+    /**
+     * Looks up the object with id without counting an access or
+     * renewing its timeout.
+     *
+     * @param id the identifier of the object to be retrieved
+     * @return the object with id, or null if it is not in the buffer
+     */
+    synchronized private T peek(String id) {
+        Node<T> node = find(id, clock.getAsLong());
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Adds t to the buffer, removing the least recently used objects
+     * to make room for it.
+     *
+     * @param t   an object whose id is not in the buffer
+     * @param now the current time in milliseconds
+     * @return false if t weighs more than the buffer can hold or was
+     * not admitted, and true otherwise
+     */
+    private boolean insert(T t, long now) {
+        int objectWeight = weigher.weigh(t);
+        if (objectWeight > maxWeight || !admit(t.id(), objectWeight)) {
+            return false;
+        }
+        while (order.next != order
+            && (index.size() >= size || weight + objectWeight > maxWeight)) {
+            remove(order.next, RemovalCause.SIZE);
+        }
+        Node<T> node = new Node<>(t.id(), t, now + timeoutMillis);
+        node.weight = objectWeight;
+        node.written = now;
+        index.put(node.id, node);
+        linkLast(node);
+        weight += objectWeight;
+        stats.recordPut();
+        return true;
     }
 
     /**
      * Makes sure all the values stored in the buffer have not timed
-     * out. Modifies buffer by removing all values that are less
-     * than System.currentTimeMillis().
-     */
-    synchronized private void checkState() {
-        ConcurrentLinkedQueue<T> timeoutQueue = new ConcurrentLinkedQueue<T>();
-        for (T element : buffer.keySet()) {
-            if (buffer.get(element) < System.currentTimeMillis()) {
-                timeoutQueue.add(element);
+     * out. Modifies buffer by removing all values whose deadline is
+     * more than the grace period before now.
+     *
+     * Every object shares the same timeout and its deadline is only
+     * renewed when it becomes the most recently used object, so order
+     * doubles as a queue sorted by deadline. Only the timed out prefix
+     * of order is visited, which makes the work proportional to the
+     * number of objects that time out rather than to the size of the
+     * buffer.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void checkState(long now) {
+        while (order.next != order && order.next.deadline + graceMillis < now) {
+            remove(order.next, RemovalCause.EXPIRED);
+        }
+    }
+
+    /**
+     * Tells the removal listener, if there is one, that t left the
+     * buffer. The listener runs on listenerExecutor, so it does not
+     * extend the time the lock is held, unless it was registered as
+     * synchronous or the executor rejects it.
+     *
+     * @param t        the object removed
+     * @param cause    the reason t was removed
+     * @param deadline the time, in milliseconds, t would have timed out
+     */
+    private void notifyRemoval(T t, RemovalCause cause, long deadline) {
+        if (listener == null) {
+            return;
+        }
+        if (listenerExecutor == null) {
+            dispatch(t, cause, deadline);
+            return;
+        }
+        try {
+            listenerExecutor.execute(() -> dispatch(t, cause, deadline));
+        } catch (RejectedExecutionException ree) {
+            dispatch(t, cause, deadline);
+        }
+    }
+
+    /**
+     * Calls the removal listener, so that a listener that throws
+     * cannot leave the buffer half way through an operation.
+     *
+     * @param t        the object removed
+     * @param cause    the reason t was removed
+     * @param deadline the time, in milliseconds, t would have timed out
+     */
+    private void dispatch(T t, RemovalCause cause, long deadline) {
+        try {
+            listener.onRemoval(t, cause, deadline);
+        } catch (RuntimeException re) {
+            stats.recordListenerFailure();
+        }
+    }
+
+    /**
+     * Replaces the object held by node with t, removing the least
+     * recently used objects if t is heavier and the buffer is over its
+     * maximum weight. The deadline of node is not renewed unless node
+     * is stale.
+     *
+     * @param node a node currently linked in order
+     * @param t    an object with the same id as node
+     * @param now  the current time in milliseconds
+     */
+    private void replace(Node<T> node, T t, long now) {
+        int objectWeight = weigher.weigh(t);
+        T replaced = node.value;
+        weight += objectWeight - node.weight;
+        node.value = t;
+        node.weight = objectWeight;
+        node.written = now;
+        if (node.deadline < now) {
+            refresh(node, now);
+        }
+        if (replaced != t) {
+            notifyRemoval(replaced, RemovalCause.REPLACED, node.deadline);
+        }
+        while (weight > maxWeight) {
+            remove(order.next, RemovalCause.SIZE);
+        }
+    }
+
+    /**
+     * Starts a background reload of node if refresh-ahead is enabled,
+     * node is not already being reloaded and its object was written
+     * long enough ago.
+     *
+     * @param node a node currently linked in order
+     * @param now  the current time in milliseconds
+     */
+    private void refreshAhead(Node<T> node, long now) {
+        if (refresher != null && refresher.due(now - node.written, timeoutMillis)) {
+            reload(node);
+        }
+    }
+
+    /**
+     * Starts a background reload of node if there is a refresher and
+     * node is not already being reloaded.
+     *
+     * @param node a node currently linked in order
+     */
+    private void reload(Node<T> node) {
+        if (refresher != null && !node.refreshing) {
+            node.refreshing = refresher.schedule(this, node.id);
+            if (node.refreshing) {
+                stats.recordRefresh();
+            }
+        }
+    }
+
+    /**
+     * Handles a hit on node. A fresh node becomes the most recently
+     * used and has its timeout renewed. A stale node keeps its deadline,
+     * so that it is removed when the grace period ends unless the
+     * reload started here replaces it first.
+     *
+     * @param node a node currently linked in order
+     * @param now  the current time in milliseconds
+     * @return true if node is stale
+     */
+    private boolean access(Node<T> node, long now) {
+        if (node.deadline < now) {
+            reload(node);
+            return true;
+        }
+        refresh(node, now);
+        refreshAhead(node, now);
+        return false;
+    }
+
+    /**
+     * Counts an access to id in the admission filter, if there is one.
+     *
+     * @param id the identifier of the object accessed
+     */
+    private void recordAccess(String id) {
+        if (sketch != null) {
+            sketch.increment(id);
+        }
+    }
+
+    /**
+     * Decides whether a new object may replace the least recently used
+     * objects that would have to be removed to make room for it. Every
+     * object is admitted when there is no admission filter or when no
+     * object has to be removed.
+     *
+     * @param id           the identifier of the new object
+     * @param objectWeight the weight of the new object
+     * @return true if the new object is more popular than each object
+     * it would replace, and false otherwise
+     */
+    private boolean admit(String id, int objectWeight) {
+        if (sketch == null) {
+            return true;
+        }
+        int candidate = sketch.frequency(id);
+        int count = index.size();
+        long total = weight;
+        Node<T> victim = order.next;
+        while (victim != order && (count >= size || total + objectWeight > maxWeight)) {
+            if (sketch.frequency(victim.id) >= candidate) {
+                return false;
             }
+            count--;
+            total -= victim.weight;
+            victim = victim.next;
         }
-        while (!timeoutQueue.isEmpty()) {
-            T element = timeoutQueue.poll();
-            buffer.remove(element);
+        return true;
+    }
+
+    /**
+     * Looks up the node for id, removing it if it has timed out and
+     * its grace period has ended. This
+     * guards against a clock that steps backwards, after which order
+     * may not be sorted by deadline.
+     *
+     * @param id  the identifier of the object to find
+     * @param now the current time in milliseconds
+     * @return the node for id, or null if there is no such object
+     */
+    private Node<T> find(String id, long now) {
+        Node<T> node = index.get(id);
+        if (node != null && node.deadline + graceMillis < now) {
+            remove(node, RemovalCause.EXPIRED);
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * Removes node and its object from the buffer and notifies the
+     * removal listener.
+     *
+     * @param node  a node currently linked in order
+     * @param cause the reason node is removed
+     */
+    private void remove(Node<T> node, RemovalCause cause) {
+        unlink(node);
+        index.remove(node.id);
+        weight -= node.weight;
+        stats.recordRemoval(cause);
+        notifyRemoval(node.value, cause, node.deadline);
+    }
+
+    /**
+     * Marks node as the most recently used object and renews its
+     * timeout. Modifies order and node.deadline.
+     *
+     * @param node a node currently linked in order
+     * @param now  the current time in milliseconds
+     */
+    private void refresh(Node<T> node, long now) {
+        node.deadline = now + timeoutMillis;
+        unlink(node);
+        linkLast(node);
+    }
+
+    /**
+     * Appends node to the most recently used end of order.
+     *
+     * @param node a node that is not linked in order
+     */
+    private void linkLast(Node<T> node) {
+        node.prev = order.prev;
+        node.next = order;
+        order.prev.next = node;
+        order.prev = node;
+    }
+
+    /**
+     * Removes node from order.
+     *
+     * @param node a node currently linked in order
+     */
+    private void unlink(Node<T> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static class Node<T> {
+        private final String id;
+        private T value;
+        private long deadline;
+        private int weight;
+        private long written;
+        private boolean refreshing;
+        private Node<T> prev;
+        private Node<T> next;
+        /**
+         * Rep Invariant:
+         * id and value are not null unless this node is the
+         *      sentinel of an order list
+         * prev and next are either both null or both not null
+         */
+        /**
+         * Abstraction Function:
+         * Represents the object value with identifier id that
+         * times out at deadline and was stored at written, linked
+         * into an access-ordered list through prev and next.
+         * refreshing is true while value is being reloaded.
+         */
+        /**
+         * Thread safety argument:
+         * Node is only accessed while holding the lock of the
+         * FSFTBuffer that owns it.
+         */
+
+        /**
+         * Creates a new unlinked node. A node created with a null id
+         * and value is a sentinel that starts as an empty list.
+         *
+         * @param id       the identifier of value
+         * @param value    the buffered object
+         * @param deadline the time, in milliseconds, value times out
+         */
+        Node(String id, T value, long deadline) {
+            this.id = id;
+            this.value = value;
+            this.deadline = deadline;
+            if (id == null) {
+                this.prev = this;
+                this.next = this;
+            }
+        }
+    }
+
+    /**
+     * Builds FSFTBuffers with optional settings beyond a capacity and
+     * a timeout, for example:
+     * <pre>
+     *     new FSFTBuffer.Builder&lt;Page&gt;().withCapacity(100).build();
+     * </pre>
+     */
+    public static class Builder<T extends Bufferable> {
+        private int capacity = DSIZE;
+        private int timeout = DTIMEOUT;
+        private int grace = 0;
+        private long maxWeight = Long.MAX_VALUE;
+        private Weigher<? super T> weigher = t -> 1;
+        private LongSupplier clock = System::currentTimeMillis;
+        private long maintenancePeriod = 0;
+        private boolean admission = false;
+        private long expectedWeight = 1;
+        private RemovalListener<? super T> listener = null;
+        private Executor listenerExecutor = null;
+        private Refresher<T> refresher = null;
+
+        /**
+         * Set the number of objects the buffer can hold.
+         *
+         * @param capacity the number of objects the buffer can hold
+         * @return this builder
+         */
+        public Builder<T> withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Also limit the total weight of the objects the buffer holds.
+         * When an object is added, the least recently used objects are
+         * removed until both the capacity and the maximum weight allow
+         * the new object. Use withCapacity(Integer.MAX_VALUE) to limit
+         * the buffer by weight alone.
+         *
+         * @param maxWeight the total weight the buffer can hold
+         * @param weigher   measures the weight of each object
+         * @return this builder
+         */
+        public Builder<T> withMaximumWeight(long maxWeight, Weigher<? super T> weigher) {
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        /**
+         * Only admit a new object into a full buffer when it has
+         * recently been accessed more often than the least recently
+         * used objects it would replace. Popularity is estimated by a
+         * compact count-min sketch of every get, touch and put, so
+         * one-off objects no longer push out frequently used ones.
+         *
+         * @return this builder
+         */
+        public Builder<T> withAdmissionFilter() {
+            this.admission = true;
+            return this;
+        }
+
+        /**
+         * Use an admission filter as withAdmissionFilter() does, sized
+         * for a buffer limited by weight. The sketch holds a counter
+         * for about as many objects as fit in the maximum weight when
+         * each weighs expectedWeight, rather than one per object of the
+         * capacity, so that a buffer limited by weight alone does not
+         * get a sketch that is large and never ages.
+         *
+         * @param expectedWeight the typical weight of an object, at
+         *                       least 1
+         * @return this builder
+         */
+        public Builder<T> withAdmissionFilter(long expectedWeight) {
+            this.admission = true;
+            this.expectedWeight = Math.max(1, expectedWeight);
+            return this;
+        }
+
+        /**
+         * Notify listener of every object that times out, is removed to
+         * make room, is replaced by update or is invalidated. The
+         * listener runs on the common fork-join pool after the buffer
+         * has handed it over, so a slow listener never delays other
+         * operations and may use the buffer. Notifications may arrive
+         * out of order.
+         *
+         * @param listener the listener to notify
+         * @return this builder
+         */
+        public Builder<T> withRemovalListener(RemovalListener<? super T> listener) {
+            return withRemovalListener(listener, ForkJoinPool.commonPool());
+        }
+
+        /**
+         * Notify listener of every removed object, as
+         * withRemovalListener(listener) does, on executor. A
+         * single-threaded executor delivers notifications in the order
+         * objects were removed.
+         *
+         * @param listener the listener to notify
+         * @param executor runs the listener
+         * @return this builder
+         */
+        public Builder<T> withRemovalListener(RemovalListener<? super T> listener,
+                                              Executor executor) {
+            this.listener = listener;
+            this.listenerExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Notify listener of every removed object on the thread that
+         * removed it, before the operation that removed it returns.
+         * Notifications arrive in the order objects were removed, but
+         * the listener is called while the buffer is locked, so it
+         * must return quickly and must not use the buffer.
+         *
+         * @param listener the listener to notify
+         * @return this builder
+         */
+        public Builder<T> withSynchronousRemovalListener(RemovalListener<? super T> listener) {
+            this.listener = listener;
+            this.listenerExecutor = null;
+            return this;
+        }
+
+        /**
+         * Reload objects that are still being read before they grow
+         * stale. When get returns an object that was put or last
+         * updated more than (1 - fraction) of the timeout ago, loader
+         * is called for its id on one of threads background threads
+         * and a non-null result replaces the object as update would.
+         * Each object has at most one reload in flight, and reloads
+         * are skipped while too many are already waiting. Buffers built
+         * by the same builder share the threads.
+         *
+         * @param fraction the last part of the timeout, between 0 and
+         *                 1, in which a read object is reloaded; with
+         *                 0, only stale objects are reloaded
+         * @param loader   returns the current version of the object with
+         *                 a given id, or null if there is none; it is
+         *                 called without holding the lock of the buffer
+         * @param threads  the number of reload threads, at least 1
+         * @return this builder
+         */
+        public Builder<T> withRefreshAhead(double fraction, Function<String, ? extends T> loader,
+                                           int threads) {
+            this.refresher = new Refresher<>(fraction, loader, threads);
+            return this;
+        }
+
+        /**
+         * Set how long objects are retained without being accessed.
+         *
+         * @param timeout the duration, in seconds, an object should
+         *                be in the buffer before it times out
+         * @return this builder
+         */
+        public Builder<T> withTimeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Keep objects for a grace period after they time out. During
+         * that period get still returns a timed out object at once,
+         * marked stale by getEntry, and a refresher set by
+         * withRefreshAhead reloads it in the background. A reloaded
+         * object is fresh again; one that is not reloaded is removed
+         * when the grace period ends.
+         *
+         * @param grace the duration, in seconds, a timed out object is
+         *              still served; 0 disables the grace period
+         * @return this builder
+         */
+        public Builder<T> withGracePeriod(int grace) {
+            this.grace = grace;
+            return this;
+        }
+
+        /**
+         * Set the source of time of the buffer. The clock is read once
+         * per operation and must never step backwards by more than
+         * the timeout. Defaults to System.currentTimeMillis.
+         *
+         * @param clock supplies the current time in milliseconds
+         * @return this builder
+         */
+        public Builder<T> withClock(LongSupplier clock) {
+            this.clock = clock;
+            return this;
+        }
+
+        /**
+         * Also remove timed out objects from a background thread, so
+         * that they are released even when the buffer is idle.
+         *
+         * @param periodMillis the time between two background passes,
+         *                     in milliseconds; 0 disables the thread
+         * @return this builder
+         */
+        public Builder<T> withBackgroundExpiry(long periodMillis) {
+            this.maintenancePeriod = periodMillis;
+            return this;
+        }
+
+        /**
+         * Create a buffer with the settings of this builder.
+         *
+         * @return a new, empty buffer
+         */
+        public FSFTBuffer<T> build() {
+            return new FSFTBuffer<>(this);
+        }
+
+        /**
+         * Create a concurrent buffer with the settings of this builder
+         * whose capacity is divided between independently locked
+         * segments. The number of segments is rounded down to a power
+         * of two and to at most the capacity.
+         *
+         * @param segments the number of segments requested, at least 1
+         * @return a new, empty concurrent buffer
+         */
+        public ConcurrentFSFTBuffer<T> buildConcurrent(int segments) {
+            return new ConcurrentFSFTBuffer<>(buildSegments(segments));
+        }
+
+        /**
+         * Create the segments of a concurrent buffer, each with an even
+         * share of the capacity and maximum weight of this builder.
+         *
+         * @param segments the number of segments requested, at least 1
+         * @return a power of two of new, empty buffers
+         */
+        List<FSFTBuffer<T>> buildSegments(int segments) {
+            int count = Integer.highestOneBit(Math.max(1, Math.min(segments, capacity)));
+            List<FSFTBuffer<T>> parts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int share = capacity / count + (i < capacity % count ? 1 : 0);
+                long weightShare = maxWeight == Long.MAX_VALUE ? maxWeight
+                    : maxWeight / count + (i < maxWeight % count ? 1 : 0);
+                parts.add(new FSFTBuffer<>(this, share, weightShare));
+            }
+            return parts;
+        }
+    }
+
+    private static class Maintenance implements Runnable {
+        private final WeakReference<FSFTBuffer<?>> buffer;
+        private volatile ScheduledFuture<?> future;
+        /**
+         * Rep Invariant:
+         * buffer is not null
+         * future is not null once schedule has returned
+         */
+        /**
+         * Abstraction Function:
+         * Represents the periodic background expiry of buffer. The
+         * task cancels itself once buffer has been garbage collected.
+         */
+        /**
+         * Thread safety argument:
+         * buffer is final and FSFTBuffer.cleanUp is synchronized
+         * future is volatile and only written once
+         */
+
+        private Maintenance(FSFTBuffer<?> buffer) {
+            this.buffer = new WeakReference<>(buffer);
+        }
+
+        /**
+         * Starts removing timed out objects from buffer every period.
+         *
+         * @param buffer       the buffer to maintain
+         * @param periodMillis the time between two passes in milliseconds
+         */
+        static void schedule(FSFTBuffer<?> buffer, long periodMillis) {
+            Maintenance task = new Maintenance(buffer);
+            task.future = MAINTENANCE.scheduleWithFixedDelay(
+                task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            FSFTBuffer<?> target = buffer.get();
+            if (target == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            target.cleanUp();
         }
     }
 
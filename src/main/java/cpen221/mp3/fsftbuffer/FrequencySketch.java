@@ -0,0 +1,134 @@
+package cpen221.mp3.fsftbuffer;
+
+class FrequencySketch {
+
+    /* the number of counters each id is counted in */
+    private static final int DEPTH = 4;
+
+    /* the largest value a four-bit counter can hold */
+    private static final int MAX_COUNT = 15;
+
+    /* seeds that derive DEPTH independent hashes from one hash code */
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+    /**
+     * Rep Invariant:
+     * table is not null and table.length is a power of two
+     * mask == table.length * 16 - 1
+     * every four-bit counter in table is between 0 and MAX_COUNT
+     * 0 <= additions < sampleSize
+     */
+    /**
+     * Abstraction Function:
+     * Represents a count-min sketch of how often each id has been
+     * seen recently. table packs sixteen four-bit counters into each
+     * long. The frequency of an id is the smallest of its DEPTH
+     * counters, so it may overestimate but never underestimate the
+     * count. Once sampleSize ids have been recorded every counter is
+     * halved, so old popularity fades.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe. It is only used while holding
+     * the lock of the FSFTBuffer that owns it.
+     */
+
+    /**
+     * Creates a sketch sized for a buffer that holds about
+     * expectedSize objects.
+     *
+     * @param expectedSize the number of objects the buffer holds
+     */
+    FrequencySketch(int expectedSize) {
+        int size = Math.max(16, Math.min(expectedSize, 1 << 20));
+        this.table = new long[Integer.highestOneBit(size - 1) << 1];
+        this.mask = table.length * 16 - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * Returns the estimated number of times id was recently seen.
+     *
+     * @param id the id to look up
+     * @return the estimated frequency of id, between 0 and 15
+     */
+    int frequency(String id) {
+        int hash = spread(id.hashCode());
+        int frequency = MAX_COUNT;
+        for (int i = 0; i < DEPTH; i++) {
+            frequency = Math.min(frequency, counter(indexOf(hash, i)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Records one occurrence of id. Only the smallest of its counters
+     * are incremented, which keeps the overestimate of the sketch low.
+     *
+     * @param id the id to record
+     */
+    void increment(String id) {
+        int hash = spread(id.hashCode());
+        int frequency = frequency(id);
+        if (frequency == MAX_COUNT) {
+            return;
+        }
+        for (int i = 0; i < DEPTH; i++) {
+            int index = indexOf(hash, i);
+            if (counter(index) == frequency) {
+                table[index >>> 4] += 1L << ((index & 15) << 2);
+            }
+        }
+        if (++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Halves every counter so that the sketch favours recent history.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+        }
+        additions /= 2;
+    }
+
+    /**
+     * Reads a four-bit counter.
+     *
+     * @param index the position of the counter in table
+     * @return the value of the counter
+     */
+    private int counter(int index) {
+        return (int) ((table[index >>> 4] >>> ((index & 15) << 2)) & 0xF);
+    }
+
+    /**
+     * Selects the counter of a hash for one row of the sketch.
+     *
+     * @param hash the spread hash code of an id
+     * @param row  the row, between 0 and DEPTH - 1
+     * @return the position of the counter in table
+     */
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+        return (h ^ (h >>> 15)) & mask;
+    }
+
+    /**
+     * Mixes the bits of a hash code so that ids with similar hash
+     * codes land on unrelated counters.
+     *
+     * @param hashCode the hash code of an id
+     * @return the mixed hash
+     */
+    private static int spread(int hashCode) {
+        int h = hashCode * 0x45D9F3B;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,264 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+public class NegativeCache {
+
+    /* the number of Bloom filters that together cover the timeout */
+    private static final int GENERATIONS = 4;
+
+    private final long[][] generations;
+    private final long bits;
+    private final int hashes;
+    private final int capacity;
+    private final long span;
+    private final LongSupplier clock;
+    private final LongAdder lookups;
+    private final LongAdder hits;
+    private final LongAdder falsePositives;
+    private int current;
+    private long currentStart;
+    private int currentCount;
+    /**
+     * Rep Invariant:
+     * generations holds GENERATIONS bit sets of bits bits each
+     * bits >= 64, hashes >= 1, capacity >= 1 and span >= 1
+     * 0 <= current < GENERATIONS and 0 <= currentCount <= capacity
+     * clock, lookups, hits and falsePositives are not null
+     */
+    /**
+     * Abstraction Function:
+     * Represents a set of keys known to be missing, each remembered
+     * for between (GENERATIONS - 1) * span and GENERATIONS * span
+     * milliseconds after it was added, unless its generation fills up
+     * first. Every generation is a Bloom filter with hashes hash
+     * functions over bits bits; keys are added to generations[current],
+     * which was started at currentStart and holds currentCount keys,
+     * and a key is reported if any generation holds it. When current
+     * is retired, the oldest generation is cleared and becomes the
+     * new current, so memory never grows with the number of keys.
+     * lookups and hits count isKnownMissing calls and positive answers;
+     * falsePositives counts keys passed to confirmExists that would
+     * have been reported missing.
+     */
+    /**
+     * Thread safety argument:
+     * all fields except current, currentStart and currentCount are
+     *      final, and the arrays of generations are only read or
+     *      modified inside synchronized methods
+     * current, currentStart and currentCount are only accessed inside
+     *      synchronized methods
+     * LongAdder is thread-safe
+     */
+
+    /**
+     * Create an empty negative cache.
+     *
+     * @param capacity          the number of keys each generation holds
+     *                          before it is retired early, at least 1
+     * @param falsePositiveRate the false positive rate of the cache when
+     *                          every generation is full, between 0 and
+     *                          1; each generation is sized for
+     *                          falsePositiveRate / GENERATIONS, since a
+     *                          lookup checks them all
+     * @param timeoutMillis     how long, in milliseconds, a key is at
+     *                          least remembered
+     * @param clock             supplies the current time in milliseconds
+     */
+    public NegativeCache(int capacity, double falsePositiveRate, long timeoutMillis,
+                         LongSupplier clock) {
+        double ln2 = Math.log(2);
+        double generationRate = falsePositiveRate / GENERATIONS;
+        long optimal = (long) Math.ceil(-capacity * Math.log(generationRate) / (ln2 * ln2));
+        this.bits = Math.max(64, (optimal + 63) / 64 * 64);
+        this.hashes = Math.max(1, (int) Math.round((double) bits / capacity * ln2));
+        this.capacity = capacity;
+        this.span = Math.max(1, timeoutMillis / (GENERATIONS - 1));
+        this.clock = clock;
+        this.generations = new long[GENERATIONS][(int) (bits / 64)];
+        this.lookups = new LongAdder();
+        this.hits = new LongAdder();
+        this.falsePositives = new LongAdder();
+        this.currentStart = clock.getAsLong();
+    }
+
+    /**
+     * Remembers that key is missing.
+     *
+     * @param key the key that is missing
+     */
+    synchronized public void add(String key) {
+        rotate(clock.getAsLong());
+        if (currentCount >= capacity) {
+            retire(clock.getAsLong());
+        }
+        long hash = hash(key);
+        long[] filter = generations[current];
+        for (int i = 0; i < hashes; i++) {
+            long bit = index(hash, i);
+            filter[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        currentCount++;
+    }
+
+    /**
+     * Checks whether key was recently added, counting the lookup. A
+     * key that was added within the timeout is always reported; a key
+     * that was not is reported with a small probability.
+     *
+     * @param key the key to look up
+     * @return true if key is probably missing
+     */
+    public boolean isKnownMissing(String key) {
+        lookups.increment();
+        boolean missing = mightContain(key);
+        if (missing) {
+            hits.increment();
+        }
+        return missing;
+    }
+
+    /**
+     * Tells the cache that key was found to exist, counting a false
+     * positive if the cache would have reported it missing.
+     *
+     * @param key a key that exists
+     */
+    public void confirmExists(String key) {
+        if (mightContain(key)) {
+            falsePositives.increment();
+        }
+    }
+
+    /**
+     * Returns the number of calls to isKnownMissing.
+     *
+     * @return the number of lookups
+     */
+    public long lookupCount() {
+        return lookups.sum();
+    }
+
+    /**
+     * Returns the number of calls to isKnownMissing that returned true.
+     *
+     * @return the number of hits
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of keys passed to confirmExists that the cache
+     * would have reported missing. A key reported missing is usually
+     * not looked up anywhere else, so its existence is never confirmed;
+     * this only counts the false positives its callers happen to detect,
+     * and expectedFalsePositiveRate is the better measure of how many
+     * existing keys are reported missing.
+     *
+     * @return the number of false positives detected
+     */
+    public long falsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * Estimates the probability that a key never added is reported
+     * missing, from the fraction of bits set in each generation.
+     *
+     * @return the expected false positive rate
+     */
+    synchronized public double expectedFalsePositiveRate() {
+        rotate(clock.getAsLong());
+        double absent = 1.0;
+        for (long[] filter : generations) {
+            long set = 0;
+            for (long word : filter) {
+                set += Long.bitCount(word);
+            }
+            absent *= 1.0 - Math.pow((double) set / bits, hashes);
+        }
+        return 1.0 - absent;
+    }
+
+    /**
+     * Checks every generation for key.
+     *
+     * @param key the key to look up
+     * @return true if some generation holds key
+     */
+    synchronized private boolean mightContain(String key) {
+        rotate(clock.getAsLong());
+        long hash = hash(key);
+        for (long[] filter : generations) {
+            boolean all = true;
+            for (int i = 0; i < hashes && all; i++) {
+                long bit = index(hash, i);
+                all = (filter[(int) (bit >>> 6)] & (1L << bit)) != 0;
+            }
+            if (all) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Retires every generation that has been current for span.
+     *
+     * @param now the current time in milliseconds
+     */
+    private void rotate(long now) {
+        for (int i = 0; i < GENERATIONS && now - currentStart >= span; i++) {
+            retire(currentStart + span);
+        }
+        if (now - currentStart >= span) {
+            currentStart = now;
+        }
+    }
+
+    /**
+     * Clears the oldest generation and makes it current.
+     *
+     * @param start the time the new current generation starts
+     */
+    private void retire(long start) {
+        current = (current + 1) % GENERATIONS;
+        Arrays.fill(generations[current], 0L);
+        currentStart = start;
+        currentCount = 0;
+    }
+
+    /**
+     * Computes the bit probed by the i-th hash function, by double
+     * hashing the two halves of hash.
+     *
+     * @param hash the 64-bit hash of a key
+     * @param i    the index of the hash function
+     * @return a bit index between 0 and bits - 1
+     */
+    private long index(long hash, int i) {
+        long combined = (hash >>> 32) + i * ((hash & 0xFFFFFFFFL) | 1L);
+        return Math.floorMod(combined, bits);
+    }
+
+    /**
+     * Computes a well mixed 64-bit hash of key.
+     *
+     * @param key the key to hash
+     * @return the hash of key
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
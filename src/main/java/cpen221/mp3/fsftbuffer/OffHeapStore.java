@@ -0,0 +1,325 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class OffHeapStore {
+
+    /* the default slab size is 4 MiB */
+    public static final int DSLAB = 4 * 1024 * 1024;
+
+    /* allocations are rounded up to a multiple of 16 bytes */
+    private static final int ALIGNMENT = 16;
+
+    private final int slabSize;
+    private final List<Slab> slabs;
+    private long allocated;
+    /**
+     * Rep Invariant:
+     * slabSize > 0 and slabs is not null
+     * null entries of slabs are unused positions left by dedicated
+     *      slabs that have been freed
+     * every other slab in slabs is either shared, with a buffer of capacity
+     *      slabSize, or dedicated to a single allocation larger than
+     *      slabSize
+     * the free extents of a slab never overlap each other or a live
+     *      allocation, and no two free extents are adjacent
+     * allocated is the sum of the lengths of all live allocations
+     */
+    /**
+     * Abstraction Function:
+     * Represents storage for UTF-8 encoded text outside the Java heap.
+     * Text is copied into direct ByteBuffer slabs, and each stored
+     * text is represented on the heap only by a small Handle naming
+     * its slab, offset and length. Freed space is returned to the
+     * free-list of its slab and reused by later allocations.
+     */
+    /**
+     * Thread safety argument:
+     * slabSize is final and slabs is a final reference
+     * slabs, the free-lists of every slab, allocated and the released
+     *      flag of every handle are only read or modified inside
+     *      synchronized methods of this store
+     * slab buffers are only accessed through duplicates created while
+     *      holding the lock, so their positions are never shared
+     */
+
+    /**
+     * Create an empty store that allocates slabs of slabSize bytes.
+     *
+     * @param slabSize the size of each shared slab in bytes, at least 1
+     */
+    public OffHeapStore(int slabSize) {
+        this.slabSize = slabSize;
+        this.slabs = new ArrayList<>();
+    }
+
+    /**
+     * Create an empty store with the default slab size.
+     */
+    public OffHeapStore() {
+        this(DSLAB);
+    }
+
+    /**
+     * Copies text into the store.
+     *
+     * @param text the text to store
+     * @return the body of a page whose text is held by this store
+     */
+    PageBody store(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Handle handle = allocate(bytes.length);
+        write(handle, bytes);
+        return handle;
+    }
+
+    /**
+     * Returns the number of bytes currently held by live allocations.
+     *
+     * @return the number of bytes in use
+     */
+    synchronized public long allocatedBytes() {
+        return allocated;
+    }
+
+    /**
+     * Returns the number of bytes of direct memory reserved by the
+     * store, including free space within slabs.
+     *
+     * @return the number of bytes reserved
+     */
+    synchronized public long reservedBytes() {
+        long reserved = 0;
+        for (Slab slab : slabs) {
+            if (slab != null) {
+                reserved += slab.buffer.capacity();
+            }
+        }
+        return reserved;
+    }
+
+    /**
+     * Reserves space for length bytes, first-fit in the existing
+     * slabs, adding a new slab when none has room.
+     *
+     * @param length the number of bytes to reserve
+     * @return a handle to the reserved space
+     */
+    synchronized private Handle allocate(int length) {
+        int rounded = Math.max(ALIGNMENT, (length + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT);
+        if (rounded > slabSize) {
+            Slab dedicated = new Slab(ByteBuffer.allocateDirect(length), false);
+            allocated += length;
+            return new Handle(addSlab(dedicated), 0, length, length);
+        }
+        for (int i = 0; i < slabs.size(); i++) {
+            Slab slab = slabs.get(i);
+            if (slab != null && slab.shared) {
+                int offset = slab.take(rounded);
+                if (offset >= 0) {
+                    allocated += length;
+                    return new Handle(i, offset, length, rounded);
+                }
+            }
+        }
+        Slab slab = new Slab(ByteBuffer.allocateDirect(slabSize), true);
+        int index = addSlab(slab);
+        allocated += length;
+        return new Handle(index, slab.take(rounded), length, rounded);
+    }
+
+    /**
+     * Places slab in the first unused position of slabs.
+     *
+     * @param slab the slab to add
+     * @return the index of slab in slabs
+     */
+    private int addSlab(Slab slab) {
+        int index = slabs.indexOf(null);
+        if (index < 0) {
+            slabs.add(slab);
+            return slabs.size() - 1;
+        }
+        slabs.set(index, slab);
+        return index;
+    }
+
+    /**
+     * Copies bytes into the space reserved for handle.
+     *
+     * @param handle a live handle with handle.length == bytes.length
+     * @param bytes  the bytes to store
+     */
+    synchronized private void write(Handle handle, byte[] bytes) {
+        ByteBuffer target = slabs.get(handle.slab).buffer.duplicate();
+        target.position(handle.offset);
+        target.put(bytes);
+    }
+
+    /**
+     * Copies the bytes held for handle back onto the heap.
+     *
+     * @param handle a handle created by this store
+     * @return the stored bytes
+     * @throws PageReleasedException if handle has been released
+     */
+    synchronized private byte[] read(Handle handle) {
+        if (handle.released) {
+            throw new PageReleasedException("Page content has been released.");
+        }
+        byte[] bytes = new byte[handle.length];
+        ByteBuffer source = slabs.get(handle.slab).buffer.duplicate();
+        source.position(handle.offset);
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns the space held for handle to the free-list of its slab.
+     * Dedicated slabs are dropped so their memory can be reclaimed.
+     *
+     * @param handle a handle created by this store
+     */
+    synchronized private void free(Handle handle) {
+        if (handle.released) {
+            return;
+        }
+        handle.released = true;
+        allocated -= handle.length;
+        Slab slab = slabs.get(handle.slab);
+        if (slab.shared) {
+            slab.give(handle.offset, handle.reserved);
+        } else {
+            slabs.set(handle.slab, null);
+        }
+    }
+
+    private static class Slab {
+        private final ByteBuffer buffer;
+        private final boolean shared;
+        private final TreeMap<Integer, Integer> free;
+        /**
+         * Rep Invariant:
+         * buffer and free are not null
+         * every free extent lies within buffer, extents do not overlap
+         *      and no two extents are adjacent
+         */
+        /**
+         * Abstraction Function:
+         * Represents a block of direct memory. free maps the offset of
+         * every unused extent to its length.
+         */
+        /**
+         * Thread safety argument:
+         * Slab is only accessed while holding the lock of its store.
+         */
+
+        /**
+         * Creates a slab whose whole buffer is free if it is shared.
+         *
+         * @param buffer the memory of the slab
+         * @param shared true if the slab holds many allocations
+         */
+        Slab(ByteBuffer buffer, boolean shared) {
+            this.buffer = buffer;
+            this.shared = shared;
+            this.free = new TreeMap<>();
+            if (shared) {
+                free.put(0, buffer.capacity());
+            }
+        }
+
+        /**
+         * Removes length bytes from the first free extent that fits.
+         *
+         * @param length the number of bytes to take
+         * @return the offset of the bytes taken, or -1 if no extent fits
+         */
+        int take(int length) {
+            for (Map.Entry<Integer, Integer> extent : free.entrySet()) {
+                if (extent.getValue() >= length) {
+                    int offset = extent.getKey();
+                    free.remove(offset);
+                    if (extent.getValue() > length) {
+                        free.put(offset + length, extent.getValue() - length);
+                    }
+                    return offset;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns an extent to the free-list, merging it with the free
+         * extents directly before and after it.
+         *
+         * @param offset the start of the extent
+         * @param length the length of the extent
+         */
+        void give(int offset, int length) {
+            Map.Entry<Integer, Integer> after = free.ceilingEntry(offset);
+            if (after != null && after.getKey() == offset + length) {
+                free.remove(after.getKey());
+                length += after.getValue();
+            }
+            Map.Entry<Integer, Integer> before = free.floorEntry(offset);
+            if (before != null && before.getKey() + before.getValue() == offset) {
+                offset = before.getKey();
+                length += before.getValue();
+            }
+            free.put(offset, length);
+        }
+    }
+
+    private class Handle implements PageBody {
+        private final int slab;
+        private final int offset;
+        private final int length;
+        private final int reserved;
+        private boolean released;
+        /**
+         * Rep Invariant:
+         * 0 <= length <= reserved
+         * the bytes from offset to offset + reserved of slabs.get(slab)
+         *      belong to this handle until it is released
+         */
+        /**
+         * Abstraction Function:
+         * Represents UTF-8 text of length bytes stored at offset in a
+         * slab of the enclosing store.
+         */
+        /**
+         * Thread safety argument:
+         * slab, offset, length and reserved are final
+         * released is only accessed while holding the lock of the
+         *      enclosing store
+         */
+
+        Handle(int slab, int offset, int length, int reserved) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.reserved = reserved;
+        }
+
+        @Override
+        public String text() {
+            return new String(read(this), StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int size() {
+            return length;
+        }
+
+        @Override
+        public void release() {
+            free(this);
+        }
+    }
+}
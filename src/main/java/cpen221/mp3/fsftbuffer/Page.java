@@ -1,15 +1,23 @@
 package cpen221.mp3.fsftbuffer;
 
+import java.lang.ref.Cleaner;
+
 public class Page implements Bufferable{
+
+    /* releases pages that may still be read once they are unreachable */
+    private static final Cleaner CLEANER = Cleaner.create();
+
     private final String title;
-    private final String content;
+    private final PageBody body;
     /**
      * Rep Invariant:
-     * title and content are not null
+     * title and body are not null
      */
     /**
      * Abstraction Function:
-     * Represents a Wikipedia page with its title and contents
+     * Represents a Wikipedia page with its title and contents.
+     * body holds the contents, either as a String on the heap or
+     * encoded in storage outside the heap.
      */
 
     /**
@@ -18,8 +26,46 @@ public class Page implements Bufferable{
      * @param content the content corresponding to the page title.
      */
     public Page(String title, String content) {
+        this(title, new HeapBody(content));
+    }
+
+    /**
+     * Creates an instance of Page with given title and body
+     * @param title the title/id of the Page instance
+     * @param body the stored content corresponding to the page title.
+     */
+    private Page(String title, PageBody body) {
         this.title = title;
-        this.content = content;
+        this.body = body;
+    }
+
+    /**
+     * Creates an instance of Page whose content is kept as UTF-8 bytes
+     * in store rather than on the heap. The content is decoded again
+     * on every call to getContent, and the space it occupies in store
+     * is held until the Page is released.
+     * @param title the title/id of the Page instance
+     * @param content the content corresponding to the page title.
+     * @param store the off-heap storage to hold the content
+     * @return a Page with the given title and content
+     */
+    public static Page offHeap(String title, String content, OffHeapStore store) {
+        return new Page(title, store.store(content));
+    }
+
+    /**
+     * Creates an instance of Page whose content is deflated by
+     * compressor when it is large enough to benefit. The content is
+     * decompressed when it is read, unless it is still in the hot set
+     * of recently read contents kept by compressor.
+     * @param title the title/id of the Page instance
+     * @param content the content corresponding to the page title.
+     * @param compressor the codec that compresses the content
+     * @return a Page with the given title and content
+     */
+    public static Page compressed(String title, String content, PageCompressor compressor) {
+        PageBody body = compressor.store(content);
+        return new Page(title, body == null ? new HeapBody(content) : body);
     }
 
     @Override
@@ -30,9 +76,38 @@ public class Page implements Bufferable{
     /**
      * Returns the content of the Page
      * @return content
+     * @throws PageReleasedException if the Page has been released
      */
     public String getContent() {
-        return content;
+        return body.text();
+    }
+
+    /**
+     * Returns an estimate of the number of bytes the title and content
+     * of the Page occupy, assuming two bytes per character of the
+     * title and counting the content in the form it is stored.
+     * @return the estimated size of the Page in bytes
+     */
+    public int weight() {
+        return 2 * title.length() + body.size();
+    }
+
+    /**
+     * Frees any storage outside the heap held by the content of the
+     * Page, and drops any decompressed copy of it. Pages kept on the
+     * heap are not affected.
+     */
+    public void release() {
+        body.release();
+    }
+
+    /**
+     * Releases the Page as release does, but only once no thread can
+     * read it any more, for a Page that other threads may still hold.
+     */
+    public void releaseWhenUnreachable() {
+        PageBody held = body;
+        CLEANER.register(this, held::release);
     }
 
     @Override
@@ -44,6 +119,28 @@ public class Page implements Bufferable{
             return false;
         }
         Page that = (Page) obj;
-        return this.title.equals(that.title) && this.content.equals(that.content);
+        return this.title.equals(that.title) && this.getContent().equals(that.getContent());
+    }
+
+    private static class HeapBody implements PageBody {
+        private final String content;
+
+        HeapBody(String content) {
+            this.content = content;
+        }
+
+        @Override
+        public String text() {
+            return content;
+        }
+
+        @Override
+        public int size() {
+            return 2 * content.length();
+        }
+
+        @Override
+        public void release() {
+        }
     }
 }
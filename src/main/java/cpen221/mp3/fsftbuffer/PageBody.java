@@ -0,0 +1,26 @@
+package cpen221.mp3.fsftbuffer;
+
+interface PageBody {
+
+    /**
+     * Returns the text of the page, decoding it from its stored form.
+     *
+     * @return the content of the page
+     * @throws PageReleasedException if the body has been released
+     */
+    String text();
+
+    /**
+     * Returns the number of bytes the stored form of the text occupies.
+     *
+     * @return the size of the body in bytes
+     */
+    int size();
+
+    /**
+     * Frees the storage held by the body. Releasing a body twice has
+     * no further effect.
+     */
+    void release();
+
+}
@@ -0,0 +1,278 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class PageCompressor {
+
+    /* contents shorter than 4 KiB are not worth compressing */
+    public static final int DTHRESHOLD = 4 * 1024;
+
+    /* the default number of decompressed contents kept is 16 */
+    public static final int DHOTSET = 16;
+
+    private final int threshold;
+    private final Map<PageBody, String> hotSet;
+    private final LongAdder rawBytes;
+    private final LongAdder compressedBytes;
+    private final LongAdder decodes;
+    private final LongAdder decodeNanos;
+    private final LongAdder hotHits;
+    /**
+     * Rep Invariant:
+     * threshold >= 0 and hotSet, rawBytes, compressedBytes, decodes,
+     *      decodeNanos, hotHits are not null
+     * every key of hotSet is a live Compressed body created by this
+     *      compressor and maps to its decompressed text
+     * hotSet holds at most as many entries as it was created with
+     */
+    /**
+     * Abstraction Function:
+     * Represents a codec that deflates page contents of at least
+     * threshold UTF-8 bytes. hotSet holds the most recently read
+     * contents in decompressed form. rawBytes and compressedBytes sum
+     * the sizes of every content compressed, decodes and decodeNanos
+     * count the decompressions performed and the time they took, and
+     * hotHits counts reads answered from hotSet.
+     */
+    /**
+     * Thread safety argument:
+     * all fields are final
+     * hotSet is only accessed inside blocks synchronized on hotSet
+     * LongAdder is thread-safe
+     * Deflater and Inflater instances are confined to a single call
+     */
+
+    /**
+     * Create a compressor with a given threshold and hot set size.
+     *
+     * @param threshold the smallest content, in UTF-8 bytes, that is
+     *                  compressed
+     * @param hotSize   the number of decompressed contents to keep
+     */
+    public PageCompressor(int threshold, int hotSize) {
+        this.threshold = threshold;
+        this.hotSet = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageBody, String> eldest) {
+                return size() > hotSize;
+            }
+        };
+        this.rawBytes = new LongAdder();
+        this.compressedBytes = new LongAdder();
+        this.decodes = new LongAdder();
+        this.decodeNanos = new LongAdder();
+        this.hotHits = new LongAdder();
+    }
+
+    /**
+     * Create a compressor with default threshold and hot set size.
+     */
+    public PageCompressor() {
+        this(DTHRESHOLD, DHOTSET);
+    }
+
+    /**
+     * Returns the body of a page holding text deflated, if text is at
+     * least threshold bytes long and compresses to fewer bytes.
+     *
+     * @param text the content of a page
+     * @return the body of a page whose text is held by this compressor,
+     * or null if text is not worth compressing
+     */
+    PageBody store(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length < threshold) {
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        if (out.size() >= raw.length) {
+            return null;
+        }
+        rawBytes.add(raw.length);
+        compressedBytes.add(out.size());
+        return new Compressed(out.toByteArray(), raw.length);
+    }
+
+    /**
+     * Returns the ratio of the original size to the compressed size of
+     * every content this compressor has compressed.
+     *
+     * @return the compression ratio, or 1 if nothing was compressed
+     */
+    public double compressionRatio() {
+        long compressed = compressedBytes.sum();
+        return compressed == 0 ? 1.0 : (double) rawBytes.sum() / compressed;
+    }
+
+    /**
+     * Returns the size of every content compressed, before compression.
+     *
+     * @return the total uncompressed size in bytes
+     */
+    long uncompressedBytes() {
+        return rawBytes.sum();
+    }
+
+    /**
+     * Returns the size of every content compressed, after compression.
+     *
+     * @return the total compressed size in bytes
+     */
+    long compressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    /**
+     * Returns the number of times a content was decompressed.
+     *
+     * @return the number of decompressions
+     */
+    public long decodeCount() {
+        return decodes.sum();
+    }
+
+    /**
+     * Returns the total time spent decompressing contents.
+     *
+     * @return the total decompression time in nanoseconds
+     */
+    public long totalDecodeTime() {
+        return decodeNanos.sum();
+    }
+
+    /**
+     * Returns the number of reads answered from the decompressed hot set.
+     *
+     * @return the number of hot set hits
+     */
+    public long hotHitCount() {
+        return hotHits.sum();
+    }
+
+    /**
+     * Returns the text of body, from the hot set if possible. Released
+     * bodies can still be read but are no longer kept in the hot set.
+     *
+     * @param body a body created by this compressor
+     * @return the decompressed text of body
+     */
+    private String read(Compressed body) {
+        synchronized (hotSet) {
+            String text = hotSet.get(body);
+            if (text != null) {
+                hotHits.increment();
+                return text;
+            }
+        }
+        long start = System.nanoTime();
+        String text = inflate(body);
+        decodeNanos.add(System.nanoTime() - start);
+        decodes.increment();
+        synchronized (hotSet) {
+            if (!body.released) {
+                hotSet.put(body, text);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * Decompresses the text of body.
+     *
+     * @param body a body created by this compressor
+     * @return the decompressed text of body
+     * @throws IllegalStateException if the compressed bytes are
+     *                               truncated or corrupted
+     */
+    private static String inflate(Compressed body) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(body.bytes);
+        byte[] raw = new byte[body.length];
+        try {
+            int read = 0;
+            while (read < raw.length && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, read, raw.length - read);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    // no progress is possible: the input ended early
+                    break;
+                }
+                read += inflated;
+            }
+            if (read < raw.length) {
+                throw new IllegalStateException("Page content is truncated.");
+            }
+        } catch (DataFormatException dfe) {
+            throw new IllegalStateException("Page content is corrupted.", dfe);
+        } finally {
+            inflater.end();
+        }
+        return new String(raw, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drops body from the hot set and marks it as released.
+     *
+     * @param body a body created by this compressor
+     */
+    private void release(Compressed body) {
+        synchronized (hotSet) {
+            body.released = true;
+            hotSet.remove(body);
+        }
+    }
+
+    private class Compressed implements PageBody {
+        private final byte[] bytes;
+        private final int length;
+        private boolean released;
+        /**
+         * Rep Invariant:
+         * bytes is not null and inflates to length bytes of UTF-8
+         */
+        /**
+         * Abstraction Function:
+         * Represents the text whose UTF-8 encoding deflates to bytes.
+         */
+        /**
+         * Thread safety argument:
+         * bytes and length are final and bytes is never modified
+         * released is only accessed inside blocks synchronized on the
+         *      hot set of the enclosing compressor
+         */
+
+        Compressed(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+        }
+
+        @Override
+        public String text() {
+            return read(this);
+        }
+
+        @Override
+        public int size() {
+            return bytes.length;
+        }
+
+        @Override
+        public void release() {
+            PageCompressor.this.release(this);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package cpen221.mp3.fsftbuffer;
+
+public class PageReleasedException extends IllegalStateException {
+    private static final long serialVersionUID = 1L;
+
+    public PageReleasedException(String errorMsg) {super(errorMsg);}
+}
@@ -0,0 +1,113 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+class Refresher<T extends Bufferable> {
+
+    /* at most 64 reloads per thread wait to run; later ones are skipped */
+    private static final int QUEUE_PER_THREAD = 64;
+
+    /* idle reload threads exit after 60s */
+    private static final long KEEP_ALIVE = 60;
+
+    private final double fraction;
+    private final Function<String, ? extends T> loader;
+    private final ThreadPoolExecutor executor;
+    /**
+     * Rep Invariant:
+     * 0 <= fraction <= 1
+     * loader and executor are not null
+     */
+    /**
+     * Abstraction Function:
+     * Represents the refresh-ahead policy of one or more buffers.
+     * An object is reloaded through loader once it has gone unwritten
+     * for the last fraction of its timeout, or once it is stale. Each
+     * buffer counts the reloads it starts and their outcome in its
+     * own statistics.
+     */
+    /**
+     * Thread safety argument:
+     * all fields are final
+     * ThreadPoolExecutor is thread-safe
+     * loader is only called from executor threads, without holding
+     *      the lock of any buffer
+     */
+
+    /**
+     * Create a refresher whose reloads run on a bounded pool of
+     * daemon threads.
+     *
+     * @param fraction the last part of the timeout, between 0 and 1,
+     *                 in which an accessed object is reloaded
+     * @param loader   returns the current version of the object with
+     *                 a given id, or null if there is none
+     * @param threads  the number of reload threads, at least 1
+     */
+    Refresher(double fraction, Function<String, ? extends T> loader, int threads) {
+        this.fraction = fraction;
+        this.loader = loader;
+        AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD), runnable -> {
+                Thread thread = new Thread(runnable, "fsftbuffer-refresh-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Decides whether an accessed object is due for a reload.
+     *
+     * @param age           the time, in milliseconds, since the object
+     *                      was last put or updated
+     * @param timeoutMillis the timeout of the buffer in milliseconds
+     * @return true if the object is within the last fraction of its
+     * timeout, which is never the case if fraction is 0
+     */
+    boolean due(long age, long timeoutMillis) {
+        return fraction > 0 && age >= timeoutMillis - (long) (timeoutMillis * fraction);
+    }
+
+    /**
+     * Reloads the object with id in the background and hands the
+     * result to buffer.
+     *
+     * @param buffer the buffer holding the object
+     * @param id     the identifier of the object
+     * @return true if the reload was started, and false if too many
+     * reloads are already waiting
+     */
+    boolean schedule(FSFTBuffer<T> buffer, String id) {
+        try {
+            executor.execute(() -> reload(buffer, id));
+        } catch (RejectedExecutionException ree) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Calls loader for id and completes the refresh in buffer, even if
+     * loader throws an Error, so that the object can be reloaded again.
+     *
+     * @param buffer the buffer holding the object
+     * @param id     the identifier of the object
+     */
+    private void reload(FSFTBuffer<T> buffer, String id) {
+        T fresh = null;
+        try {
+            fresh = loader.apply(id);
+        } catch (RuntimeException re) {
+            // counted as a failed refresh
+        } finally {
+            buffer.completeRefresh(id, fresh);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package cpen221.mp3.fsftbuffer;
+
+public enum RemovalCause {
+
+    /* the object timed out */
+    EXPIRED,
+
+    /* the object was removed to make room for another object */
+    SIZE,
+
+    /* the object was replaced by update */
+    REPLACED,
+
+    /* the object was removed by invalidate or invalidateAll */
+    EXPLICIT,
+
+    /* the object was loaded on a miss but not admitted, so it was
+       never held; callers that shared the load may still be using it */
+    REJECTED
+
+}
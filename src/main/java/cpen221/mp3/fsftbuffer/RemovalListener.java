@@ -0,0 +1,28 @@
+package cpen221.mp3.fsftbuffer;
+
+public interface RemovalListener<T> {
+
+    /**
+     * Called when an object leaves a buffer.
+     *
+     * @param t     the object that was removed
+     * @param cause the reason the object was removed
+     */
+    void onRemoval(T t, RemovalCause cause);
+
+    /**
+     * Called when an object leaves a buffer, with the time the object
+     * would have timed out, so that a listener keeping the object
+     * elsewhere can keep its timeout. Calls onRemoval(t, cause) unless
+     * overridden.
+     *
+     * @param t        the object that was removed
+     * @param cause    the reason the object was removed
+     * @param deadline the time, in milliseconds on the clock of the
+     *                 buffer, the object would have timed out
+     */
+    default void onRemoval(T t, RemovalCause cause, long deadline) {
+        onRemoval(t, cause);
+    }
+
+}
@@ -0,0 +1,124 @@
+package cpen221.mp3.fsftbuffer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+class StatsCounter {
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder loadSuccesses = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder loadTime = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder refreshSuccesses = new LongAdder();
+    private final LongAdder refreshFailures = new LongAdder();
+    private final LongAdder listenerFailures = new LongAdder();
+    /**
+     * Rep Invariant:
+     * all fields are not null and hold non-negative sums
+     */
+    /**
+     * Abstraction Function:
+     * Represents the running statistics of one buffer, each kept as
+     * a LongAdder named after what it counts.
+     */
+    /**
+     * Thread safety argument:
+     * all fields are final and LongAdder is thread-safe; recording
+     *      only touches a cell of the recording thread, so it costs
+     *      almost nothing even when stats are read concurrently
+     */
+
+    /**
+     * Counts a lookup that found its object.
+     */
+    void recordHit() {
+        hits.increment();
+    }
+
+    /**
+     * Counts a lookup that did not find its object.
+     */
+    void recordMiss() {
+        misses.increment();
+    }
+
+    /**
+     * Counts an object added to the buffer.
+     */
+    void recordPut() {
+        puts.increment();
+    }
+
+    /**
+     * Counts an object leaving the buffer. Only removals to make room
+     * and timeouts are counted.
+     *
+     * @param cause the reason the object was removed
+     */
+    void recordRemoval(RemovalCause cause) {
+        if (cause == RemovalCause.SIZE) {
+            evictions.increment();
+        } else if (cause == RemovalCause.EXPIRED) {
+            expirations.increment();
+        }
+    }
+
+    /**
+     * Counts a load run after a miss.
+     *
+     * @param success true if the load returned an object
+     * @param nanos   the time the load took in nanoseconds
+     */
+    void recordLoad(boolean success, long nanos) {
+        if (success) {
+            loadSuccesses.increment();
+        } else {
+            loadFailures.increment();
+        }
+        loadTime.add(nanos);
+    }
+
+    /**
+     * Counts a background reload that was started.
+     */
+    void recordRefresh() {
+        refreshes.increment();
+    }
+
+    /**
+     * Counts the outcome of a background reload.
+     *
+     * @param success true if the reloaded object was stored
+     */
+    void recordRefreshResult(boolean success) {
+        if (success) {
+            refreshSuccesses.increment();
+        } else {
+            refreshFailures.increment();
+        }
+    }
+
+    /**
+     * Counts a removal listener call that threw.
+     */
+    void recordListenerFailure() {
+        listenerFailures.increment();
+    }
+
+    /**
+     * Takes a snapshot of the statistics.
+     *
+     * @param size   the number of objects held
+     * @param weight the total weight of the objects held
+     * @return the current statistics
+     */
+    CacheStats snapshot(long size, long weight) {
+        return new CacheStats(hits.sum(), misses.sum(), puts.sum(), evictions.sum(),
+            expirations.sum(), loadSuccesses.sum(), loadFailures.sum(), loadTime.sum(),
+            refreshes.sum(), refreshSuccesses.sum(), refreshFailures.sum(),
+            listenerFailures.sum(), size, weight);
+    }
+}
@@ -0,0 +1,15 @@
+package cpen221.mp3.fsftbuffer;
+
+public interface Weigher<T> {
+
+    /**
+     * Returns the weight of an object, for example an estimate of the
+     * number of bytes it occupies. The weight of an object must not
+     * change while it is held by a buffer.
+     *
+     * @param t the object to weigh
+     * @return the weight of t, at least 0
+     */
+    int weigh(T t);
+
+}
@@ -5,6 +5,8 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
+import cpen221.mp3.fsftbuffer.CacheEntry;
+import cpen221.mp3.fsftbuffer.CacheStats;
 import cpen221.mp3.wikimediator.WikiMediator;
 
 import javax.json.Json;
@@ -97,6 +99,7 @@ public class WikiMediatorServer {
             String pageTitle = "NO_PAGE_TITLE";
             int limit = DEFAULT_LIMIT;
             int timeout = Integer.MAX_VALUE;
+            boolean fresh = false;
 
             if (jsonObject.has("query")) {
                 query = jsonObject.get("query").getAsString();
@@ -110,7 +113,10 @@ public class WikiMediatorServer {
             if (jsonObject.has("timeout")) {
                 timeout = jsonObject.get("timeout").getAsInt();
             }
-            String result = request(id, type, query, pageTitle, limit, timeout);
+            if (jsonObject.has("fresh")) {
+                fresh = jsonObject.get("fresh").getAsBoolean();
+            }
+            String result = request(id, type, query, pageTitle, limit, timeout, fresh);
             out.println(result);
         } finally {
             out.close();
@@ -169,11 +175,13 @@ public class WikiMediatorServer {
      * @param limit   the limited number of results if applicable
      * @param timeout the amount of time this method has to process the request
      *                before timing out in seconds
+     * @param fresh   whether a page that has timed out in the cache must
+     *                be fetched again rather than served stale
      * @return the Json formatted String corresponding to the request if
      * successful, or an error message if unsuccessful
      */
     private String request(String id, String type, String query, String pageTitle, int limit,
-                           int timeout) {
+                           int timeout, boolean fresh) {
         Gson gson = new Gson();
 
         if (type.equals("stop")) {
@@ -194,9 +202,10 @@ public class WikiMediatorServer {
                 () -> gson.toJson(new Result<>(id, "success", search)));
         }
         if (type.equals("getPage")) {
-            String page = wm.getPage(pageTitle);
+            CacheEntry<String> page = wm.getPageEntry(pageTitle, !fresh);
+            Boolean stale = page.isStale() ? Boolean.TRUE : null;
             handler = executor.submit(
-                () -> gson.toJson(new Result<>(id, "success", page)));
+                () -> gson.toJson(new Result<>(id, "success", page.value(), stale)));
         }
         if (type.equals("zeitgeist")) {
             List<String> zeitgeist = wm.zeitgeist(limit);
@@ -208,6 +217,11 @@ public class WikiMediatorServer {
             handler = executor.submit(
                 () -> gson.toJson(new Result<>(id, "success", trending)));
         }
+        if (type.equals("stats")) {
+            CacheStats stats = wm.cacheStats();
+            handler = executor.submit(
+                () -> gson.toJson(new Result<>(id, "success", stats)));
+        }
         if (type.equals("peakLoad30s")) {
             int peak = wm.peakLoad30s();
             handler = executor.submit(
@@ -237,6 +251,7 @@ public class WikiMediatorServer {
         private final String id;
         private final String status;
         private final T response;
+        private final Boolean stale;
         /**
          * Rep Invariant:
          * id, status, and response are not null
@@ -246,6 +261,9 @@ public class WikiMediatorServer {
          * Stores the id, status, and response in
          * a convenient class for the purpose of
          * making the processing easier to format.
+         * stale is true if a page was served after it
+         * timed out, and null otherwise, so that it is
+         * left out of every other reply.
          */
         /**
          * Thread safety argument:
@@ -260,9 +278,22 @@ public class WikiMediatorServer {
          * @param response the output of the request
          */
         public Result(String id, String status, T response) {
+            this(id, status, response, null);
+        }
+
+        /**
+         * Creates a new instance of result for a page
+         *
+         * @param id       the id of the request
+         * @param status   whether the request succeeded or failed
+         * @param response the output of the request
+         * @param stale    true if the page was served stale, otherwise null
+         */
+        public Result(String id, String status, T response, Boolean stale) {
             this.id = id;
             this.status = status;
             this.response = response;
+            this.stale = stale;
         }
     }
 }
@@ -0,0 +1,122 @@
+package cpen221.mp3.simulator;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+public class ArcPolicy implements EvictionPolicy {
+    private final int capacity;
+    private final LinkedHashSet<String> recent;
+    private final LinkedHashSet<String> frequent;
+    private final LinkedHashSet<String> recentGhosts;
+    private final LinkedHashSet<String> frequentGhosts;
+    private int target;
+    /**
+     * Rep Invariant:
+     * capacity >= 1 and 0 <= target <= capacity
+     * recent, frequent, recentGhosts and frequentGhosts are not null
+     *      and pairwise disjoint
+     * recent.size() + frequent.size() <= capacity
+     * recent.size() + recentGhosts.size() <= capacity
+     * the four lists together hold at most 2 * capacity keys
+     */
+    /**
+     * Abstraction Function:
+     * Represents an Adaptive Replacement Cache (Megiddo and Modha).
+     * recent (T1) holds keys seen once recently and frequent (T2) keys
+     * seen at least twice, each ordered from least to most recently
+     * used; both are held by the cache. recentGhosts (B1) and
+     * frequentGhosts (B2) remember keys recently evicted from each.
+     * target (p) is the size recent aims for; it grows on hits in B1
+     * and shrinks on hits in B2.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe; a simulation is single-threaded.
+     */
+
+    /**
+     * Creates an empty adaptive replacement cache.
+     *
+     * @param capacity the number of keys the cache holds, at least 1
+     */
+    public ArcPolicy(int capacity) {
+        this.capacity = capacity;
+        this.recent = new LinkedHashSet<>();
+        this.frequent = new LinkedHashSet<>();
+        this.recentGhosts = new LinkedHashSet<>();
+        this.frequentGhosts = new LinkedHashSet<>();
+    }
+
+    @Override
+    public boolean access(String key, long now) {
+        if (recent.remove(key) || frequent.remove(key)) {
+            frequent.add(key);
+            return true;
+        }
+        if (recentGhosts.contains(key)) {
+            int delta = Math.max(frequentGhosts.size() / recentGhosts.size(), 1);
+            target = Math.min(capacity, target + delta);
+            replace(false);
+            recentGhosts.remove(key);
+            frequent.add(key);
+            return false;
+        }
+        if (frequentGhosts.contains(key)) {
+            int delta = Math.max(recentGhosts.size() / frequentGhosts.size(), 1);
+            target = Math.max(0, target - delta);
+            replace(true);
+            frequentGhosts.remove(key);
+            frequent.add(key);
+            return false;
+        }
+        int recentSide = recent.size() + recentGhosts.size();
+        int total = recentSide + frequent.size() + frequentGhosts.size();
+        if (recentSide == capacity) {
+            if (recent.size() < capacity) {
+                removeFirst(recentGhosts);
+                replace(false);
+            } else {
+                removeFirst(recent);
+            }
+        } else if (total >= capacity) {
+            if (total == 2 * capacity) {
+                removeFirst(frequentGhosts);
+            }
+            replace(false);
+        }
+        recent.add(key);
+        return false;
+    }
+
+    /**
+     * Evicts the least recently used key of recent or of frequent into
+     * the matching ghost list, when the cache is full.
+     *
+     * @param inFrequentGhosts true if the requested key is in
+     *                         frequentGhosts
+     */
+    private void replace(boolean inFrequentGhosts) {
+        if (recent.size() + frequent.size() < capacity) {
+            return;
+        }
+        if (!recent.isEmpty() && (recent.size() > target
+            || (inFrequentGhosts && recent.size() == target) || frequent.isEmpty())) {
+            recentGhosts.add(removeFirst(recent));
+        } else {
+            frequentGhosts.add(removeFirst(frequent));
+        }
+    }
+
+    /**
+     * Removes the least recently used key of a list.
+     *
+     * @param list a non-empty list
+     * @return the key removed
+     */
+    private static String removeFirst(LinkedHashSet<String> list) {
+        Iterator<String> first = list.iterator();
+        String key = first.next();
+        first.remove();
+        return key;
+    }
+}
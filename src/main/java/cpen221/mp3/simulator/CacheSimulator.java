@@ -0,0 +1,251 @@
+package cpen221.mp3.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Replays a trace of page requests against eviction policies under
+    virtual time and reports the hit ratio of each policy over a sweep
+    of capacities and timeouts, for example:
+        java cpen221.mp3.simulator.CacheSimulator trace.jsonl
+            100,1000,10000 60,3600 LRU,ARC,FSFTBUFFER
+    Only FSFTBuffer policies have a timeout; the other policies are
+    simulated once per capacity.
+ */
+public class CacheSimulator {
+
+    /* the capacities simulated when none are given */
+    private static final int[] DCAPACITIES = {10, 100, 1000, 10000};
+
+    /* the timeouts, in seconds, simulated when none are given */
+    private static final int[] DTIMEOUTS = {60, 600, 3600};
+
+    /**
+     * The eviction policies the simulator provides.
+     */
+    public enum Policy {
+        LRU(false),
+        CLOCK(false),
+        TWO_Q(false),
+        ARC(false),
+        LFU(false),
+        FSFTBUFFER(true),
+        FSFTBUFFER_TINYLFU(true);
+
+        private final boolean timed;
+
+        Policy(boolean timed) {
+            this.timed = timed;
+        }
+
+        /**
+         * Returns whether the policy expires keys after a timeout.
+         *
+         * @return true if the timeout affects the policy
+         */
+        public boolean timed() {
+            return timed;
+        }
+
+        /**
+         * Creates an empty cache managed by this policy.
+         *
+         * @param capacity the number of keys the cache holds, at least 1
+         * @param timeout  the timeout in seconds, used only by timed
+         *                 policies
+         * @return a new policy instance
+         */
+        public EvictionPolicy create(int capacity, int timeout) {
+            switch (this) {
+                case LRU:
+                    return new LruPolicy(capacity);
+                case CLOCK:
+                    return new ClockPolicy(capacity);
+                case TWO_Q:
+                    return new TwoQueuePolicy(capacity);
+                case ARC:
+                    return new ArcPolicy(capacity);
+                case LFU:
+                    return new LfuPolicy(capacity);
+                case FSFTBUFFER:
+                    return new FSFTBufferPolicy(capacity, timeout, false);
+                default:
+                    return new FSFTBufferPolicy(capacity, timeout, true);
+            }
+        }
+    }
+
+    /**
+     * Replays a trace against a policy.
+     *
+     * @param trace  the requests to replay
+     * @param policy the cache to replay them against
+     * @return the number of requests that were hits
+     */
+    public static long simulate(Trace trace, EvictionPolicy policy) {
+        long hits = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            if (policy.access(trace.key(i), trace.time(i))) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Replays a trace against every combination of policy, capacity
+     * and, for timed policies, timeout.
+     *
+     * @param trace      the requests to replay
+     * @param policies   the policies to simulate
+     * @param capacities the capacities to simulate, each at least 1
+     * @param timeouts   the timeouts, in seconds, to simulate
+     * @return the result of every simulation, in the order of
+     * policies, capacities and timeouts
+     */
+    public static List<Result> sweep(Trace trace, List<Policy> policies, int[] capacities,
+                                     int[] timeouts) {
+        List<Result> results = new ArrayList<>();
+        for (Policy policy : policies) {
+            for (int capacity : capacities) {
+                int[] policyTimeouts = policy.timed() ? timeouts : new int[] {0};
+                for (int timeout : policyTimeouts) {
+                    long hits = simulate(trace, policy.create(capacity, timeout));
+                    results.add(new Result(policy, capacity, timeout, hits, trace.size()));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs a sweep and prints its results.
+     *
+     * @param args the trace file, then optionally comma separated lists
+     *             of capacities, of timeouts in seconds and of policy
+     *             names
+     * @throws IOException if the trace cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("usage: CacheSimulator trace [capacities] [timeouts] [policies]");
+            return;
+        }
+        long start = System.nanoTime();
+        Trace trace = Trace.read(new File(args[0]));
+        int[] capacities = args.length > 1 ? parseInts(args[1]) : DCAPACITIES;
+        int[] timeouts = args.length > 2 ? parseInts(args[2]) : DTIMEOUTS;
+        List<Policy> policies = new ArrayList<>();
+        if (args.length > 3) {
+            for (String name : args[3].split(",")) {
+                policies.add(Policy.valueOf(name.trim().toUpperCase()));
+            }
+        } else {
+            policies.addAll(Arrays.asList(Policy.values()));
+        }
+        long read = System.nanoTime();
+
+        System.out.printf("%-20s %10s %8s %12s %9s%n",
+            "policy", "capacity", "timeout", "hits", "hit ratio");
+        for (Result result : sweep(trace, policies, capacities, timeouts)) {
+            System.out.println(result);
+        }
+        System.out.printf("%d requests read in %d ms, simulated in %d ms%n", trace.size(),
+            (read - start) / 1_000_000, (System.nanoTime() - read) / 1_000_000);
+    }
+
+    /**
+     * Parses a comma separated list of integers.
+     *
+     * @param list the list to parse
+     * @return the integers in list
+     */
+    private static int[] parseInts(String list) {
+        return Arrays.stream(list.split(",")).map(String::trim).mapToInt(Integer::parseInt)
+            .toArray();
+    }
+
+    public static class Result {
+        private final Policy policy;
+        private final int capacity;
+        private final int timeout;
+        private final long hits;
+        private final long requests;
+        /**
+         * Rep Invariant:
+         * policy is not null and 0 <= hits <= requests
+         * timeout is 0 if policy is not timed
+         */
+        /**
+         * Abstraction Function:
+         * Represents a simulation of policy with capacity and timeout,
+         * in seconds, in which hits of requests requests were hits.
+         */
+        /**
+         * Thread safety argument:
+         * Result is immutable.
+         */
+
+        Result(Policy policy, int capacity, int timeout, long hits, long requests) {
+            this.policy = policy;
+            this.capacity = capacity;
+            this.timeout = timeout;
+            this.hits = hits;
+            this.requests = requests;
+        }
+
+        /**
+         * Returns the policy simulated.
+         *
+         * @return the policy
+         */
+        public Policy policy() {
+            return policy;
+        }
+
+        /**
+         * Returns the capacity simulated.
+         *
+         * @return the number of keys the cache held
+         */
+        public int capacity() {
+            return capacity;
+        }
+
+        /**
+         * Returns the timeout simulated.
+         *
+         * @return the timeout in seconds, or 0 if the policy is not timed
+         */
+        public int timeout() {
+            return timeout;
+        }
+
+        /**
+         * Returns the number of requests that were hits.
+         *
+         * @return the number of hits
+         */
+        public long hits() {
+            return hits;
+        }
+
+        /**
+         * Returns the fraction of requests that were hits.
+         *
+         * @return the hit ratio, or 0 for an empty trace
+         */
+        public double hitRatio() {
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %10d %8s %12d %9.4f", policy, capacity,
+                policy.timed() ? Integer.toString(timeout) : "-", hits, hitRatio());
+        }
+    }
+}
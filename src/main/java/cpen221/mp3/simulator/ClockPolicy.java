@@ -0,0 +1,66 @@
+package cpen221.mp3.simulator;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ClockPolicy implements EvictionPolicy {
+    private final String[] keys;
+    private final boolean[] referenced;
+    private final Map<String, Integer> slots;
+    private int hand;
+    private int count;
+    /**
+     * Rep Invariant:
+     * keys, referenced and slots are not null and keys.length ==
+     *      referenced.length >= 1
+     * 0 <= hand < keys.length and 0 <= count <= keys.length
+     * slots maps each of keys[0..count-1] to its index
+     */
+    /**
+     * Abstraction Function:
+     * Represents a CLOCK cache holding keys[0..count-1] in a circular
+     * buffer. referenced[i] is the reference bit of keys[i], set on
+     * every hit and cleared as hand sweeps past; the first key hand
+     * finds with a clear bit is evicted.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe; a simulation is single-threaded.
+     */
+
+    /**
+     * Creates an empty CLOCK cache.
+     *
+     * @param capacity the number of keys the cache holds, at least 1
+     */
+    public ClockPolicy(int capacity) {
+        this.keys = new String[capacity];
+        this.referenced = new boolean[capacity];
+        this.slots = new HashMap<>();
+    }
+
+    @Override
+    public boolean access(String key, long now) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            referenced[slot] = true;
+            return true;
+        }
+        int free;
+        if (count < keys.length) {
+            free = count++;
+        } else {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % keys.length;
+            }
+            free = hand;
+            slots.remove(keys[free]);
+            hand = (hand + 1) % keys.length;
+        }
+        keys[free] = key;
+        referenced[free] = false;
+        slots.put(key, free);
+        return false;
+    }
+}
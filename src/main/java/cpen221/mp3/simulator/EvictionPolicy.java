@@ -0,0 +1,17 @@
+package cpen221.mp3.simulator;
+
+public interface EvictionPolicy {
+
+    /**
+     * Records a request for key at time now. If key is not held, it
+     * is admitted, removing other keys as the policy decides.
+     *
+     * @param key the key requested
+     * @param now the virtual time of the request in milliseconds,
+     *            which never decreases between calls
+     * @return true if key was held when it was requested, and false
+     * if the request was a miss
+     */
+    boolean access(String key, long now);
+
+}
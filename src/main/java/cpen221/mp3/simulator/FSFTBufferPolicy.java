@@ -0,0 +1,74 @@
+package cpen221.mp3.simulator;
+
+import cpen221.mp3.fsftbuffer.Bufferable;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+
+public class FSFTBufferPolicy implements EvictionPolicy {
+    private final FSFTBuffer<Key> buffer;
+    private long now;
+    /**
+     * Rep Invariant:
+     * buffer is not null and reads its time from now
+     */
+    /**
+     * Abstraction Function:
+     * Represents an FSFTBuffer driven by the virtual time of a trace.
+     * A request is a hit if the buffer holds the key, which renews its
+     * timeout as get does, and a miss puts the key in the buffer.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe; a simulation is single-threaded.
+     */
+
+    /**
+     * Creates a policy backed by an empty FSFTBuffer.
+     *
+     * @param capacity  the number of keys the buffer holds, at least 1
+     * @param timeout   the timeout of the buffer in seconds
+     * @param admission whether the buffer uses its admission filter
+     */
+    public FSFTBufferPolicy(int capacity, int timeout, boolean admission) {
+        FSFTBuffer.Builder<Key> builder = new FSFTBuffer.Builder<Key>()
+            .withCapacity(capacity).withTimeout(timeout).withClock(() -> now);
+        if (admission) {
+            builder.withAdmissionFilter();
+        }
+        this.buffer = builder.build();
+    }
+
+    @Override
+    public boolean access(String key, long now) {
+        this.now = now;
+        if (buffer.touch(key)) {
+            return true;
+        }
+        buffer.put(new Key(key));
+        return false;
+    }
+
+    private static class Key implements Bufferable {
+        private final String id;
+        /**
+         * Rep Invariant:
+         * id is not null
+         */
+        /**
+         * Abstraction Function:
+         * Represents a requested key as a bufferable object.
+         */
+        /**
+         * Thread safety argument:
+         * Key is immutable.
+         */
+
+        Key(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+    }
+}
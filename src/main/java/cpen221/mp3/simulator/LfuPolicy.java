@@ -0,0 +1,75 @@
+package cpen221.mp3.simulator;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+public class LfuPolicy implements EvictionPolicy {
+    private final int capacity;
+    private final Map<String, Integer> counts;
+    private final Map<Integer, LinkedHashSet<String>> buckets;
+    private int minCount;
+    /**
+     * Rep Invariant:
+     * capacity >= 1 and counts.size() <= capacity
+     * counts and buckets are not null
+     * every key k of counts is in buckets.get(counts.get(k)), and every
+     *      bucket in buckets is non-empty and holds only such keys
+     * if counts is not empty, minCount is the smallest value in counts
+     */
+    /**
+     * Abstraction Function:
+     * Represents a least frequently used cache holding the keys of
+     * counts, each requested counts.get(k) times since it was admitted.
+     * buckets groups the keys by count, from least to most recently
+     * requested, so the evicted key is the least recently used of the
+     * least frequently used.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe; a simulation is single-threaded.
+     */
+
+    /**
+     * Creates an empty least frequently used cache.
+     *
+     * @param capacity the number of keys the cache holds, at least 1
+     */
+    public LfuPolicy(int capacity) {
+        this.capacity = capacity;
+        this.counts = new HashMap<>();
+        this.buckets = new HashMap<>();
+    }
+
+    @Override
+    public boolean access(String key, long now) {
+        Integer count = counts.get(key);
+        if (count != null) {
+            LinkedHashSet<String> bucket = buckets.get(count);
+            bucket.remove(key);
+            if (bucket.isEmpty()) {
+                buckets.remove(count);
+                if (minCount == count) {
+                    minCount = count + 1;
+                }
+            }
+            counts.put(key, count + 1);
+            buckets.computeIfAbsent(count + 1, c -> new LinkedHashSet<>()).add(key);
+            return true;
+        }
+        if (counts.size() >= capacity) {
+            LinkedHashSet<String> bucket = buckets.get(minCount);
+            Iterator<String> victim = bucket.iterator();
+            counts.remove(victim.next());
+            victim.remove();
+            if (bucket.isEmpty()) {
+                buckets.remove(minCount);
+            }
+        }
+        counts.put(key, 1);
+        buckets.computeIfAbsent(1, c -> new LinkedHashSet<>()).add(key);
+        minCount = 1;
+        return false;
+    }
+}
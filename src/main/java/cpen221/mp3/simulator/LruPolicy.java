@@ -0,0 +1,45 @@
+package cpen221.mp3.simulator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LruPolicy implements EvictionPolicy {
+    private final Map<String, Boolean> keys;
+    /**
+     * Rep Invariant:
+     * keys is not null and holds at most the capacity it was created
+     *      with
+     */
+    /**
+     * Abstraction Function:
+     * Represents a cache of the keys of keys, ordered from least to
+     * most recently used, that evicts the least recently used key.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe; a simulation is single-threaded.
+     */
+
+    /**
+     * Creates an empty least recently used cache.
+     *
+     * @param capacity the number of keys the cache holds, at least 1
+     */
+    public LruPolicy(int capacity) {
+        this.keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    @Override
+    public boolean access(String key, long now) {
+        if (keys.get(key) != null) {
+            return true;
+        }
+        keys.put(key, Boolean.TRUE);
+        return false;
+    }
+}
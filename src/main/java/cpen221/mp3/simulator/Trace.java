@@ -0,0 +1,235 @@
+package cpen221.mp3.simulator;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Trace {
+
+    /* requests without a timestamp are spaced 100 ms apart */
+    public static final long DINTERVAL = 100;
+
+    private String[] keys;
+    private long[] times;
+    private int size;
+    /**
+     * Rep Invariant:
+     * keys and times are not null and keys.length == times.length
+     * 0 <= size <= keys.length
+     * keys[0..size-1] are not null and times[0..size-1] never decrease
+     */
+    /**
+     * Abstraction Function:
+     * Represents the sequence of size requests in which request i
+     * asks for keys[i] at virtual time times[i] milliseconds. Equal
+     * keys share one String instance, so a trace of millions of
+     * requests costs little more than its two arrays.
+     */
+    /**
+     * Thread safety argument:
+     * Trace is not modified once it is returned by read or of.
+     */
+
+    private Trace() {
+        this.keys = new String[1024];
+        this.times = new long[1024];
+    }
+
+    /**
+     * Creates a trace of keys requested interval milliseconds apart.
+     *
+     * @param keys     the keys requested, in order
+     * @param interval the time between two requests in milliseconds
+     * @return a trace of keys
+     */
+    public static Trace of(Collection<String> keys, long interval) {
+        Trace trace = new Trace();
+        Map<String, String> canonical = new HashMap<>();
+        for (String key : keys) {
+            trace.add(canonical, key, trace.nextTime(interval));
+        }
+        return trace;
+    }
+
+    /**
+     * Reads a trace from a file, as read does.
+     *
+     * @param file the trace file
+     * @return the trace stored in file
+     * @throws IOException if file cannot be read or is malformed
+     */
+    public static Trace read(File file) throws IOException {
+        try (Reader reader = new BufferedReader(new FileReader(file))) {
+            return read(reader, DINTERVAL);
+        }
+    }
+
+    /**
+     * Reads a trace in one of two formats, chosen by its first
+     * character:
+     * - JSON requests in the format accepted by WikiMediatorServer,
+     *   either one after another (for example one per line) or in an
+     *   array. Each getPage request becomes a request for its
+     *   pageTitle; other requests do not use the page cache and are
+     *   skipped. A numeric "timestamp" field, in milliseconds, gives
+     *   the time of a request.
+     * - A stream of page titles, one per line, each optionally
+     *   preceded by a timestamp in milliseconds and a tab. Empty lines
+     *   are skipped.
+     * Requests without a timestamp are interval milliseconds after the
+     * previous request.
+     *
+     * @param reader   the source of the trace
+     * @param interval the time between two requests without timestamps
+     * @return the trace read
+     * @throws IOException if reader fails or the trace is malformed
+     */
+    public static Trace read(Reader reader, long interval) throws IOException {
+        BufferedReader in = new BufferedReader(reader);
+        in.mark(1);
+        int first = in.read();
+        while (first != -1 && Character.isWhitespace(first)) {
+            in.mark(1);
+            first = in.read();
+        }
+        in.reset();
+        Trace trace = new Trace();
+        if (first == '{' || first == '[') {
+            trace.readJson(in, interval);
+        } else {
+            trace.readTitles(in, interval);
+        }
+        return trace;
+    }
+
+    /**
+     * Returns the number of requests in the trace.
+     *
+     * @return the length of the trace
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the key of a request.
+     *
+     * @param i the index of the request, 0 <= i < size()
+     * @return the key requested
+     */
+    public String key(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns the time of a request.
+     *
+     * @param i the index of the request, 0 <= i < size()
+     * @return the virtual time of the request in milliseconds
+     */
+    public long time(int i) {
+        return times[i];
+    }
+
+    /**
+     * Appends the getPage requests of a sequence of JSON values.
+     *
+     * @param in       the source of the values
+     * @param interval the time between two requests without timestamps
+     * @throws IOException if in fails or the JSON is malformed
+     */
+    private void readJson(Reader in, long interval) throws IOException {
+        JsonReader json = new JsonReader(in);
+        json.setLenient(true);
+        Map<String, String> canonical = new HashMap<>();
+        boolean array = json.peek() == JsonToken.BEGIN_ARRAY;
+        if (array) {
+            json.beginArray();
+        }
+        while (json.hasNext() && json.peek() != JsonToken.END_DOCUMENT) {
+            JsonElement element = JsonParser.parseReader(json);
+            if (!element.isJsonObject()) {
+                continue;
+            }
+            JsonObject request = element.getAsJsonObject();
+            if (!request.has("type") || !request.get("type").getAsString().equals("getPage")
+                || !request.has("pageTitle")) {
+                continue;
+            }
+            long time = request.has("timestamp") ? request.get("timestamp").getAsLong()
+                : nextTime(interval);
+            add(canonical, request.get("pageTitle").getAsString(), time);
+        }
+        if (array) {
+            json.endArray();
+        }
+    }
+
+    /**
+     * Appends one request per non-empty line of in.
+     *
+     * @param in       the source of the lines
+     * @param interval the time between two requests without timestamps
+     * @throws IOException if in fails or a timestamp is malformed
+     */
+    private void readTitles(BufferedReader in, long interval) throws IOException {
+        Map<String, String> canonical = new HashMap<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            int tab = line.indexOf('\t');
+            if (tab > 0 && Character.isDigit(line.charAt(0))) {
+                try {
+                    long time = Long.parseLong(line.substring(0, tab));
+                    add(canonical, line.substring(tab + 1), time);
+                    continue;
+                } catch (NumberFormatException nfe) {
+                    // a title that happens to contain a tab
+                }
+            }
+            add(canonical, line, nextTime(interval));
+        }
+    }
+
+    /**
+     * Returns the time of a request without a timestamp.
+     *
+     * @param interval the time since the previous request
+     * @return the time of the next request
+     */
+    private long nextTime(long interval) {
+        return size == 0 ? 0 : times[size - 1] + interval;
+    }
+
+    /**
+     * Appends a request, never earlier than the previous request.
+     *
+     * @param canonical the instance used for each key seen so far
+     * @param key       the key requested
+     * @param time      the time of the request in milliseconds
+     */
+    private void add(Map<String, String> canonical, String key, long time) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+        }
+        String shared = canonical.putIfAbsent(key, key);
+        keys[size] = shared == null ? key : shared;
+        times[size] = size == 0 ? time : Math.max(time, times[size - 1]);
+        size++;
+    }
+}
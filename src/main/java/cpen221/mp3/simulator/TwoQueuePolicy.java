@@ -0,0 +1,95 @@
+package cpen221.mp3.simulator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+public class TwoQueuePolicy implements EvictionPolicy {
+    private final int capacity;
+    private final int inLimit;
+    private final int outLimit;
+    private final LinkedHashSet<String> in;
+    private final LinkedHashSet<String> out;
+    private final Map<String, Boolean> main;
+    /**
+     * Rep Invariant:
+     * capacity >= 1, inLimit >= 1 and outLimit >= 1
+     * in, out and main are not null and pairwise disjoint
+     * in.size() + main.size() <= capacity and out.size() <= outLimit
+     */
+    /**
+     * Abstraction Function:
+     * Represents a full 2Q cache. Keys seen once enter the FIFO queue
+     * in; keys evicted from in are remembered, without being held, in
+     * the FIFO queue out; a key requested again while in out is
+     * promoted to main, which is managed as least recently used. Keys
+     * in in and main are held by the cache.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe; a simulation is single-threaded.
+     */
+
+    /**
+     * Creates an empty 2Q cache whose in queue holds a quarter of the
+     * capacity and whose out queue remembers half the capacity.
+     *
+     * @param capacity the number of keys the cache holds, at least 1
+     */
+    public TwoQueuePolicy(int capacity) {
+        this.capacity = capacity;
+        this.inLimit = Math.max(1, capacity / 4);
+        this.outLimit = Math.max(1, capacity / 2);
+        this.in = new LinkedHashSet<>();
+        this.out = new LinkedHashSet<>();
+        this.main = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    @Override
+    public boolean access(String key, long now) {
+        if (main.get(key) != null || in.contains(key)) {
+            return true;
+        }
+        if (in.size() + main.size() >= capacity) {
+            reclaim();
+        }
+        if (out.remove(key)) {
+            main.put(key, Boolean.TRUE);
+        } else {
+            in.add(key);
+        }
+        return false;
+    }
+
+    /**
+     * Frees one place, from in if it is over its limit and otherwise
+     * from the least recently used end of main.
+     */
+    private void reclaim() {
+        if (in.size() > inLimit || main.isEmpty()) {
+            String oldest = removeFirst(in);
+            out.add(oldest);
+            if (out.size() > outLimit) {
+                removeFirst(out);
+            }
+        } else {
+            Iterator<String> lru = main.keySet().iterator();
+            lru.next();
+            lru.remove();
+        }
+    }
+
+    /**
+     * Removes the oldest key of a queue.
+     *
+     * @param queue a non-empty queue
+     * @return the key removed
+     */
+    private static String removeFirst(LinkedHashSet<String> queue) {
+        Iterator<String> first = queue.iterator();
+        String key = first.next();
+        first.remove();
+        return key;
+    }
+}
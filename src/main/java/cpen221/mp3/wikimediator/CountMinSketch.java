@@ -0,0 +1,146 @@
+package cpen221.mp3.wikimediator;
+
+class CountMinSketch {
+
+    private final long[][] rows;
+    private final int width;
+    private long total;
+    /**
+     * Rep Invariant:
+     * rows is not null, rows.length >= 1 and every row has width >= 1
+     *      counters
+     * every counter is between 0 and total
+     */
+    /**
+     * Abstraction Function:
+     * Represents estimated counts of keys. Each key maps to one counter
+     * in each row, and its estimate is the smallest of those counters,
+     * which never underestimates its count. total is the sum of all
+     * counts added.
+     */
+    /**
+     * Thread safety argument:
+     * This class is not thread-safe. It is only used while holding
+     * the lock of the CountMinTopK that owns it.
+     */
+
+    /**
+     * Creates an empty sketch.
+     *
+     * @param width the number of counters in each row, at least 1
+     * @param depth the number of rows, at least 1
+     */
+    CountMinSketch(int width, int depth) {
+        this.rows = new long[depth][width];
+        this.width = width;
+    }
+
+    /**
+     * Adds count to key with conservative update: only the counters
+     * of key that are below its new estimate are raised, and only up
+     * to it, which never makes an estimate less accurate than plain
+     * update would.
+     *
+     * @param key   the key counted
+     * @param count the number of occurrences, at least 1
+     * @return the new estimate of the count of key
+     */
+    long add(String key, long count) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < rows.length; i++) {
+            estimate = Math.min(estimate, rows[i][index(hash, i)]);
+        }
+        long updated = estimate + count;
+        for (int i = 0; i < rows.length; i++) {
+            int column = index(hash, i);
+            rows[i][column] = Math.max(rows[i][column], updated);
+        }
+        total += count;
+        return updated;
+    }
+
+    /**
+     * Returns the estimated count of key.
+     *
+     * @param key the key to look up
+     * @return the smallest counter of key
+     */
+    long estimate(String key) {
+        long hash = hash(key);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < rows.length; i++) {
+            estimate = Math.min(estimate, rows[i][index(hash, i)]);
+        }
+        return estimate;
+    }
+
+    /**
+     * Returns the bound e / width * total on the overestimate of any
+     * key, which holds for each key with probability confidence().
+     *
+     * @return the error bound of every estimate
+     */
+    long errorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * Returns the probability 1 - e^-depth that an estimate is within
+     * errorBound() of its true count.
+     *
+     * @return the confidence of the error bound
+     */
+    double confidence() {
+        return 1.0 - Math.exp(-rows.length);
+    }
+
+    /**
+     * Returns the sum of all counts added.
+     *
+     * @return the total count
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * Returns the number of bytes taken by the counters.
+     *
+     * @return the size of the sketch in bytes
+     */
+    long bytes() {
+        return 8L * rows.length * width;
+    }
+
+    /**
+     * Computes the counter of a key in a row, by double hashing the
+     * two halves of its hash.
+     *
+     * @param hash the 64-bit hash of a key
+     * @param row  the index of the row
+     * @return a column between 0 and width - 1
+     */
+    private int index(long hash, int row) {
+        long combined = (hash >>> 32) + row * ((hash & 0xFFFFFFFFL) | 1L);
+        return (int) Math.floorMod(combined, (long) width);
+    }
+
+    /**
+     * Computes a well mixed 64-bit hash of key.
+     *
+     * @param key the key to hash
+     * @return the hash of key
+     */
+    private static long hash(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,228 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CountMinTopK implements QueryCounter {
+
+    /* the number of rows of the sketch, for a confidence of 1 - e^-4, about 98% */
+    private static final int DEPTH = 4;
+
+    private final CountMinSketch sketch;
+    private final String[] keys;
+    private final long[] counts;
+    private final Map<String, Integer> positions;
+    private int size;
+    /**
+     * Rep Invariant:
+     * sketch, keys, counts and positions are not null
+     * keys.length == counts.length >= 1 and 0 <= size <= keys.length
+     * keys[0..size) are distinct and positions maps each of them to its
+     *      index, and nothing else
+     * counts[0..size) is a binary min-heap: counts[i] >= counts[(i - 1) / 2]
+     * counts[i] <= sketch.estimate(keys[i]) for every i < size
+     */
+    /**
+     * Abstraction Function:
+     * Represents estimated counts of every key, held in a fixed amount
+     * of memory. sketch estimates the count of any key, and the heap
+     * keys[0..size) with counts[0..size) holds the keys.length keys
+     * with the highest estimates seen so far, the heavy hitters, whose
+     * smallest estimate is at counts[0]. counts[i] is the estimate of
+     * keys[i] when it was last counted.
+     */
+    /**
+     * Thread safety argument:
+     * all fields except size are final
+     * sketch, size and the contents of keys, counts and positions are
+     *      only accessed inside synchronized methods
+     */
+
+    /**
+     * Create a counter that uses about memoryBytes bytes for the
+     * sketch and tracks heavyHitters keys individually.
+     *
+     * @param memoryBytes  the size of the sketch in bytes; every
+     *                     estimate is within e * 32 / memoryBytes of
+     *                     the total count with probability 1 - e^-4
+     * @param heavyHitters the number of keys top can return, at least 1
+     * @throws IllegalArgumentException if heavyHitters is less than 1
+     */
+    public CountMinTopK(long memoryBytes, int heavyHitters) {
+        if (heavyHitters < 1) {
+            throw new IllegalArgumentException("At least one heavy hitter must be tracked.");
+        }
+        int width = (int) Math.max(16, Math.min(Integer.MAX_VALUE, memoryBytes / (8L * DEPTH)));
+        this.sketch = new CountMinSketch(width, DEPTH);
+        this.keys = new String[heavyHitters];
+        this.counts = new long[heavyHitters];
+        this.positions = new HashMap<>();
+    }
+
+    /**
+     * Counts count occurrences of key, in time proportional to the
+     * logarithm of the number of heavy hitters.
+     *
+     * @param key   the key counted
+     * @param count the number of occurrences, at least 1
+     */
+    @Override
+    synchronized public void add(String key, long count) {
+        if (count <= 0) {
+            return;
+        }
+        long estimate = sketch.add(key, count);
+        Integer position = positions.get(key);
+        if (position != null) {
+            counts[position] = estimate;
+            siftDown(position);
+        } else if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = estimate;
+            positions.put(key, size);
+            siftUp(size++);
+        } else if (estimate > counts[0]) {
+            positions.remove(keys[0]);
+            keys[0] = key;
+            counts[0] = estimate;
+            positions.put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Returns up to limit heavy hitters with the highest estimates, in
+     * time proportional to k log k for k heavy hitters.
+     *
+     * @param limit the maximum number of keys returned
+     * @return the most frequent keys, at most as many as there are
+     * heavy hitters
+     */
+    @Override
+    synchronized public List<String> top(int limit) {
+        List<String> top = new ArrayList<>(counts().keySet());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, Math.max(0, limit))) : top;
+    }
+
+    @Override
+    synchronized public long count(String key) {
+        return sketch.estimate(key);
+    }
+
+    /**
+     * Returns the error bound of the sketch, e / width times the total
+     * count, which each estimate stays within with probability
+     * confidence().
+     *
+     * @return the error bound of every count
+     */
+    @Override
+    synchronized public long maxError() {
+        return sketch.errorBound();
+    }
+
+    /**
+     * Returns the probability that a count is within maxError() of the
+     * true count of its key.
+     *
+     * @return the confidence of the error bound
+     */
+    synchronized public double confidence() {
+        return sketch.confidence();
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    /**
+     * Returns the heavy hitters and their estimated counts, in
+     * non-increasing order of count.
+     *
+     * @return a map from every heavy hitter to its count
+     */
+    @Override
+    synchronized public Map<String, Long> counts() {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(counts[b], counts[a]));
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        for (int i : order) {
+            sorted.put(keys[i], counts[i]);
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the number of bytes used by the sketch and the heap,
+     * not counting the key strings.
+     *
+     * @return the fixed memory of the counter in bytes
+     */
+    public long bytes() {
+        return sketch.bytes() + 16L * keys.length;
+    }
+
+    /**
+     * Moves the entry at position up the heap until its parent is not
+     * larger.
+     *
+     * @param position the index of the entry
+     */
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (counts[parent] <= counts[position]) {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    /**
+     * Moves the entry at position down the heap until neither child is
+     * smaller.
+     *
+     * @param position the index of the entry
+     */
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            for (int child = 2 * position + 1; child <= 2 * position + 2 && child < size; child++) {
+                if (counts[child] < counts[smallest]) {
+                    smallest = child;
+                }
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    /**
+     * Exchanges two entries of the heap.
+     *
+     * @param i the index of one entry
+     * @param j the index of the other entry
+     */
+    private void swap(int i, int j) {
+        String key = keys[i];
+        long count = counts[i];
+        keys[i] = keys[j];
+        counts[i] = counts[j];
+        keys[j] = key;
+        counts[j] = count;
+        positions.put(keys[i], i);
+        positions.put(keys[j], j);
+    }
+}
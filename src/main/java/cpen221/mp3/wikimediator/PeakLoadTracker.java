@@ -0,0 +1,134 @@
+package cpen221.mp3.wikimediator;
+
+public class PeakLoadTracker {
+
+    private final long windowMillis;
+    private final long[] times;
+    private final int[] counts;
+    private int head;
+    private int length;
+    private int windowCount;
+    private int peak;
+    /**
+     * Rep Invariant:
+     * windowMillis >= 1 and times.length == counts.length == windowMillis
+     * 0 <= head < times.length and 0 <= length <= times.length
+     * the length slots starting at head, wrapping around, hold strictly
+     *      increasing times, each with a count >= 1, all within
+     *      windowMillis of the newest time
+     * windowCount is the sum of those counts
+     * peak >= windowCount and peak never decreases
+     */
+    /**
+     * Abstraction Function:
+     * Represents the requests made in the last windowMillis
+     * milliseconds, as a queue of the milliseconds in which requests
+     * arrived and the number of requests in each, oldest first, stored
+     * in the primitive ring buffers times and counts. windowCount is the
+     * number of those requests, and peak is the largest number of
+     * requests ever recorded within windowMillis of each other.
+     */
+    /**
+     * Thread safety argument:
+     * windowMillis, times and counts are final
+     * head, length, windowCount, peak and the contents of times and
+     *      counts are only accessed inside synchronized methods
+     */
+
+    /**
+     * Create a tracker of the peak load over windows of a given length.
+     * It keeps one slot per millisecond of the window, so its memory
+     * does not grow with traffic.
+     *
+     * @param windowMillis the length of the window in milliseconds,
+     *                     at least 1
+     */
+    public PeakLoadTracker(long windowMillis) {
+        this.windowMillis = windowMillis;
+        this.times = new long[(int) windowMillis];
+        this.counts = new int[(int) windowMillis];
+    }
+
+    /**
+     * Records a request and updates the peak. Each millisecond in which
+     * requests arrive is added to and dropped from the window once, so
+     * recording takes constant amortized time. A time earlier than the
+     * newest recorded time counts as the newest time.
+     *
+     * @param time the time of the request in milliseconds
+     */
+    public void record(long time) {
+        record(time, 1);
+    }
+
+    /**
+     * Records count requests made in the same millisecond, as record
+     * would one at a time, in constant amortized time.
+     *
+     * @param time  the time of the requests in milliseconds
+     * @param count the number of requests, at least 1
+     */
+    synchronized public void record(long time, int count) {
+        if (length > 0 && time <= times[last()]) {
+            counts[last()] += count;
+        } else {
+            while (length > 0 && times[head] <= time - windowMillis) {
+                windowCount -= counts[head];
+                head = (head + 1) % times.length;
+                length--;
+            }
+            int slot = (head + length) % times.length;
+            times[slot] = time;
+            counts[slot] = count;
+            length++;
+        }
+        windowCount += count;
+        peak = Math.max(peak, windowCount);
+    }
+
+    /**
+     * Returns the largest number of requests recorded within any window.
+     *
+     * @return the peak load
+     */
+    synchronized public int peak() {
+        return peak;
+    }
+
+    /**
+     * Raises the peak to a value recorded by an earlier tracker, so
+     * that the peak survives a restart.
+     *
+     * @param peak the peak load of an earlier tracker
+     */
+    synchronized public void restorePeak(int peak) {
+        this.peak = Math.max(this.peak, peak);
+    }
+
+    /**
+     * Returns the time of every request in the newest window, oldest
+     * first, so that they can be recorded again after a restart.
+     *
+     * @return the times of the requests in the window
+     */
+    synchronized public long[] window() {
+        long[] window = new long[windowCount];
+        int next = 0;
+        for (int i = 0; i < length; i++) {
+            int slot = (head + i) % times.length;
+            for (int j = 0; j < counts[slot]; j++) {
+                window[next++] = times[slot];
+            }
+        }
+        return window;
+    }
+
+    /**
+     * Finds the slot of the newest time.
+     *
+     * @return the index of the newest slot, if length > 0
+     */
+    private int last() {
+        return (head + length - 1) % times.length;
+    }
+}
@@ -0,0 +1,66 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.List;
+import java.util.Map;
+
+public interface QueryCounter {
+
+    /**
+     * Counts count occurrences of key.
+     *
+     * @param key   the key counted
+     * @param count the number of occurrences, at least 1
+     */
+    void add(String key, long count);
+
+    /**
+     * Counts one occurrence of key.
+     *
+     * @param key the key counted
+     */
+    default void add(String key) {
+        add(key, 1);
+    }
+
+    /**
+     * Returns up to limit keys with the highest counts, in
+     * non-increasing order of count.
+     *
+     * @param limit the maximum number of keys returned
+     * @return the most frequent keys
+     */
+    List<String> top(int limit);
+
+    /**
+     * Returns the count of key, which never underestimates its true
+     * count and overestimates it by at most maxError().
+     *
+     * @param key the key to look up
+     * @return the estimated count of key
+     */
+    long count(String key);
+
+    /**
+     * Returns the largest amount by which a count may overestimate the
+     * true count of its key.
+     *
+     * @return the error bound of every count, 0 if counts are exact
+     */
+    long maxError();
+
+    /**
+     * Tells whether every count is exact.
+     *
+     * @return true if count returns true counts
+     */
+    boolean isExact();
+
+    /**
+     * Returns every key whose count is kept individually, with its
+     * count, in non-increasing order of count.
+     *
+     * @return a map from every key kept to its count
+     */
+    Map<String, Long> counts();
+
+}
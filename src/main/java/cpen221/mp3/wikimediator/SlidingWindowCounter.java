@@ -0,0 +1,174 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SlidingWindowCounter {
+
+    private final long bucketMillis;
+    private final long[] epochs;
+    private final List<Map<String, Integer>> buckets;
+    private final TopKCounter window;
+    private long current;
+    /**
+     * Rep Invariant:
+     * bucketMillis >= 1 and epochs.length == buckets.size() >= 1
+     * epochs, buckets and window are not null
+     * buckets.get(i) is empty unless epochs[i] lies in the window, that
+     *      is current - epochs.length < epochs[i] <= current
+     * epochs[i] mod epochs.length == i for every live bucket i
+     * for every key, window.count(key) is the sum of its counts in all
+     *      buckets
+     */
+    /**
+     * Abstraction Function:
+     * Represents the number of times each key was counted in the last
+     * epochs.length buckets of bucketMillis milliseconds, the newest of
+     * which is bucket number current since the epoch. buckets.get(i)
+     * holds the counts of bucket number epochs[i], and window holds
+     * their totals, so that the most counted keys are found without
+     * looking at every key. A bucket's counts are subtracted from
+     * window when it falls out of the window.
+     */
+    /**
+     * Thread safety argument:
+     * bucketMillis, epochs, buckets and window are final
+     * current and the contents of epochs and buckets are only accessed
+     *      inside synchronized methods
+     * TopKCounter is thread-safe
+     */
+
+    /**
+     * Create a counter over a window divided into equal buckets.
+     * Counts leave the window a bucket at a time, so a count made
+     * within the window stays for between windowMillis - windowMillis
+     * / buckets and windowMillis milliseconds.
+     *
+     * @param windowMillis the length of the window in milliseconds
+     * @param buckets      the number of buckets in the window, at
+     *                     least 1 and at most windowMillis
+     */
+    public SlidingWindowCounter(long windowMillis, int buckets) {
+        this.bucketMillis = windowMillis / buckets;
+        this.epochs = new long[buckets];
+        this.buckets = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++) {
+            this.buckets.add(new HashMap<>());
+        }
+        this.window = new TopKCounter();
+    }
+
+    /**
+     * Counts key once at time.
+     *
+     * @param key  the key counted
+     * @param time the time in milliseconds
+     */
+    public void add(String key, long time) {
+        add(key, time, 1);
+    }
+
+    /**
+     * Counts key count times at time. Counts older than the window
+     * are ignored, and time moving backwards never moves the window
+     * back. Recording takes constant amortized time: every bucket that
+     * falls out of the window is emptied once, in time proportional to
+     * the number of keys counted in it.
+     *
+     * @param key   the key counted
+     * @param time  the time in milliseconds
+     * @param count the number of times key is counted, at least 1
+     */
+    synchronized public void add(String key, long time, int count) {
+        long epoch = Math.floorDiv(time, bucketMillis);
+        advance(epoch);
+        if (epoch <= current - epochs.length) {
+            return;
+        }
+        buckets.get(slot(epoch)).merge(key, count, Integer::sum);
+        window.add(key, count);
+    }
+
+    /**
+     * Returns up to limit keys counted most often in the window ending
+     * at now, in non-increasing order of count, in time proportional
+     * to limit.
+     *
+     * @param limit the maximum number of keys returned
+     * @param now   the current time in milliseconds
+     * @return the keys counted most often
+     */
+    synchronized public List<String> top(int limit, long now) {
+        advance(Math.floorDiv(now, bucketMillis));
+        return window.top(limit);
+    }
+
+    /**
+     * Returns the number of times key was counted in the window ending
+     * at now.
+     *
+     * @param key the key to look up
+     * @param now the current time in milliseconds
+     * @return the count of key
+     */
+    synchronized public long count(String key, long now) {
+        advance(Math.floorDiv(now, bucketMillis));
+        return window.count(key);
+    }
+
+    /**
+     * Returns the counts of every bucket in the window ending at now,
+     * so that they can be counted again after a restart.
+     *
+     * @param now the current time in milliseconds
+     * @return a map from the start time of every non-empty bucket, in
+     * increasing order, to the counts of its keys
+     */
+    synchronized public Map<Long, Map<String, Integer>> buckets(long now) {
+        advance(Math.floorDiv(now, bucketMillis));
+        Map<Long, Map<String, Integer>> snapshot = new TreeMap<>();
+        for (int i = 0; i < epochs.length; i++) {
+            if (!buckets.get(i).isEmpty()) {
+                snapshot.put(epochs[i] * bucketMillis, new HashMap<>(buckets.get(i)));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Moves the window forward to end with bucket epoch, subtracting
+     * the counts of every bucket that falls out of it. At most one pass
+     * over the buckets is needed however far the window moves.
+     *
+     * @param epoch the number of the newest bucket
+     */
+    private void advance(long epoch) {
+        if (epoch <= current) {
+            return;
+        }
+        long first = Math.max(current + 1, epoch - epochs.length + 1);
+        for (long next = first; next <= epoch; next++) {
+            int slot = slot(next);
+            Map<String, Integer> expired = buckets.get(slot);
+            for (Map.Entry<String, Integer> entry : expired.entrySet()) {
+                window.add(entry.getKey(), -entry.getValue());
+            }
+            expired.clear();
+            epochs[slot] = next;
+        }
+        current = epoch;
+    }
+
+    /**
+     * Finds the position in the ring of a bucket.
+     *
+     * @param epoch the number of the bucket
+     * @return the index of the bucket in epochs and buckets
+     */
+    private int slot(long epoch) {
+        return (int) Math.floorMod(epoch, (long) epochs.length);
+    }
+}
@@ -0,0 +1,85 @@
+package cpen221.mp3.wikimediator;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/*
+    Turns a binary statistics snapshot written by WikiMediator.checkpoint
+    into JSON with the fields of the log.txt data file, for example:
+        java cpen221.mp3.wikimediator.SnapshotExport
+            ./local/stats.snapshot stats.json
+    The JSON is printed if no output file is given, and also holds the
+    first event log segment the snapshot does not cover.
+ */
+public class SnapshotExport {
+
+    /* the snapshot exported when none is given */
+    private static final String DSNAPSHOT = "./local/stats.snapshot";
+
+    /**
+     * Reads a binary snapshot and formats it as JSON.
+     *
+     * @param file the snapshot to read
+     * @return the statistics of the snapshot as indented JSON
+     * @throws IOException if the snapshot cannot be read or is corrupted
+     */
+    public static String export(File file) throws IOException {
+        JsonArray trendingKeys = new JsonArray();
+        JsonArray trendingTimes = new JsonArray();
+        JsonArray trendingCounts = new JsonArray();
+        JsonArray searchHistoryKeys = new JsonArray();
+        JsonArray searchFrequency = new JsonArray();
+        JsonArray timeList = new JsonArray();
+        JsonObject json = new JsonObject();
+        long segment = StatsSnapshot.read(file, new StatsSnapshot.Visitor() {
+            @Override
+            public void peak(int peak) {
+                json.addProperty("peak", peak);
+            }
+
+            @Override
+            public void load(long time, int count) {
+                for (int i = 0; i < count; i++) {
+                    timeList.add(time);
+                }
+            }
+
+            @Override
+            public void history(String key, long count) {
+                searchHistoryKeys.add(key);
+                searchFrequency.add(count);
+            }
+
+            @Override
+            public void trending(String key, long time, int count) {
+                trendingKeys.add(key);
+                trendingTimes.add(time);
+                trendingCounts.add(count);
+            }
+        });
+        json.add("trendingKeys", trendingKeys);
+        json.add("trendingTimes", trendingTimes);
+        json.add("trendingCounts", trendingCounts);
+        json.add("searchHistoryKeys", searchHistoryKeys);
+        json.add("searchFrequency", searchFrequency);
+        json.add("timeList", timeList);
+        json.addProperty("segment", segment);
+        return new GsonBuilder().setPrettyPrinting().create().toJson(json);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String json = export(new File(args.length > 0 ? args[0] : DSNAPSHOT));
+        if (args.length > 1) {
+            try (FileWriter fw = new FileWriter(args[1])) {
+                fw.write(json);
+            }
+        } else {
+            System.out.println(json);
+        }
+    }
+}
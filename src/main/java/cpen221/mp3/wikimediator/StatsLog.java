@@ -0,0 +1,692 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+public class StatsLog {
+
+    /**
+     * When appended events are forced to the storage device.
+     */
+    public enum Durability {
+        /* events reach the operating system when the buffer fills, and
+           the storage device only when flush is called */
+        NONE,
+        /* a background thread forces the log at a fixed interval, so a
+           crash loses at most that interval of events */
+        PERIODIC,
+        /* append returns once its event is on the storage device;
+           concurrent appends share one force */
+        SYNC
+    }
+
+    /* marks the start of the file */
+    private static final int MAGIC = 0x53544154;
+
+    /* the version of the record format */
+    private static final int VERSION = 1;
+
+    /* magic and version */
+    private static final int FILE_HEADER = 4 + 4;
+
+    /* payload length and payload checksum */
+    private static final int RECORD_HEADER = 4 + 4;
+
+    /* operation and time, followed by the UTF-8 query */
+    private static final int PAYLOAD_HEADER = 1 + 8;
+
+    /* appends are collected in a 64 KiB buffer before they are written */
+    private static final int BUFFER = 64 * 1024;
+
+    /* recovery reads the log 1 MiB at a time */
+    private static final int READ_BUFFER = 1024 * 1024;
+
+    private final File directory;
+    private final Durability durability;
+    private final ByteBuffer buffer;
+    private final CRC32 crc;
+    private final long recovered;
+    private FileChannel channel;
+    private long segment;
+    private long appended;
+    private long durable;
+    private long syncs;
+    private boolean syncing;
+    private IOException failure;
+    /**
+     * Rep Invariant:
+     * directory, durability, buffer, crc and channel are not null
+     * recovered >= 0
+     * 0 <= durable <= appended
+     * channel is open on the segment file numbered segment, which is
+     *      the highest numbered segment in directory
+     * every segment file holds a header followed by intact records,
+     *      and the records of buffer belong at the end of segment
+     * syncs >= 0
+     * once failure is not null, nothing more is written to any
+     *      segment and durable no longer changes
+     */
+    /**
+     * Abstraction Function:
+     * Represents an append-only log of statistics events stored in
+     * directory as a sequence of segment files named events-N.log, in
+     * increasing order of N. Each record holds the operation, time and
+     * query of one event, with its length and checksum. The first
+     * recovered records were replayed when the log was opened, and
+     * appended events were added since, the last of which may still
+     * wait in buffer. The first durable appended events are on the
+     * storage device. syncs counts the forces of the log, and syncing
+     * is true while one is in progress. failure, if not null, is the
+     * error that stopped the log from writing; the events appended
+     * after the first durable ones are then lost.
+     */
+    /**
+     * Thread safety argument:
+     * directory, durability, buffer, crc and recovered are final
+     * buffer, crc, channel, segment, appended, durable, syncs,
+     *      syncing and failure are only accessed inside synchronized
+     *      blocks,
+     *      except that the thread that set syncing forces the channel
+     *      it read while holding the lock
+     * records are only written to channel inside synchronized blocks,
+     *      so they are never interleaved
+     * only the thread that set syncing forces channel, outside the
+     *      lock so that other threads keep appending meanwhile; it
+     *      then makes every event written before the force durable
+     *      and wakes the threads waiting for them
+     * roll and close wait until no force is in progress before they
+     *      close channel
+     * FileChannel is thread-safe
+     * the committer thread holds the log through a WeakReference and
+     *      exits once it has been garbage collected
+     */
+
+    /**
+     * Opens the log stored in directory, creating it if needed, and
+     * replays every intact event of the segments numbered firstSegment
+     * or higher into handler, in the order they were appended. Older
+     * segments are already covered by a snapshot and are deleted. A
+     * torn or corrupted record, left by a crash during an append, ends
+     * its segment: it and everything after it in the segment are
+     * truncated. New events are appended to the last segment.
+     *
+     * @param directory    the directory holding the segment files
+     * @param durability   when appended events are forced to disk
+     * @param commitMillis the interval between two forces if
+     *                     durability is PERIODIC, at least 1
+     * @param firstSegment the number of the oldest segment to replay
+     * @param handler      applies each event of the log
+     * @throws IOException if a segment cannot be read, or is not a log
+     */
+    public StatsLog(File directory, Durability durability, long commitMillis, long firstSegment,
+                    StatsPipeline.Handler handler) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        this.directory = directory;
+        this.durability = durability;
+        this.buffer = ByteBuffer.allocate(BUFFER);
+        this.crc = new CRC32();
+        TreeMap<Long, File> segments = segments();
+        long count = 0;
+        for (Map.Entry<Long, File> entry : segments.entrySet()) {
+            if (entry.getKey() < firstSegment) {
+                delete(entry.getValue());
+                continue;
+            }
+            try (FileChannel old = open(entry.getKey())) {
+                count += recover(old, handler);
+            }
+        }
+        this.recovered = count;
+        this.segment = Math.max(firstSegment, segments.isEmpty() ? 0 : segments.lastKey());
+        this.channel = open(segment);
+        if (durability == Durability.PERIODIC) {
+            Committer.start(this, commitMillis);
+        }
+    }
+
+    /**
+     * Appends an event to the log. If durability is SYNC, this returns
+     * once the event is on the storage device; otherwise it only copies
+     * the event into a buffer. Once writing to the log has failed,
+     * appended events are no longer stored.
+     *
+     * @param time      the time of the event in milliseconds
+     * @param operation a combination of StatsPipeline.REQUEST and
+     *                  StatsPipeline.QUERY
+     * @param query     the query of the event, or null if operation
+     *                  does not include StatsPipeline.QUERY
+     * @throws UncheckedIOException if durability is SYNC and the event
+     *                              could not be made durable
+     */
+    public void append(long time, int operation, String query) {
+        byte[] bytes = query == null ? new byte[0] : query.getBytes(StandardCharsets.UTF_8);
+        long sequence;
+        synchronized (this) {
+            int length = PAYLOAD_HEADER + bytes.length;
+            if (buffer.remaining() < RECORD_HEADER + length) {
+                write();
+            }
+            ByteBuffer target = buffer.remaining() >= RECORD_HEADER + length
+                ? buffer : ByteBuffer.allocate(RECORD_HEADER + length);
+            int start = target.position();
+            target.putInt(length);
+            target.putInt(0);
+            target.put((byte) operation);
+            target.putLong(time);
+            target.put(bytes);
+            crc.reset();
+            crc.update(target.array(), start + RECORD_HEADER, length);
+            target.putInt(start + 4, (int) crc.getValue());
+            if (target != buffer) {
+                target.flip();
+                writeFully(target);
+            }
+            sequence = ++appended;
+        }
+        if (durability == Durability.SYNC) {
+            sync(sequence);
+        }
+    }
+
+    /**
+     * Writes every appended event to the storage device.
+     *
+     * @throws UncheckedIOException if writing to the log has failed, so
+     *                              some events are not durable
+     */
+    public void flush() {
+        long last;
+        synchronized (this) {
+            last = appended;
+        }
+        sync(last);
+    }
+
+    /**
+     * Ends the current segment and starts appending to a new one, so
+     * that every event appended before this call is in a segment
+     * numbered lower than the one returned. The ended segment is
+     * forced to the storage device.
+     *
+     * @return the number of the new segment
+     * @throws IOException if the new segment cannot be created, or
+     *                     writing to the log has failed
+     */
+    synchronized public long roll() throws IOException {
+        awaitSync();
+        checkFailure();
+        FileChannel next = open(segment + 1);
+        write();
+        try {
+            checkFailure();
+            channel.force(false);
+            durable = appended;
+            syncs++;
+        } catch (IOException ioe) {
+            fail(ioe);
+            throw ioe;
+        } finally {
+            channel.close();
+            channel = next;
+            segment++;
+        }
+        return segment;
+    }
+
+    /**
+     * Deletes every segment numbered lower than first, once the events
+     * they hold are covered by a snapshot. The current segment is
+     * never deleted.
+     *
+     * @param first the number of the oldest segment to keep
+     */
+    synchronized public void deleteBefore(long first) {
+        for (Map.Entry<Long, File> entry : segments().headMap(Math.min(first, segment)).entrySet()) {
+            delete(entry.getValue());
+        }
+    }
+
+    /**
+     * Flushes the log and closes its file. No event may be appended
+     * afterwards.
+     *
+     * @throws UncheckedIOException if writing to the log has failed, so
+     *                              some events are not durable; the
+     *                              file is closed regardless
+     */
+    public void close() {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                awaitSync();
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    fail(ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the segment events are appended to.
+     *
+     * @return the number of the current segment
+     */
+    synchronized public long segment() {
+        return segment;
+    }
+
+    /**
+     * Tells whether the log is still open for appending.
+     *
+     * @return false once the log has been closed
+     */
+    synchronized private boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Returns the number of events replayed when the log was opened.
+     *
+     * @return the number of events recovered
+     */
+    public long recoveredCount() {
+        return recovered;
+    }
+
+    /**
+     * Returns the number of events appended since the log was opened.
+     *
+     * @return the number of events appended
+     */
+    synchronized public long appendedCount() {
+        return appended;
+    }
+
+    /**
+     * Returns the error that stopped the log from writing. Events
+     * appended after it are not stored, and appends with durability
+     * SYNC throw it.
+     *
+     * @return the first write or force error, or null if the log is
+     * healthy
+     */
+    synchronized public IOException failure() {
+        return failure;
+    }
+
+    /**
+     * Returns the number of times the log was forced to the storage
+     * device. With group commit this is much lower than the number of
+     * events appended, even when durability is SYNC.
+     *
+     * @return the number of forces
+     */
+    synchronized public long syncCount() {
+        return syncs;
+    }
+
+    /**
+     * Makes every event up to sequence durable. If another thread is
+     * forcing the log, this waits for it, and only forces the log again
+     * if that did not cover sequence, together with every event
+     * appended meanwhile.
+     *
+     * @param sequence the number of the last event that must be durable
+     * @throws UncheckedIOException if writing to the log has failed
+     *                              before sequence was made durable
+     */
+    private void sync(long sequence) {
+        long target;
+        FileChannel forced;
+        synchronized (this) {
+            boolean interrupted = false;
+            while (syncing && durable < sequence) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (durable >= sequence) {
+                return;
+            }
+            uncheckedFailure();
+            if (!channel.isOpen()) {
+                return;
+            }
+            target = appended;
+            write();
+            uncheckedFailure();
+            syncing = true;
+            forced = channel;
+        }
+        IOException error = null;
+        try {
+            forced.force(false);
+        } catch (IOException ioe) {
+            error = ioe;
+        }
+        synchronized (this) {
+            syncing = false;
+            if (error != null) {
+                fail(error);
+            } else if (failure == null) {
+                durable = Math.max(durable, target);
+                syncs++;
+            }
+            notifyAll();
+            uncheckedFailure();
+        }
+    }
+
+    /**
+     * Marks the log as failed, so that nothing more is written to it
+     * and no more events become durable. Only the first error is kept.
+     * Must be called while holding the lock of the log.
+     *
+     * @param error the error that stopped the log from writing
+     */
+    private void fail(IOException error) {
+        if (failure == null) {
+            failure = error;
+        }
+    }
+
+    /**
+     * Throws the error that stopped the log from writing, if any. Must
+     * be called while holding the lock of the log.
+     *
+     * @throws IOException if writing to the log has failed
+     */
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Statistics log failed", failure);
+        }
+    }
+
+    /**
+     * Throws the error that stopped the log from writing, if any, to
+     * callers that cannot throw IOException. Must be called while
+     * holding the lock of the log.
+     *
+     * @throws UncheckedIOException if writing to the log has failed
+     */
+    private void uncheckedFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("Statistics log failed", failure);
+        }
+    }
+
+    /**
+     * Waits until no force of the log is in progress. Must be called
+     * while holding the lock of the log.
+     */
+    private void awaitSync() {
+        boolean interrupted = false;
+        while (syncing) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the records waiting in buffer to the file. Must be called
+     * while holding the lock of the log.
+     */
+    private void write() {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Writes every remaining byte of records to the end of the file,
+     * unless the log has failed. A failed write marks the log as
+     * failed, since it may have left a torn record behind. Must be
+     * called while holding the lock of the log.
+     *
+     * @param records the bytes of whole records
+     */
+    private void writeFully(ByteBuffer records) {
+        if (failure != null) {
+            records.position(records.limit());
+            return;
+        }
+        try {
+            while (records.hasRemaining()) {
+                channel.write(records);
+            }
+        } catch (IOException ioe) {
+            fail(ioe);
+        }
+    }
+
+    /**
+     * Finds the segment files in directory.
+     *
+     * @return a map from the number of every segment to its file
+     */
+    private TreeMap<Long, File> segments() {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = directory.listFiles((dir, name) ->
+            name.startsWith("events-") && name.endsWith(".log"));
+        if (files == null) {
+            return segments;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                segments.put(Long.parseLong(name.substring(7, name.length() - 4)), file);
+            } catch (NumberFormatException nfe) {
+                // not a segment of this log
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Opens the segment numbered number for appending, creating it with
+     * a header if it is new.
+     *
+     * @param number the number of the segment
+     * @return a channel positioned at the end of the segment
+     * @throws IOException if the segment cannot be opened
+     */
+    private FileChannel open(long number) throws IOException {
+        File file = new File(directory, "events-" + number + ".log");
+        FileChannel segmentChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (segmentChannel.size() < FILE_HEADER) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                segmentChannel.truncate(0);
+                while (header.hasRemaining()) {
+                    segmentChannel.write(header, header.position());
+                }
+            }
+            segmentChannel.position(segmentChannel.size());
+        } catch (IOException e) {
+            segmentChannel.close();
+            throw e;
+        }
+        return segmentChannel;
+    }
+
+    /**
+     * Deletes a segment file that is no longer needed.
+     *
+     * @param file the segment file
+     */
+    private static void delete(File file) {
+        if (!file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Checks the header of a segment, then replays its records into
+     * handler up to the first one that is torn or corrupted, and
+     * truncates the segment there.
+     *
+     * @param channel a channel open on a segment that has a header
+     * @param handler applies each event of the segment
+     * @return the number of events replayed
+     * @throws IOException if the segment cannot be read, or is not a log
+     */
+    private long recover(FileChannel channel, StatsPipeline.Handler handler) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not a statistics log of version " + VERSION);
+        }
+        long size = channel.size();
+        long end = FILE_HEADER;
+        long count = 0;
+        ByteBuffer chunk = ByteBuffer.allocate(READ_BUFFER);
+        channel.position(FILE_HEADER);
+        chunk.flip();
+        while (true) {
+            if (chunk.remaining() < RECORD_HEADER && !fill(channel, chunk, RECORD_HEADER)) {
+                break;
+            }
+            int length = chunk.getInt(chunk.position());
+            if (length < PAYLOAD_HEADER || length > size - end - RECORD_HEADER) {
+                break;
+            }
+            if (chunk.capacity() < RECORD_HEADER + length) {
+                ByteBuffer larger = ByteBuffer.allocate(RECORD_HEADER + length);
+                larger.put(chunk).flip();
+                chunk = larger;
+            }
+            if (chunk.remaining() < RECORD_HEADER + length
+                && !fill(channel, chunk, RECORD_HEADER + length)) {
+                break;
+            }
+            int start = chunk.position();
+            int checksum = chunk.getInt(start + 4);
+            crc.reset();
+            crc.update(chunk.array(), start + RECORD_HEADER, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            int operation = chunk.get(start + RECORD_HEADER);
+            long time = chunk.getLong(start + RECORD_HEADER + 1);
+            String query = (operation & StatsPipeline.QUERY) == 0 ? null
+                : new String(chunk.array(), start + RECORD_HEADER + PAYLOAD_HEADER,
+                length - PAYLOAD_HEADER, StandardCharsets.UTF_8);
+            handler.apply(time, operation, query);
+            chunk.position(start + RECORD_HEADER + length);
+            end += RECORD_HEADER + length;
+            count++;
+        }
+        channel.truncate(end);
+        return count;
+    }
+
+    /**
+     * Reads more of a segment into chunk, keeping its unread bytes,
+     * until it holds at least needed unread bytes.
+     *
+     * @param channel a channel open on the segment
+     * @param chunk   a buffer ready to be read, with capacity of at
+     *                least needed bytes
+     * @param needed  the number of unread bytes required
+     * @return true if chunk holds needed unread bytes, false if the
+     * segment ended first
+     * @throws IOException if the segment cannot be read
+     */
+    private boolean fill(FileChannel channel, ByteBuffer chunk, int needed)
+        throws IOException {
+        chunk.compact();
+        while (chunk.position() < needed) {
+            if (channel.read(chunk) < 0) {
+                chunk.flip();
+                return false;
+            }
+        }
+        chunk.flip();
+        return true;
+    }
+
+    private static class Committer implements Runnable {
+        private final WeakReference<StatsLog> log;
+        private final long commitMillis;
+        /**
+         * Rep Invariant:
+         * log is not null and commitMillis >= 1
+         */
+        /**
+         * Abstraction Function:
+         * Represents the background thread that forces log every
+         * commitMillis milliseconds. The thread exits once log has
+         * been garbage collected or closed.
+         */
+        /**
+         * Thread safety argument:
+         * log and commitMillis are final and StatsLog.flush is
+         *      thread-safe
+         */
+
+        private Committer(StatsLog log, long commitMillis) {
+            this.log = new WeakReference<>(log);
+            this.commitMillis = commitMillis;
+        }
+
+        /**
+         * Starts forcing log periodically on a daemon thread.
+         *
+         * @param log          the log to force
+         * @param commitMillis the interval between two forces
+         */
+        static void start(StatsLog log, long commitMillis) {
+            Thread thread = new Thread(new Committer(log, commitMillis), "wikimediator-commit");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Thread.sleep(commitMillis);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                StatsLog target = log.get();
+                if (target == null || !target.isOpen() || target.failure() != null) {
+                    return;
+                }
+                try {
+                    target.flush();
+                } catch (UncheckedIOException uioe) {
+                    // reported by StatsLog.failure
+                    return;
+                }
+            }
+        }
+    }
+}
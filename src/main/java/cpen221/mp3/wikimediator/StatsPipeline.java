@@ -0,0 +1,351 @@
+package cpen221.mp3.wikimediator;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+public class StatsPipeline {
+
+    /* an event of a request to a public method, counted towards the peak load */
+    public static final int REQUEST = 1;
+
+    /* an event of a query, counted towards zeitgeist and trending */
+    public static final int QUERY = 2;
+
+    /* the consumer applies at most 1024 events each time it takes the lock */
+    private static final int BATCH = 1024;
+
+    /* an idle consumer waits for a publisher, checking every second whether the pipeline is still used */
+    private static final long IDLE_NANOS = 1_000_000_000;
+
+    private final int mask;
+    private final long[] times;
+    private final int[] operations;
+    private final String[] queries;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail;
+    private final LongAdder published;
+    private final LongAdder dropped;
+    private final LongAdder failed;
+    private final Handler handler;
+    private final Thread consumer;
+    private volatile long head;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+    /**
+     * Rep Invariant:
+     * times, operations, queries and sequences have the same length,
+     *      a power of two, and mask is that length - 1
+     * tail, published, dropped, failed, handler and consumer are not
+     *      null
+     * head <= tail.get() <= head + times.length
+     * for every position p with head <= p < tail.get(), the slot
+     *      p & mask holds the event published at p once
+     *      sequences.get(p & mask) == p + 1
+     * every slot not holding an event has a null query
+     */
+    /**
+     * Abstraction Function:
+     * Represents the queue of statistics events published by request
+     * threads and not yet applied, oldest first, stored in the ring of
+     * slots from position head to tail. The event at position p has
+     * the time times[p & mask], the operation operations[p & mask], a
+     * combination of REQUEST and QUERY, and the query queries[p & mask].
+     * handler applies events to the statistics they update. published
+     * counts the events accepted, dropped the events refused
+     * because the ring was full, and failed the events handler threw
+     * on. consumer is the background thread that applies events; it
+     * is parked while waiting is true and exits once closed is true.
+     */
+    /**
+     * Thread safety argument:
+     * mask, times, operations, queries, sequences, tail, published,
+     *      dropped, failed, handler and consumer are final references
+     * a publisher claims a position by a compare-and-set of tail, so
+     *      no two publishers write the same slot, and a full ring is
+     *      never waited for
+     * a publisher writes the fields of its slot before setting its
+     *      sequence, and the consumer reads the sequence before the
+     *      fields, so the consumer sees the whole event
+     * events are only consumed, and head only advanced, inside
+     *      synchronized methods, so events are applied by one thread
+     *      at a time, in order
+     * read runs inside the same lock, so it never sees part of a batch
+     * the consumer sets waiting before checking for an event and a
+     *      publisher sets a sequence before checking waiting; both
+     *      are volatile, so either the consumer sees the event or the
+     *      publisher sees waiting and unparks it
+     * the consumer thread holds the pipeline through a WeakReference
+     *      and exits once it has been garbage collected
+     */
+
+    /**
+     * Applies statistics events to the structures they update.
+     */
+    public interface Handler {
+
+        /**
+         * Applies one event.
+         *
+         * @param time      the time of the event in milliseconds
+         * @param operation a combination of REQUEST and QUERY
+         * @param query     the query of the event, or null if operation
+         *                  does not include QUERY
+         */
+        void apply(long time, int operation, String query);
+
+    }
+
+    /**
+     * Create a pipeline whose events are applied by handler on a
+     * background consumer thread. Every slot of the ring is allocated
+     * here, so publishing an event allocates nothing.
+     *
+     * @param capacity the number of events that can wait to be
+     *                 applied, at least 1, rounded up to a power of two
+     * @param handler  applies events, called by one thread at a time
+     */
+    public StatsPipeline(int capacity, Handler handler) {
+        int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.times = new long[size];
+        this.operations = new int[size];
+        this.queries = new String[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.tail = new AtomicLong();
+        this.published = new LongAdder();
+        this.dropped = new LongAdder();
+        this.failed = new LongAdder();
+        this.handler = handler;
+        this.consumer = Consumer.start(this);
+    }
+
+    /**
+     * Publishes an event without waiting. If the ring is full the
+     * event is dropped and counted by dropCount.
+     *
+     * @param time      the time of the event in milliseconds
+     * @param operation a combination of REQUEST and QUERY
+     * @param query     the query of the event, or null if operation
+     *                  does not include QUERY
+     * @return true if the event was accepted, false if it was dropped
+     */
+    public boolean publish(long time, int operation, String query) {
+        long position = tail.get();
+        while (true) {
+            int slot = (int) position & mask;
+            long difference = sequences.get(slot) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.increment();
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+        int slot = (int) position & mask;
+        times[slot] = time;
+        operations[slot] = operation;
+        queries[slot] = query;
+        sequences.set(slot, position + 1);
+        published.increment();
+        if (waiting) {
+            waiting = false;
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Applies every event published so far and returns a value read
+     * from the statistics, while no other events are applied, so the
+     * value reflects a consistent state that includes every event
+     * published before this call.
+     *
+     * @param reader reads the statistics updated by the handler
+     * @param <R>    the type of value read
+     * @return the value returned by reader
+     */
+    synchronized public <R> R read(Supplier<R> reader) {
+        long target = tail.get();
+        while (head < target) {
+            if (drain(BATCH) == 0) {
+                // a publisher has claimed a slot but not filled it yet
+                Thread.onSpinWait();
+            }
+        }
+        return reader.get();
+    }
+
+    /**
+     * Applies up to limit of the oldest events. An event the handler
+     * throws on is counted by failureCount and skipped.
+     *
+     * @param limit the maximum number of events applied
+     * @return the number of events applied
+     */
+    synchronized int drain(int limit) {
+        long position = head;
+        int applied = 0;
+        while (applied < limit) {
+            int slot = (int) position & mask;
+            if (sequences.get(slot) != position + 1) {
+                break;
+            }
+            long time = times[slot];
+            int operation = operations[slot];
+            String query = queries[slot];
+            queries[slot] = null;
+            sequences.set(slot, position + mask + 1);
+            head = ++position;
+            applied++;
+            try {
+                handler.apply(time, operation, query);
+            } catch (RuntimeException re) {
+                failed.increment();
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Tells whether the oldest event not yet applied has been fully
+     * published.
+     *
+     * @return true if drain would apply at least one event
+     */
+    private boolean hasEvent() {
+        long position = head;
+        return sequences.get((int) position & mask) == position + 1;
+    }
+
+    /**
+     * Stops the background consumer once it has applied the events
+     * published so far. Events published later are only applied by
+     * read.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+    }
+
+    /**
+     * Returns the number of events waiting to be applied. Events being
+     * published at the same time may or may not be included.
+     *
+     * @return the occupancy of the ring
+     */
+    public int occupancy() {
+        return (int) Math.max(0, Math.min(tail.get() - head, mask + 1));
+    }
+
+    /**
+     * Returns the number of events the ring holds when full.
+     *
+     * @return the capacity of the ring
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the number of events accepted since the pipeline was
+     * created.
+     *
+     * @return the number of events published
+     */
+    public long publishedCount() {
+        return published.sum();
+    }
+
+    /**
+     * Returns the number of events dropped because the ring was full,
+     * which is the price of never making a request wait for
+     * statistics. Dropped events are missing from every statistic.
+     *
+     * @return the number of events dropped
+     */
+    public long dropCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of events the handler threw an exception on.
+     * Such events are skipped, so they may be missing from some of the
+     * statistics.
+     *
+     * @return the number of events that failed to apply
+     */
+    public long failureCount() {
+        return failed.sum();
+    }
+
+    private static class Consumer implements Runnable {
+        private final WeakReference<StatsPipeline> pipeline;
+        /**
+         * Rep Invariant:
+         * pipeline is not null
+         */
+        /**
+         * Abstraction Function:
+         * Represents the background thread that applies the events of
+         * pipeline in batches and parks while there are none. The
+         * thread exits once pipeline has been closed or garbage
+         * collected.
+         */
+        /**
+         * Thread safety argument:
+         * pipeline is final and StatsPipeline.drain is synchronized
+         */
+
+        private Consumer(StatsPipeline pipeline) {
+            this.pipeline = new WeakReference<>(pipeline);
+        }
+
+        /**
+         * Starts applying the events of pipeline on a daemon thread.
+         *
+         * @param pipeline the pipeline to consume
+         * @return the thread started
+         */
+        static Thread start(StatsPipeline pipeline) {
+            Thread thread = new Thread(new Consumer(pipeline), "wikimediator-stats");
+            thread.setDaemon(true);
+            thread.start();
+            return thread;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                StatsPipeline target = pipeline.get();
+                if (target == null) {
+                    return;
+                }
+                if (target.drain(BATCH) == BATCH) {
+                    continue;
+                }
+                if (target.closed) {
+                    return;
+                }
+                target.waiting = true;
+                if (target.hasEvent() || target.closed) {
+                    target.waiting = false;
+                    continue;
+                }
+                target = null;
+                LockSupport.parkNanos(IDLE_NANOS);
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package cpen221.mp3.wikimediator;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class StatsSnapshot {
+
+    /* marks the start of a snapshot file */
+    private static final int MAGIC = 0x534E4150;
+
+    /* the version of the snapshot format */
+    public static final int VERSION = 1;
+
+    /* magic, version, first uncovered segment and peak */
+    private static final int HEADER = 4 + 4 + 8 + 4;
+
+    /* the checksum of every byte before it ends the file */
+    private static final int TRAILER = 4;
+
+    /* a variable-length long takes at most 10 bytes */
+    private static final int MAX_VARLONG = 10;
+
+    private final long segment;
+    private final int peak;
+    private final long[] loadTimes;
+    private final Map<String, Long> history;
+    private final Map<Long, Map<String, Integer>> trending;
+    /**
+     * Rep Invariant:
+     * segment >= 0 and peak >= 0
+     * loadTimes, history and trending are not null
+     * loadTimes is sorted in non-decreasing order
+     * every count in history and trending is >= 1
+     */
+    /**
+     * Abstraction Function:
+     * Represents the statistics of a WikiMediator at one moment: the
+     * peak load, the time of every request in the last 30 seconds in
+     * loadTimes, the count of every query tracked for zeitgeist in
+     * history, and the count of every query in each trending bucket,
+     * keyed by the start time of the bucket, in trending. segment is
+     * the first event log segment whose requests are not included.
+     */
+    /**
+     * Thread safety argument:
+     * all fields are final and only read after construction; the
+     * arrays and maps passed to the constructor must not be modified
+     * afterwards
+     */
+
+    /**
+     * Reads the parts of a snapshot without building intermediate
+     * objects, as they are decoded.
+     */
+    public interface Visitor {
+
+        /**
+         * Receives the peak load.
+         *
+         * @param peak the highest number of requests in any window
+         */
+        void peak(int peak);
+
+        /**
+         * Receives requests made in the same millisecond, in
+         * non-decreasing order of time.
+         *
+         * @param time  the time of the requests in milliseconds
+         * @param count the number of requests, at least 1
+         */
+        void load(long time, int count);
+
+        /**
+         * Receives the count of a query tracked for zeitgeist.
+         *
+         * @param key   the query
+         * @param count the number of times it was used, at least 1
+         */
+        void history(String key, long count);
+
+        /**
+         * Receives the count of a query in a trending bucket, in
+         * non-decreasing order of time.
+         *
+         * @param key   the query
+         * @param time  the start time of the bucket in milliseconds
+         * @param count the number of times it was used in the bucket
+         */
+        void trending(String key, long time, int count);
+
+    }
+
+    /**
+     * Create a snapshot of statistics.
+     *
+     * @param segment   the first event log segment not covered
+     * @param peak      the peak load
+     * @param loadTimes the time of every request in the load window,
+     *                  in non-decreasing order
+     * @param history   the count of every query tracked for zeitgeist
+     * @param trending  the count of every query in each trending
+     *                  bucket, keyed by the start time of the bucket
+     */
+    public StatsSnapshot(long segment, int peak, long[] loadTimes, Map<String, Long> history,
+                         Map<Long, Map<String, Integer>> trending) {
+        this.segment = segment;
+        this.peak = peak;
+        this.loadTimes = loadTimes;
+        this.history = history;
+        this.trending = trending;
+    }
+
+    /**
+     * Writes the snapshot to file in the binary format of VERSION,
+     * replacing any earlier snapshot atomically: the snapshot is
+     * written to a temporary file, forced to disk, and renamed over
+     * file, so a crash leaves either snapshot intact.
+     * <p>
+     * After a fixed header of the magic number, version, segment and
+     * peak, the file holds columns of primitives: a table of query
+     * keys, each an int length followed by its UTF-8 bytes; the key
+     * indices and long counts of history; the key indices, int counts
+     * and bucket times of trending; the int counts and times of the
+     * load window, one entry per millisecond. Times are stored as the
+     * first time followed by zigzag variable-length deltas. A CRC32
+     * of every preceding byte ends the file.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        Map<String, Integer> index = new HashMap<>();
+        int size = HEADER + 4 + 4 + 4 + 4 + TRAILER;
+        int trendingEntries = 0;
+        for (Map<String, Integer> bucket : trending.values()) {
+            trendingEntries += bucket.size();
+        }
+        int loadEntries = 0;
+        for (int i = 0; i < loadTimes.length; i++) {
+            if (i == 0 || loadTimes[i] != loadTimes[i - 1]) {
+                loadEntries++;
+            }
+        }
+        int keys = history.size() + trendingEntries;
+        byte[][] table = new byte[keys][];
+        int tableSize = 0;
+        for (String key : history.keySet()) {
+            tableSize = addKey(index, table, tableSize, key);
+        }
+        for (Map<String, Integer> bucket : trending.values()) {
+            for (String key : bucket.keySet()) {
+                tableSize = addKey(index, table, tableSize, key);
+            }
+        }
+        for (int i = 0; i < tableSize; i++) {
+            size += 4 + table[i].length;
+        }
+        size += history.size() * (4 + 8);
+        size += trendingEntries * (4 + 4 + MAX_VARLONG);
+        size += loadEntries * (4 + MAX_VARLONG);
+
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putLong(segment).putInt(peak);
+
+        out.putInt(tableSize);
+        for (int i = 0; i < tableSize; i++) {
+            out.putInt(table[i].length).put(table[i]);
+        }
+
+        out.putInt(history.size());
+        for (String key : history.keySet()) {
+            out.putInt(index.get(key));
+        }
+        for (long count : history.values()) {
+            out.putLong(count);
+        }
+
+        out.putInt(trendingEntries);
+        for (Map<String, Integer> bucket : trending.values()) {
+            for (String key : bucket.keySet()) {
+                out.putInt(index.get(key));
+            }
+        }
+        for (Map<String, Integer> bucket : trending.values()) {
+            for (int count : bucket.values()) {
+                out.putInt(count);
+            }
+        }
+        long previous = 0;
+        for (Map.Entry<Long, Map<String, Integer>> bucket : trending.entrySet()) {
+            for (int i = 0; i < bucket.getValue().size(); i++) {
+                putVarLong(out, bucket.getKey() - previous);
+                previous = bucket.getKey();
+            }
+        }
+
+        out.putInt(loadEntries);
+        for (int i = 0; i < loadTimes.length; ) {
+            int count = 1;
+            while (i + count < loadTimes.length && loadTimes[i + count] == loadTimes[i]) {
+                count++;
+            }
+            out.putInt(count);
+            i += count;
+        }
+        previous = 0;
+        for (int i = 0; i < loadTimes.length; i++) {
+            if (i == 0 || loadTimes[i] != loadTimes[i - 1]) {
+                putVarLong(out, loadTimes[i] - previous);
+                previous = loadTimes[i];
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(out.array(), 0, out.position());
+        out.putInt((int) crc.getValue());
+        out.flip();
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(true);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Tells whether file starts like a binary snapshot, as opposed to
+     * the JSON snapshots of earlier versions.
+     *
+     * @param file the file to check
+     * @return true if file is a binary snapshot of any version
+     * @throws IOException if the file cannot be read
+     */
+    public static boolean isSnapshot(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                // read the magic number
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads a snapshot written by write, memory-mapping the file and
+     * handing each part to visitor as it is decoded. Only the query
+     * keys are materialized, as Strings; counts and times are read
+     * straight from the mapped file as primitives. The checksum is
+     * verified before visitor is called.
+     *
+     * @param file    the snapshot file
+     * @param visitor receives the parts of the snapshot
+     * @return the first event log segment not covered by the snapshot
+     * @throws IOException if the file cannot be read, has another
+     *                     version, or is corrupted
+     */
+    public static long read(File file, Visitor visitor) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.capacity() < HEADER + TRAILER || in.getInt(0) != MAGIC) {
+            throw new IOException("Not a statistics snapshot: " + file);
+        }
+        if (in.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + in.getInt(4));
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer body = in.duplicate();
+        body.limit(in.capacity() - TRAILER);
+        crc.update(body);
+        if ((int) crc.getValue() != in.getInt(in.capacity() - TRAILER)) {
+            throw new IOException("Corrupted statistics snapshot: " + file);
+        }
+        try {
+            return decode(in, visitor);
+        } catch (RuntimeException re) {
+            throw new IOException("Corrupted statistics snapshot: " + file, re);
+        }
+    }
+
+    /**
+     * Decodes a mapped snapshot whose header and checksum are valid.
+     *
+     * @param in      the mapped snapshot
+     * @param visitor receives the parts of the snapshot
+     * @return the first event log segment not covered by the snapshot
+     */
+    private static long decode(ByteBuffer in, Visitor visitor) {
+        long segment = in.getLong(8);
+        visitor.peak(in.getInt(16));
+        in.position(HEADER);
+
+        String[] keys = new String[in.getInt()];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < keys.length; i++) {
+            int length = in.getInt();
+            if (scratch.length < length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.get(scratch, 0, length);
+            keys[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        int historyEntries = in.getInt();
+        int indices = in.position();
+        int counts = indices + historyEntries * 4;
+        for (int i = 0; i < historyEntries; i++) {
+            visitor.history(keys[in.getInt(indices + i * 4)], in.getLong(counts + i * 8));
+        }
+        in.position(counts + historyEntries * 8);
+
+        int trendingEntries = in.getInt();
+        indices = in.position();
+        counts = indices + trendingEntries * 4;
+        in.position(counts + trendingEntries * 4);
+        long time = 0;
+        for (int i = 0; i < trendingEntries; i++) {
+            time += getVarLong(in);
+            visitor.trending(keys[in.getInt(indices + i * 4)], time, in.getInt(counts + i * 4));
+        }
+
+        int loadEntries = in.getInt();
+        counts = in.position();
+        in.position(counts + loadEntries * 4);
+        time = 0;
+        for (int i = 0; i < loadEntries; i++) {
+            time += getVarLong(in);
+            visitor.load(time, in.getInt(counts + i * 4));
+        }
+        return segment;
+    }
+
+    /**
+     * Adds key to the string table if it is not there yet.
+     *
+     * @param index maps every key in the table to its position
+     * @param table the UTF-8 bytes of the keys in the table
+     * @param size  the number of keys in the table
+     * @param key   the key to add
+     * @return the number of keys in the table afterwards
+     */
+    private static int addKey(Map<String, Integer> index, byte[][] table, int size, String key) {
+        if (index.putIfAbsent(key, size) != null) {
+            return size;
+        }
+        table[size] = key.getBytes(StandardCharsets.UTF_8);
+        return size + 1;
+    }
+
+    /**
+     * Writes a long in zigzag variable-length encoding, 7 bits a byte,
+     * so that small deltas of either sign take few bytes.
+     *
+     * @param out   the buffer to write to
+     * @param value the value to write
+     */
+    private static void putVarLong(ByteBuffer out, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        while ((zigzag & ~0x7FL) != 0) {
+            out.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        out.put((byte) zigzag);
+    }
+
+    /**
+     * Reads a long written by putVarLong.
+     *
+     * @param in the buffer to read from
+     * @return the value read
+     */
+    private static long getVarLong(ByteBuffer in) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            zigzag |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,337 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TopKCounter implements QueryCounter {
+
+    private final int capacity;
+    private final Map<String, Node> index;
+    private Bucket lowest;
+    private Bucket highest;
+    private long evicted;
+    /**
+     * Rep Invariant:
+     * capacity >= 1 and index is not null
+     * index.size() <= capacity
+     * the buckets from lowest to highest, linked through up and down,
+     *      have strictly increasing counts >= 1 and are not empty
+     * every node in index is in exactly the bucket whose count is its
+     *      count, and every node in a bucket is in index
+     * 0 <= node.error < node.count for every node
+     * evicted is the largest count of a key that has been evicted
+     */
+    /**
+     * Abstraction Function:
+     * Represents the number of times each key has been counted,
+     * organised as a Stream-Summary: keys with equal counts share a
+     * bucket, and buckets are linked in order of count, so the most
+     * frequent keys are found by walking down from highest.
+     * If capacity was never reached the counts are exact. Otherwise
+     * the counter follows the Space-Saving algorithm: a new key
+     * replaces a key with the lowest count and inherits that count as
+     * its error, so every count overestimates the true count of its
+     * key by at most node.error, which is at most evicted, and every
+     * key counted more than evicted times in total is tracked.
+     */
+    /**
+     * Thread safety argument:
+     * capacity and index are final
+     * index, lowest, highest, evicted and every node and bucket are
+     *      only accessed inside synchronized methods
+     */
+
+    /**
+     * Create a counter that tracks every key exactly.
+     */
+    public TopKCounter() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a counter that tracks at most capacity keys. Once that
+     * many keys are tracked, a new key replaces one with the lowest
+     * count, so the counts of the keys tracked may be overestimated by
+     * at most the total count divided by capacity.
+     *
+     * @param capacity the number of keys tracked, at least 1
+     */
+    public TopKCounter(int capacity) {
+        this.capacity = capacity;
+        this.index = new HashMap<>();
+    }
+
+    /**
+     * Adds delta to the count of key, in time proportional to the
+     * number of distinct counts between its old and new count, which
+     * is constant when delta is 1 or -1. A key whose count drops to 0
+     * or less is forgotten.
+     *
+     * @param key   the key counted
+     * @param delta the amount added to the count of key
+     */
+    @Override
+    synchronized public void add(String key, long delta) {
+        Node node = index.get(key);
+        if (node == null) {
+            if (delta <= 0) {
+                return;
+            }
+            node = new Node(key);
+            if (index.size() >= capacity) {
+                Node victim = lowest.first;
+                detach(victim);
+                index.remove(victim.key);
+                evicted = Math.max(evicted, victim.count);
+                node.error = victim.count;
+                node.count = victim.count;
+            }
+            index.put(key, node);
+            attach(node, node.count + delta, null);
+            return;
+        }
+        long count = node.count + delta;
+        Bucket from = node.bucket;
+        detach(node);
+        if (count <= 0) {
+            index.remove(key);
+            return;
+        }
+        node.error = Math.min(node.error, count - 1);
+        if (from.count == 0) {
+            from = from.down != null ? from.down : from.up;
+        }
+        attach(node, count, from);
+    }
+
+    /**
+     * Returns up to limit keys with the highest counts, in
+     * non-increasing order of count, in time proportional to limit.
+     * Keys with equal counts are listed in the order they reached
+     * that count.
+     *
+     * @param limit the maximum number of keys returned
+     * @return the most frequent keys
+     */
+    @Override
+    synchronized public List<String> top(int limit) {
+        List<String> top = new ArrayList<>(Math.max(0, Math.min(limit, index.size())));
+        for (Bucket bucket = highest; bucket != null && top.size() < limit; bucket = bucket.down) {
+            for (Node node = bucket.first; node != null && top.size() < limit; node = node.next) {
+                top.add(node.key);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Returns the count of key, which may overestimate its true count
+     * by at most error(key).
+     *
+     * @param key the key to look up
+     * @return the count of key, or 0 if it is not tracked
+     */
+    @Override
+    synchronized public long count(String key) {
+        Node node = index.get(key);
+        return node == null ? 0 : node.count;
+    }
+
+    /**
+     * Returns how much the count of key may overestimate its true
+     * count. The error is 0 for every key while the counter is exact.
+     *
+     * @param key the key to look up
+     * @return the largest overestimate of the count of key
+     */
+    synchronized public long error(String key) {
+        Node node = index.get(key);
+        return node == null ? evicted : node.error;
+    }
+
+    /**
+     * Returns the largest count of a key that was evicted, which bounds
+     * the overestimate of every count and is at most the total count
+     * divided by capacity.
+     *
+     * @return the error bound of every count
+     */
+    @Override
+    synchronized public long maxError() {
+        return evicted;
+    }
+
+    /**
+     * Tells whether every count is exact, which is the case until more
+     * than capacity keys have been counted.
+     *
+     * @return true if no key has been evicted
+     */
+    @Override
+    synchronized public boolean isExact() {
+        return evicted == 0;
+    }
+
+    /**
+     * Returns the number of keys tracked.
+     *
+     * @return the number of keys tracked
+     */
+    synchronized public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns every key tracked and its count, in non-increasing order
+     * of count.
+     *
+     * @return a map from every key tracked to its count
+     */
+    @Override
+    synchronized public Map<String, Long> counts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Bucket bucket = highest; bucket != null; bucket = bucket.down) {
+            for (Node node = bucket.first; node != null; node = node.next) {
+                counts.put(node.key, node.count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Appends node to the bucket for count, creating the bucket if
+     * needed. The search for the bucket starts at near, or at lowest
+     * if near is null.
+     *
+     * @param node  a node in no bucket
+     * @param count the new count of node, at least 1
+     * @param near  a bucket in the list to start the search from
+     */
+    private void attach(Node node, long count, Bucket near) {
+        Bucket below = near != null ? near : lowest;
+        while (below != null && below.count > count) {
+            below = below.down;
+        }
+        while (below != null && below.up != null && below.up.count <= count) {
+            below = below.up;
+        }
+        Bucket bucket = below;
+        if (bucket == null || bucket.count != count) {
+            bucket = new Bucket(count);
+            bucket.down = below;
+            bucket.up = below == null ? lowest : below.up;
+            if (bucket.down != null) {
+                bucket.down.up = bucket;
+            } else {
+                lowest = bucket;
+            }
+            if (bucket.up != null) {
+                bucket.up.down = bucket;
+            } else {
+                highest = bucket;
+            }
+        }
+        node.count = count;
+        node.bucket = bucket;
+        node.prev = bucket.last;
+        node.next = null;
+        if (bucket.last != null) {
+            bucket.last.next = node;
+        } else {
+            bucket.first = node;
+        }
+        bucket.last = node;
+    }
+
+    /**
+     * Removes node from its bucket, and the bucket from the list if it
+     * becomes empty, marking it with a count of 0.
+     *
+     * @param node a node in a bucket
+     */
+    private void detach(Node node) {
+        Bucket bucket = node.bucket;
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            bucket.first = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            bucket.last = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.bucket = null;
+        if (bucket.first == null) {
+            if (bucket.down != null) {
+                bucket.down.up = bucket.up;
+            } else {
+                lowest = bucket.up;
+            }
+            if (bucket.up != null) {
+                bucket.up.down = bucket.down;
+            } else {
+                highest = bucket.down;
+            }
+            bucket.count = 0;
+        }
+    }
+
+    private static class Bucket {
+        private long count;
+        private Bucket up;
+        private Bucket down;
+        private Node first;
+        private Node last;
+        /**
+         * Rep Invariant:
+         * first and last are both null or both not null
+         */
+        /**
+         * Abstraction Function:
+         * Represents the keys counted count times, linked from first
+         * to last, between the buckets with the next lower (down) and
+         * next higher (up) counts. A count of 0 marks a bucket that has
+         * been removed from the list.
+         */
+        /**
+         * Thread safety argument:
+         * Bucket is only accessed while holding the lock of its counter.
+         */
+
+        Bucket(long count) {
+            this.count = count;
+        }
+    }
+
+    private static class Node {
+        private final String key;
+        private long count;
+        private long error;
+        private Bucket bucket;
+        private Node prev;
+        private Node next;
+        /**
+         * Rep Invariant:
+         * key is not null
+         */
+        /**
+         * Abstraction Function:
+         * Represents key, counted count times with an overestimate of
+         * at most error, linked into bucket through prev and next.
+         */
+        /**
+         * Thread safety argument:
+         * Node is only accessed while holding the lock of its counter.
+         */
+
+        Node(String key) {
+            this.key = key;
+        }
+    }
+}
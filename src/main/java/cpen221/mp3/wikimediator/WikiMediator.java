@@ -5,21 +5,35 @@ import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import cpen221.mp3.fsftbuffer.CacheEntry;
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.DiskPageCache;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.NegativeCache;
 import cpen221.mp3.fsftbuffer.NotFoundException;
+import cpen221.mp3.fsftbuffer.OffHeapStore;
 import cpen221.mp3.fsftbuffer.Page;
-import org.fastily.jwiki.core.NS;
-import org.fastily.jwiki.core.Wiki;
+import cpen221.mp3.fsftbuffer.PageCompressor;
+import cpen221.mp3.fsftbuffer.PageReleasedException;
+import cpen221.mp3.fsftbuffer.RemovalCause;
+import cpen221.mp3.fsftbuffer.RemovalListener;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class WikiMediator {
 
@@ -27,73 +41,152 @@ public class WikiMediator {
     private static final int CAPACITY = 100;
     /*The default timeout for items in the cache is 3600*/
     private static final int TIMEOUT = 3600;
+    /*The typical weight of a cached page, used to size the admission filter of a cache limited by weight*/
+    private static final int PAGE_WEIGHT = 16 * 1024;
     /*The default timer for trending and peakLoad30s is 30*/
     private static final int TIMER = 30;
     /*The file in which statistical data is stored*/
     private static final String LOG = "./local/log.txt";
+    /*The directory in which statistics events are logged, if enabled*/
+    private static final String EVENTS = "./local/events";
+    /*The file in which snapshots of the logged statistics are stored*/
+    private static final String SNAPSHOT = "./local/stats.snapshot";
+    /*The default time, in seconds, between two snapshots of the logged statistics*/
+    private static final int SNAPSHOT_INTERVAL = 60;
+    /*The time, in milliseconds, between two forces of the periodically committed event log*/
+    private static final long COMMIT_MILLIS = 200;
+    /*The directory in which the second-level page cache is stored*/
+    private static final String PAGES = "./local/pages";
+    /*The number of threads that refresh cached pages ahead of their timeout*/
+    private static final int REFRESH_THREADS = 2;
+    /*The number of missing titles remembered per generation of the negative cache*/
+    private static final int MISSING_TITLES = 100_000;
+    /*The false positive rate of the negative cache once all its generations are full*/
+    private static final double MISSING_FPP = 0.01;
 
-    private final Wiki wiki;
+    private final WikiSource wiki;
     private final FSFTBuffer<Page> pageCache;
+    private final OffHeapStore pageStore;
+    private final PageCompressor pageCompressor;
+    private final DiskPageCache diskCache;
+    private final NegativeCache missingPages;
+    private final long timeoutMillis;
 
-    private ConcurrentHashMap<String, Long> trendingCache;
-    private ConcurrentHashMap<String, Integer> trendingHistory;
-    private ConcurrentHashMap<String, Integer> searchHistory;
+    private final SlidingWindowCounter trendingWindow;
+    private final QueryCounter searchHistory;
 
-    private final CopyOnWriteArrayList<Long> timeList;
-    private int peak;
+    private static final ScheduledExecutorService SNAPSHOTS =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wikimediator-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+    private final PeakLoadTracker load;
+    private final StatsPipeline stats;
+    private final StatsLog eventLog;
+    private final IOException eventLogOpenFailure;
+    private final AtomicBoolean eventLogFailureReported;
+    private final ReadWriteLock logLock;
     /**
      * Rep Invariant:
-     * wiki, pageCache, trendingCache, trendingHistory, searchHistory,
-     *      timeList, peak, are not null
-     * Every key in trendingHistory.keySet() must also be in
-     *      searchHistory.keySet() and vice-versa
-     * For all trendingCache.get(i), it must appear as a key in both
-     *      searchHistory.keySet() and trending.keySet()
-     * For all duplicate keys k shared by trendingHistory.keySet()
-     *      and searchHistory.keySet(),
-     *      searchHistory.get(k) >= trendingHistory.get(k)
-     * For all timeList.get(i), timeList.get(i) <= System.currentTimeMillis()
-     * peak >= 0
-     * peak cannot decrement
+     * wiki, pageCache, trendingWindow, searchHistory,
+     *      load, are not null
+     * pageStore and pageCompressor are not both set
+     * if pageStore is not null, every Page in pageCache keeps its
+     *      content in pageStore
+     * if pageCompressor is not null, every Page in pageCache was
+     *      created by Page.compressed with pageCompressor
+     * timeoutMillis > 0
+     * If searchHistory.isExact(), every key k has
+     *      searchHistory.count(k) >= trendingWindow.count(k, now)
+     * load.peak() cannot decrement
      */
     /**
      * Abstraction Function:
      * WikiMediator caches Wikipedia pages and collects
      *      statistical data on its public methods.
      * Every page accessed by getPage is cached for
-     *      faster subsequent use.
-     * Public method calls are tracked by trendingCache,
-     *      searchHistory, trendingHistory, timeList, and peak.
-     * trendingCache records all queries passed to getPage and search
-     *      in the last 30 seconds
-     * trendingHistory records the number of uses of each query
-     *      passed to getPage and search if they have been used
-     *      in the past 30 seconds
+     *      faster subsequent use. If pageStore is not null, the
+     *      contents of cached pages are held outside the heap. If
+     *      pageCompressor is not null, they are held deflated.
+     * If diskCache is not null, it is a second cache level on disk
+     *      that holds every page fetched from Wikipedia or evicted
+     *      from pageCache for timeoutMillis, across restarts.
+     * A page that timed out in pageCache but is within its grace
+     *      period is returned stale while it is reloaded.
+     * If missingPages is not null, it holds the titles recently found
+     *      not to exist on Wikipedia, which are answered with empty
+     *      content without asking Wikipedia again.
+     * Public method calls are tracked by trendingWindow,
+     *      searchHistory, and load.
+     * trendingWindow records the number of uses of each query
+     *      passed to getPage and search in the last 30 seconds,
+     *      in one-second buckets
      * searchHistory tracks the number of uses of each query
      *      passed to getPage and search for the entire duration
-     *      of the instance's existence.
-     * timeList records the requests of all public methods and
-     *      stores the time at which they were requested. If
-     *      peakLoad30s is called then all entries in timeList
-     *      that are older than 30 seconds are removed at
-     *      the end of the method call
-     * peak represents the highest frequency of public method
-     *      calls in any 30 second interval
+     *      of the instance's existence. If it was created with a
+     *      capacity, it only tracks the most used queries, and
+     *      their counts are approximate once more queries than its
+     *      capacity have been seen. If it is a CountMinTopK, every
+     *      count is estimated by a count-min sketch and only the
+     *      heavy hitters are tracked individually.
+     * load records the time of every request to a public method
+     *      in the last 30 seconds, and load.peak() represents the
+     *      highest frequency of public method calls in any 30
+     *      second interval
+     * If eventLog is not null, the statistics are the last snapshot
+     *      written by checkpoint, followed by the requests in the
+     *      segments of eventLog the snapshot does not cover; otherwise
+     *      they were read from the data file written by log
+     * eventLogOpenFailure is not null only if an event log was asked
+     *      for but could not be opened, in which case eventLog is null
+     * eventLogFailureReported is true once a failure of the event log
+     *      has been reported
+     * If stats is not null, requests are recorded as events in stats
+     *      and applied to trendingWindow, searchHistory and load by
+     *      its consumer; the statistics then also include the events
+     *      waiting in stats, and leave out the events it dropped
      *
      */
     /**
      * Thread Safety Argument:
-     * all methods are synchronized
-     * All mutable datatypes are only modified in
-     *       synchronized blocks
+     * all fields are final, and no method holds a lock of the
+     *      mediator, so requests to Wikipedia made by different
+     *      threads overlap and never delay other requests
      * the mutable datatypes used in this implementation:
-     *       FSFTBuffer, ConcurrentHashMap, CopyOnWriteArrayList,
-     *       and CopyOnWriteArraySet are all thread-safe
-     * the exception to the above is the log method, which
-     *      uses non thread-safe datatypes. This is fine as
-     *      log is intended to only record the most recent data
-     *      for the representation of WikiMediator, which is
-     *      synchronized across all threads.
+     *       FSFTBuffer, PeakLoadTracker, QueryCounter and
+     *       SlidingWindowCounter are all thread-safe, and each
+     *       update of them is a single short call that does no I/O
+     * wiki is thread-safe
+     * reloadPage runs on refresh threads of pageCache; it only uses
+     *      wiki and the final fields pageStore, pageCompressor and
+     *      diskCache, which are thread-safe
+     * NegativeCache is thread-safe
+     * onEviction runs on the common fork-join pool; DiskPageCache
+     *      and Page.release are thread-safe
+     * pageCache runs at most one fetchPage per title at a time, so
+     *      concurrent misses for a title share one upstream fetch,
+     *      without holding the lock of pageCache
+     * a query is added to searchHistory before trendingWindow, so
+     *      the rep invariant between them holds at every moment, even
+     *      though a concurrent trending may not see the query yet
+     * if stats is not null, request threads only publish events to
+     *      it, which never waits; the statistics are only updated by
+     *      one thread at a time, and are read inside stats.read, so a
+     *      reader sees every event published before it and no batch
+     *      half applied
+     * log and checkpoint are synchronized so that concurrent calls do
+     *      not write the log file or snapshot at once; they read a
+     *      snapshot of each statistic from its thread-safe datatype
+     * if eventLog is not null, a request is appended to it and applied
+     *      to the statistics while holding the read lock of logLock,
+     *      and checkpoint rolls eventLog and captures the statistics
+     *      while holding the write lock, so every request is either in
+     *      the snapshot or in a segment the snapshot does not cover
+     * eventLogFailureReported is only set by compareAndSet, so a
+     *      failure of the event log is reported by one thread, once
+     * the snapshot thread holds the mediator through a WeakReference
      */
 
     /**
@@ -103,286 +196,668 @@ public class WikiMediator {
      * exists but is invalid, it overwrites
      */
     public WikiMediator() {
-        this.wiki = new Wiki.Builder().withDomain("en.wikipedia.org").build();
-        this.pageCache = new FSFTBuffer<>(CAPACITY, TIMEOUT);
-        this.timeList = new CopyOnWriteArrayList<>();
+        this(new Builder());
+    }
 
-        try {
+    /**
+     * Create a new instance of WikiMediator configured by builder.
+     * Prior statistical data is read as described for WikiMediator().
+     *
+     * @param builder the configuration of the mediator
+     */
+    private WikiMediator(Builder builder) {
+        this.wiki = builder.source != null ? builder.source : new WikipediaSource();
+        FSFTBuffer.Builder<Page> cacheBuilder = new FSFTBuffer.Builder<Page>()
+            .withCapacity(builder.capacity)
+            .withTimeout(builder.timeout);
+        if (builder.maxWeight > 0) {
+            cacheBuilder.withMaximumWeight(builder.maxWeight, Page::weight);
+        }
+        if (builder.admission && builder.maxWeight > 0) {
+            cacheBuilder.withAdmissionFilter(PAGE_WEIGHT);
+        } else if (builder.admission) {
+            cacheBuilder.withAdmissionFilter();
+        }
+        this.pageStore = builder.offHeap ? new OffHeapStore() : null;
+        this.pageCompressor = builder.compressed ? new PageCompressor() : null;
+        this.timeoutMillis = builder.timeout * 1000L;
+        DiskPageCache disk = null;
+        if (builder.diskCache) {
+            try {
+                disk = new DiskPageCache(new File(PAGES));
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+        }
+        this.diskCache = disk;
+        this.missingPages = builder.missingTimeout > 0
+            ? new NegativeCache(MISSING_TITLES, MISSING_FPP, builder.missingTimeout * 1000L,
+                System::currentTimeMillis)
+            : null;
+        if (builder.staleGrace > 0) {
+            cacheBuilder.withGracePeriod(builder.staleGrace);
+        }
+        if (builder.refreshFraction > 0 || builder.staleGrace > 0) {
+            cacheBuilder.withRefreshAhead(builder.refreshFraction, this::reloadPage,
+                REFRESH_THREADS);
+        }
+        cacheBuilder.withRemovalListener(new RemovalListener<>() {
+            @Override
+            public void onRemoval(Page page, RemovalCause cause) {
+                onEviction(page, cause, System.currentTimeMillis() + timeoutMillis);
+            }
+
+            @Override
+            public void onRemoval(Page page, RemovalCause cause, long deadline) {
+                onEviction(page, cause, deadline);
+            }
+        });
+        this.pageCache = cacheBuilder.build();
+        this.load = new PeakLoadTracker(TIMER * 1000L);
+        this.trendingWindow = new SlidingWindowCounter(TIMER * 1000L, TIMER);
+        if (builder.sketchBytes > 0) {
+            this.searchHistory = new CountMinTopK(builder.sketchBytes, builder.zeitgeistKeys);
+        } else {
+            this.searchHistory = builder.zeitgeistKeys > 0
+                ? new TopKCounter(builder.zeitgeistKeys) : new TopKCounter();
+        }
+
+        StatsLog events = null;
+        IOException openFailure = null;
+        this.eventLogFailureReported = new AtomicBoolean();
+        if (builder.durability != null) {
+            long firstSegment = restoreSnapshot(new File(SNAPSHOT));
+            try {
+                events = new StatsLog(new File(EVENTS), builder.durability, COMMIT_MILLIS,
+                    firstSegment, this::apply);
+            } catch (IOException ioe) {
+                openFailure = ioe;
+                reportEventLogFailure(ioe);
+            }
+        } else {
             File log = new File(LOG);
-            if (!log.exists()) {
-                log.createNewFile();
+            try {
+                if (!log.exists()) {
+                    log.createNewFile();
+                }
+            } catch (IOException ioe) {
+                ioe.printStackTrace();
+            }
+            restore(log);
+        }
+        this.eventLog = events;
+        this.eventLogOpenFailure = openFailure;
+        this.logLock = new ReentrantReadWriteLock();
+        this.stats = builder.statsEvents > 0
+            ? new StatsPipeline(builder.statsEvents, this::apply) : null;
+        if (eventLog != null && builder.snapshotInterval > 0) {
+            Checkpointer.schedule(this, builder.snapshotInterval * 1000L);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by checkpoint from file, if it exists.
+     * Snapshots written as JSON by earlier versions are still read.
+     *
+     * @param file the snapshot to read
+     * @return the number of the first event log segment not covered by
+     * the snapshot, or 0 if there is none
+     */
+    private long restoreSnapshot(File file) {
+        try {
+            if (!file.exists() || !StatsSnapshot.isSnapshot(file)) {
+                return restore(file);
             }
-            FileReader fr = new FileReader(LOG);
+            return StatsSnapshot.read(file, new StatsSnapshot.Visitor() {
+                @Override
+                public void peak(int peak) {
+                    load.restorePeak(peak);
+                }
+
+                @Override
+                public void load(long time, int count) {
+                    load.record(time, count);
+                }
+
+                @Override
+                public void history(String key, long count) {
+                    searchHistory.add(key, count);
+                }
+
+                @Override
+                public void trending(String key, long time, int count) {
+                    trendingWindow.add(key, time, count);
+                }
+            });
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Reads the statistical data written by log, or by checkpoint in
+     * earlier versions, from file, if it exists and holds any.
+     *
+     * @param file the data file or snapshot to read
+     * @return the number of the first event log segment not covered by
+     * the data, or 0 if there is none
+     */
+    private long restore(File file) {
+        if (!file.exists()) {
+            return 0;
+        }
+        try (FileReader fr = new FileReader(file)) {
             JsonElement json = JsonParser.parseReader(fr);
             if (json.isJsonObject()) {
                 JsonObject jsonObject = new Gson().fromJson(json, JsonObject.class);
-                JsonArray trendingCacheKeys =
-                    jsonObject.get("trendingCacheKeys").getAsJsonArray();
-                JsonArray trendingCacheTimes =
-                    jsonObject.get("trendingCacheTimes").getAsJsonArray();
-                JsonArray trendingHistoryKeys =
-                    jsonObject.get("trendingHistoryKeys").getAsJsonArray();
-                JsonArray trendingFrequency =
-                    jsonObject.get("trendingFrequency").getAsJsonArray();
                 JsonArray searchHistoryKeys =
                     jsonObject.get("searchHistoryKeys").getAsJsonArray();
                 JsonArray searchFrequency =
                     jsonObject.get("searchFrequency").getAsJsonArray();
                 JsonArray timeList = jsonObject.get("timeList").getAsJsonArray();
-                this.peak = jsonObject.get("peak").getAsInt();
+                load.restorePeak(jsonObject.get("peak").getAsInt());
 
-                Map<String, Long> trendCache = new HashMap<>();
-                arrayToMapLong(trendCache, trendingCacheKeys, trendingCacheTimes);
-                this.trendingCache = new ConcurrentHashMap<>(trendCache);
-
-                Map<String, Integer> trendHistory = new HashMap<>();
-                arrayToMapInteger(trendHistory, trendingHistoryKeys, trendingFrequency);
-                this.trendingHistory = new ConcurrentHashMap<>(trendHistory);
+                if (jsonObject.has("trendingKeys")) {
+                    JsonArray trendingKeys = jsonObject.get("trendingKeys").getAsJsonArray();
+                    JsonArray trendingTimes = jsonObject.get("trendingTimes").getAsJsonArray();
+                    JsonArray trendingCounts = jsonObject.get("trendingCounts").getAsJsonArray();
+                    for (int i = 0; i < trendingKeys.size(); i++) {
+                        trendingWindow.add(trendingKeys.get(i).getAsString(),
+                            trendingTimes.get(i).getAsLong(), trendingCounts.get(i).getAsInt());
+                    }
+                }
 
-                Map<String, Integer> searchHistory = new HashMap<>();
-                arrayToMapInteger(searchHistory, searchHistoryKeys, searchFrequency);
-                this.searchHistory = new ConcurrentHashMap<>(searchHistory);
+                for (int i = 0; i < searchHistoryKeys.size(); i++) {
+                    searchHistory.add(searchHistoryKeys.get(i).getAsString(),
+                        searchFrequency.get(i).getAsLong());
+                }
 
+                long[] times = new long[timeList.size()];
                 for (int i = 0; i < timeList.size(); i++) {
-                    this.timeList.add(timeList.get(i).getAsLong());
+                    times[i] = timeList.get(i).getAsLong();
+                }
+                Arrays.sort(times);
+                for (long time : times) {
+                    load.record(time);
+                }
+                if (jsonObject.has("segment")) {
+                    return jsonObject.get("segment").getAsLong();
                 }
-            } else {
-                this.peak = 0;
-                this.trendingCache = new ConcurrentHashMap<>();
-                this.trendingHistory = new ConcurrentHashMap<>();
-                this.searchHistory = new ConcurrentHashMap<>();
             }
         } catch (IOException ioe) {
             ioe.printStackTrace();
         }
+        return 0;
     }
 
     /**
-     * Given a map and two arrays, this method modifies map such that it takes arr1
-     * and sets it to be the keys of map as Strings and arr2 is set to the values as Integers.
-     * Each entry of the map has entries such that (key=arr1[i],value=arr2[i]).
+     * Given a query, return up to limit page titles that match the
+     * query string (per Wikipedia's search service).
      *
-     * @param map  A map that has a String Integer pair as the entries
-     * @param arr1 the array of jsonElements to be converted to String keys for the map
-     * @param arr2 the array of jsonElements to be converted to Integer values
+     * @param query is the query string
+     * @param limit is the maximum number of search results returned
      */
-    synchronized private void arrayToMapInteger(Map<String, Integer> map, JsonArray arr1,
-                                                JsonArray arr2) {
-        for (int i = 0; i < arr1.size(); i++) {
-            map.put(arr1.get(i).getAsString(), arr2.get(i).getAsInt());
+    public List<String> search(String query, int limit) {
+        record(StatsPipeline.REQUEST | StatsPipeline.QUERY, query);
+        if (limit == 0) {
+            return new ArrayList<>();
         }
+        return wiki.search(query, limit);
     }
 
     /**
-     * Given a map and two arrays, this method modifies map such that it takes arr1
-     * and sets it to be the keys of map as Strings and arr2 is set to the values as Longs.
-     * Each entry of the map has entries such that (key=arr1[i],value=arr2[i]).
+     * Given a pageTitle, returns the text associated with the
+     * Wikipedia page that matches pageTitle.
      *
-     * @param map  A map that has a string integer pair as the entries
-     * @param arr1 the array of jsonElements to be converted to string keys for the map
-     * @param arr2 the array of jsonElements to be converted to Long values
+     * @param pageTitle is the title of the Wikipedia page
+     * @return the contents of the Wikipedia page
      */
-    synchronized private void arrayToMapLong(Map<String, Long> map, JsonArray arr1,
-                                             JsonArray arr2) {
-        for (int i = 0; i < arr1.size(); i++) {
-            map.put(arr1.get(i).getAsString(), arr2.get(i).getAsLong());
-        }
+    public String getPage(String pageTitle) {
+        return getPageEntry(pageTitle, true).value();
     }
 
+    /**
+     * Given a pageTitle, returns the text associated with the
+     * Wikipedia page that matches pageTitle, and whether it was served
+     * stale. A cached page that has timed out but is within the grace
+     * period set by Builder.withStalePages is returned at once, and
+     * reloaded in the background, if allowStale is true. Otherwise it
+     * is fetched again before returning.
+     *
+     * @param pageTitle  is the title of the Wikipedia page
+     * @param allowStale whether a timed out page may be returned
+     * @return the contents of the Wikipedia page, marked stale if they
+     * had timed out
+     */
+    public CacheEntry<String> getPageEntry(String pageTitle, boolean allowStale) {
+        record(StatsPipeline.REQUEST | StatsPipeline.QUERY, pageTitle);
+        CacheEntry<String> entry = pageEntry(pageTitle);
+        if (entry.isStale() && !allowStale) {
+            pageCache.invalidate(pageTitle);
+            entry = pageEntry(pageTitle);
+        }
+        return entry;
+    }
 
     /**
-     * Given a query, return up to limit page titles that match the
-     * query string (per Wikipedia's search service).
+     * Given a collection of page titles, returns the text associated
+     * with the Wikipedia page that matches each of them. Pages already
+     * cached are retrieved from the page cache in one call, and each
+     * remaining page is fetched as getPage would fetch it. Every title
+     * counts towards zeitgeist and trending as a call to getPage would.
      *
-     * @param query is the query string
-     * @param limit is the maximum number of search results returned
+     * @param pageTitles the titles of the Wikipedia pages
+     * @return a map from every title in pageTitles to the contents of
+     * its page, in the order of pageTitles
      */
-    synchronized public List<String> search(String query, int limit) {
-        timeList.add(System.currentTimeMillis());
-        zeitgeistTracker(query);
-        trendingTracker(query);
-        if (limit == 0) {
-            return new ArrayList<>();
+    public Map<String, String> getPages(Collection<String> pageTitles) {
+        record(StatsPipeline.REQUEST, null);
+        for (String pageTitle : pageTitles) {
+            record(StatsPipeline.QUERY, pageTitle);
         }
-        return wiki.search(query, limit, NS.MAIN);
+        Map<String, Page> cached = pageCache.getAll(pageTitles);
+        Map<String, String> contents = new LinkedHashMap<>();
+        for (String pageTitle : pageTitles) {
+            Page page = cached.get(pageTitle);
+            String content = null;
+            if (page != null) {
+                try {
+                    content = page.getContent();
+                } catch (PageReleasedException released) {
+                    // replaced by a refresh since getAll; fetch it below
+                }
+            }
+            contents.put(pageTitle, content != null ? content : pageContent(pageTitle));
+        }
+        return contents;
     }
 
     /**
-     * Given a pageTitle, returns the text associated with the
-     * Wikipedia page that matches pageTitle.
+     * Returns the content of a page from the page cache, loading it
+     * into the cache on a miss.
      *
-     * @param pageTitle is the title of the Wikipedia page
+     * @param pageTitle the title of the Wikipedia page
      * @return the contents of the Wikipedia page
      */
-    synchronized public String getPage(String pageTitle) {
-        timeList.add(System.currentTimeMillis());
-        zeitgeistTracker(pageTitle);
-        trendingTracker(pageTitle);
-        try {
-            return pageCache.get(pageTitle).getContent();
-        } catch (NotFoundException nfe) {
-            String content = wiki.getPageText(pageTitle);
-            Page page = new Page(pageTitle, content);
-            pageCache.put(page);
+    private String pageContent(String pageTitle) {
+        return pageEntry(pageTitle).value();
+    }
+
+    /**
+     * Returns the content of a page from the page cache as pageContent
+     * does, and whether it was served stale.
+     *
+     * @param pageTitle the title of the Wikipedia page
+     * @return the contents of the Wikipedia page, marked stale if they
+     * had timed out
+     */
+    private CacheEntry<String> pageEntry(String pageTitle) {
+        while (true) {
+            String[] fetched = new String[1];
+            try {
+                CacheEntry<Page> entry = pageCache.getEntry(pageTitle, title -> {
+                    fetched[0] = fetchPage(title);
+                    return fetched[0] == null ? null : newPage(title, fetched[0]);
+                });
+                if (fetched[0] != null) {
+                    return new CacheEntry<>(fetched[0], false);
+                }
+                String content = entry.value().getContent();
+                if (missingPages != null && !content.isEmpty()) {
+                    missingPages.confirmExists(pageTitle);
+                }
+                return new CacheEntry<>(content, entry.isStale());
+            } catch (NotFoundException nfe) {
+                // the page does not exist on Wikipedia
+                return new CacheEntry<>("", false);
+            } catch (PageReleasedException released) {
+                // the page was released by a refresh; look it up again
+            }
+        }
+    }
+
+    /**
+     * Fetches a page that is not in the page cache, from the disk
+     * cache if possible and otherwise from Wikipedia. Called by at
+     * most one request per title at a time. If missingPages is not
+     * null, titles it holds are not fetched from Wikipedia, and titles
+     * Wikipedia has no page for are added to it. The disk cache is read
+     * first, so a false positive of missingPages never hides a page
+     * stored on disk, and is counted by missingPages.
+     *
+     * @param pageTitle the title of the page
+     * @return the content of the page, or null if the page is known
+     * not to exist
+     */
+    private String fetchPage(String pageTitle) {
+        String content = diskCache == null ? null : diskCache.get(pageTitle);
+        if (content != null) {
+            if (missingPages != null) {
+                missingPages.confirmExists(pageTitle);
+            }
             return content;
         }
+        if (missingPages == null) {
+            return download(pageTitle);
+        }
+        if (missingPages.isKnownMissing(pageTitle)) {
+            return null;
+        }
+        content = wiki.getPageText(pageTitle);
+        if (content == null || content.isEmpty()) {
+            missingPages.add(pageTitle);
+            return null;
+        }
+        if (diskCache != null) {
+            diskCache.put(pageTitle, content, System.currentTimeMillis() + timeoutMillis);
+        }
+        return content;
+    }
+
+    /**
+     * Fetches a page from Wikipedia, writing it through to the disk
+     * cache.
+     *
+     * @param pageTitle the title of the page
+     * @return the content of the page
+     */
+    private String download(String pageTitle) {
+        String content = wiki.getPageText(pageTitle);
+        if (diskCache != null) {
+            diskCache.put(pageTitle, content, System.currentTimeMillis() + timeoutMillis);
+        }
+        return content;
+    }
+
+    /**
+     * Fetches the current version of a cached page from Wikipedia for
+     * refresh-ahead.
+     *
+     * @param pageTitle the title of the page
+     * @return a new Page with the current content of the page
+     */
+    private Page reloadPage(String pageTitle) {
+        return newPage(pageTitle, download(pageTitle));
+    }
+
+    /**
+     * Creates a Page in the form the page cache is configured to hold.
+     *
+     * @param pageTitle the title of the page
+     * @param content   the text of the page
+     * @return a new Page with the given title and content
+     */
+    private Page newPage(String pageTitle, String content) {
+        if (pageStore != null) {
+            return Page.offHeap(pageTitle, content, pageStore);
+        }
+        if (pageCompressor != null) {
+            return Page.compressed(pageTitle, content, pageCompressor);
+        }
+        return new Page(pageTitle, content);
+    }
+
+    /**
+     * Handles a page leaving the page cache. Pages removed to make room
+     * are spilled to the disk cache, if there is one, with the deadline
+     * they had in memory, and the storage held by every removed page
+     * is released. Pages loaded but not admitted are only released once
+     * the requests that shared their load no longer hold them.
+     *
+     * @param page     the page removed from pageCache
+     * @param cause    the reason the page was removed
+     * @param deadline the time, in milliseconds, the page would have
+     *                 timed out in pageCache
+     */
+    private void onEviction(Page page, RemovalCause cause, long deadline) {
+        if (cause == RemovalCause.REJECTED) {
+            // requests that shared the load are still reading the page
+            page.releaseWhenUnreachable();
+            return;
+        }
+        if (diskCache != null && cause == RemovalCause.SIZE) {
+            diskCache.spill(page, deadline);
+        }
+        page.release();
+    }
+
+    /**
+     * Returns the compressor of cached page contents, which reports
+     * the compression ratio and time spent decompressing.
+     *
+     * @return the compressor of the page cache, or null if cached
+     * pages are not compressed
+     */
+    public PageCompressor pageCompressor() {
+        return pageCompressor;
+    }
+
+    /**
+     * Returns the statistics of the page cache, such as its hit rate,
+     * evictions for capacity and for timeout, and the time spent
+     * fetching missed pages, to guide the choice of its capacity and
+     * timeout. If cached pages are compressed, the statistics also hold
+     * the compression ratio and the time spent decompressing.
+     *
+     * @return a snapshot of the statistics of the page cache
+     */
+    public CacheStats cacheStats() {
+        CacheStats stats = pageCache.stats();
+        return pageCompressor == null ? stats : stats.withCompression(pageCompressor);
+    }
+
+    /**
+     * Returns the cache of titles recently found not to exist on
+     * Wikipedia, which reports how many requests it answered and how
+     * many existing pages it would have wrongly reported missing.
+     *
+     * @return the negative cache of the mediator, or null if it has
+     * none
+     */
+    public NegativeCache negativeCache() {
+        return missingPages;
     }
 
     /**
      * Returns the most common Strings used in search and getPage requests, with
-     * items being sorted in non-increasing order. Returns up to 'limit' items.
+     * items being sorted in non-increasing order. Returns up to 'limit' items,
+     * in time proportional to limit, or, in the sketch mode set by
+     * Builder.withZeitgeistSketch, in time proportional to k log k for its k
+     * heavy hitters, whatever the limit.
      *
      * @param limit the maximum number of items returned
      * @return a List of the most common Strings used in search and getPage.
      */
-    synchronized public List<String> zeitgeist(int limit) {
-        timeList.add(System.currentTimeMillis());
-        CopyOnWriteArrayList<String> queries = new CopyOnWriteArrayList<>(searchHistory.keySet());
-        queries.sort((a, b) -> searchHistory.get(b).compareTo(searchHistory.get(a)));
-        if (queries.size() > limit) {
-            return queries.subList(0, limit);
-        }
-        return queries;
+    public List<String> zeitgeist(int limit) {
+        record(StatsPipeline.REQUEST, null);
+        return read(() -> searchHistory.top(limit));
+    }
+
+    /**
+     * Returns the largest amount by which the count of a query used
+     * to rank zeitgeist may exceed its true count. In the sketch mode
+     * set by Builder.withZeitgeistSketch this bound holds for each
+     * query with a probability of about 98%.
+     *
+     * @return the error bound of query counts, 0 if they are exact
+     */
+    public long zeitgeistError() {
+        return read(searchHistory::maxError);
     }
 
     /**
      * Returns the most common Strings used in search and getPage requests in the
-     * last 30 seconds. Returns up to 'limit' items.
+     * last 30 seconds, to the nearest second. Returns up to 'limit' items,
+     * in time proportional to limit.
      *
      * @param limit the maximum number of items returned
      * @return a List of the most common search and getPage requests
      */
-    synchronized public List<String> trending(int limit) {
-        timeList.add(System.currentTimeMillis());
-        timeoutTrends();
-        CopyOnWriteArrayList<String> trendingQueries =
-            new CopyOnWriteArrayList<>(trendingCache.keySet());
-        trendingQueries.sort((a, b) -> trendingHistory.get(b).compareTo(trendingHistory.get(a)));
-        if (trendingQueries.size() > limit) {
-            return trendingQueries.subList(0, limit);
-        }
-        return trendingQueries;
+    public List<String> trending(int limit) {
+        long now = record(StatsPipeline.REQUEST, null);
+        return read(() -> trendingWindow.top(limit, now));
     }
 
     /**
      * This method returns the maximum number of requests made to public
-     * methods in this class over any 30 second interval.
+     * methods in this class over any 30 second interval. The peak is
+     * updated as each request is recorded, so this takes constant time.
      *
      * @return max number of requests over a 30 second interval
      */
-    synchronized public int peakLoad30s() {
-        long currentTime = System.currentTimeMillis();
-        timeList.add(currentTime);
-        processPeak(currentTime);
-        return peak;
+    public int peakLoad30s() {
+        record(StatsPipeline.REQUEST, null);
+        return read(load::peak);
     }
 
     /**
-     * Determines the max number of requests made up to the currentTime in any 30 second interval
-     * by processing the timesList field variable
+     * Returns the statistics pipeline that request threads publish
+     * their events to, which reports how many events are waiting, how
+     * many were dropped because it was full and how many failed to
+     * apply.
      *
-     * @param currentTime the time peakLoad30s was called at, to be used as a reference as the maximum time
+     * @return the statistics pipeline of the mediator, or null if
+     * statistics are updated by request threads directly
      */
-    synchronized private void processPeak(long currentTime) {
-        timeList.sort(Long::compare);
-        CopyOnWriteArrayList<Long> newTimeList = new CopyOnWriteArrayList<>();
-        for (int i = 0; i < timeList.size(); i++) {
-            long time = timeList.get(i);
-            int count = 0;
-            if (currentTime - time <= TIMER * 1000) {
-                newTimeList.add(time);
-            }
-            for (int j = i; j < timeList.size(); j++) {
-                long nextTime = timeList.get(j);
-                if (nextTime - time < TIMER * 1000) {
-                    count++;
-                } else {
-                    break;
+    public StatsPipeline statsPipeline() {
+        return stats;
+    }
+
+    /**
+     * Records a request to a public method, or a query passed to
+     * search or getPage, in the statistics, or publishes it to stats
+     * if there is a statistics pipeline. The request is first appended
+     * to eventLog if there is one and it has not failed; otherwise the
+     * request is only counted in memory.
+     *
+     * @param operation a combination of StatsPipeline.REQUEST, to
+     *                  count towards peakLoad30s, and
+     *                  StatsPipeline.QUERY, to count query towards
+     *                  zeitgeist and trending
+     * @param query     the String passed to search or getPage, or null
+     * @return the time recorded in milliseconds
+     */
+    private long record(int operation, String query) {
+        long now = System.currentTimeMillis();
+        if (eventLog == null) {
+            publish(now, operation, query);
+            return now;
+        }
+        logLock.readLock().lock();
+        try {
+            if (eventLog.failure() == null) {
+                try {
+                    eventLog.append(now, operation, query);
+                } catch (UncheckedIOException uioe) {
+                    reportEventLogFailure(uioe.getCause());
                 }
             }
-            peak = Math.max(count, peak);
+            publish(now, operation, query);
+        } finally {
+            logLock.readLock().unlock();
         }
-        timeList.clear();
-        timeList.addAll(newTimeList);
+        return now;
     }
 
     /**
-     * Keeps track of the number of times the same String is passed
-     * to the search and getPage methods.
+     * Returns the error that stopped the event log, set by
+     * Builder.withEventLog, from being opened or written. Requests made
+     * since are only counted in memory and are lost on a restart.
      *
-     * @param entry the String passed to search or getPage
+     * @return the error of the event log, or null if there is no event
+     * log or it is healthy
      */
-    synchronized private void zeitgeistTracker(String entry) {
-        if (searchHistory.containsKey(entry)) {
-            int value = searchHistory.get(entry) + 1;
-            searchHistory.replace(entry, value);
-        } else {
-            searchHistory.put(entry, 1);
+    public IOException eventLogFailure() {
+        if (eventLogOpenFailure != null) {
+            return eventLogOpenFailure;
         }
+        return eventLog == null ? null : eventLog.failure();
     }
 
     /**
-     * Keeps track of the number of times the same String is passed
-     * to the search and getPage methods in the last 30 seconds.
+     * Reports the failure of the event log the first time it is seen.
+     * Later failures are available through eventLogFailure only.
      *
-     * @param query the String passed to search or getPage
+     * @param failure the error of the event log
      */
-    synchronized private void trendingTracker(String query) {
-        timeoutTrends();
-        if (trendingCache.containsKey(query)) {
-            int value = trendingHistory.get(query) + 1;
-            trendingHistory.replace(query, value);
+    private void reportEventLogFailure(IOException failure) {
+        if (eventLogFailureReported.compareAndSet(false, true)) {
+            failure.printStackTrace();
+        }
+    }
+
+    /**
+     * Publishes a request to stats if there is a statistics pipeline,
+     * and otherwise applies it to the statistics at once.
+     *
+     * @param time      the time of the request in milliseconds
+     * @param operation a combination of StatsPipeline.REQUEST and
+     *                  StatsPipeline.QUERY
+     * @param query     the String passed to search or getPage, or null
+     */
+    private void publish(long time, int operation, String query) {
+        if (stats != null) {
+            stats.publish(time, operation, query);
         } else {
-            trendingHistory.put(query, 1);
+            apply(time, operation, query);
         }
-        trendingCache.put(query, System.currentTimeMillis() + TIMER * 1000);
     }
 
     /**
-     * Removes all the values from the trendingCache that have not been
-     * searched in the past 30 seconds. Modifies the trendingCache.
+     * Updates the statistics with a request or query, as described by
+     * record.
+     *
+     * @param time      the time of the request in milliseconds
+     * @param operation a combination of StatsPipeline.REQUEST and
+     *                  StatsPipeline.QUERY
+     * @param query     the String passed to search or getPage, or null
      */
-    synchronized private void timeoutTrends() {
-        ConcurrentLinkedQueue<String> timeoutQueue = new ConcurrentLinkedQueue<>();
-        for (String key : trendingCache.keySet()) {
-            if (trendingCache.get(key) < System.currentTimeMillis()) {
-                timeoutQueue.add(key);
-            }
+    private void apply(long time, int operation, String query) {
+        if ((operation & StatsPipeline.REQUEST) != 0) {
+            load.record(time);
         }
-        while (!timeoutQueue.isEmpty()) {
-            String key = timeoutQueue.poll();
-            trendingCache.remove(key);
+        if ((operation & StatsPipeline.QUERY) != 0) {
+            searchHistory.add(query);
+            trendingWindow.add(query, time);
         }
     }
 
+    /**
+     * Reads the statistics once every event published to stats has
+     * been applied, if there is a statistics pipeline.
+     *
+     * @param reader reads trendingWindow, searchHistory or load
+     * @param <R>    the type of value read
+     * @return the value returned by reader
+     */
+    private <R> R read(Supplier<R> reader) {
+        return stats != null ? stats.read(reader) : reader.get();
+    }
+
     /**
      * This method records the current state of the field variables into a text file called
-     * log.txt in the local folder. This folder is written to in the traditional JSON format
-     * in order to allow for ease when reading the state.
+     * log.txt in the local folder, and flushes the disk cache of pages if there is one. This folder is written to in the traditional JSON format
+     * in order to allow for ease when reading the state. If the statistics are kept in an
+     * event log, set by Builder.withEventLog, the event log is flushed to disk instead,
+     * in time independent of the history it holds.
      */
     synchronized public void log() {
+        if (diskCache != null) {
+            diskCache.flush();
+        }
+        if (eventLog != null) {
+            try {
+                eventLog.flush();
+            } catch (UncheckedIOException uioe) {
+                reportEventLogFailure(uioe.getCause());
+            }
+            return;
+        }
         File log = new File(LOG);
         try {
+            String jsonString = new Gson().toJson(read(this::capture));
             FileWriter fw = new FileWriter(log);
-            String[] trendingCacheKeys = new String[trendingCache.size()];
-            Long[] trendingCacheTimes = new Long[trendingCache.size()];
-            String[] trendingHistoryKeys = new String[trendingHistory.size()];
-            Integer[] trendingFrequency = new Integer[trendingHistory.size()];
-            String[] searchHistoryKeys = new String[searchHistory.size()];
-            Integer[] searchFrequency = new Integer[searchHistory.size()];
-            Long[] timeList = this.timeList.toArray(new Long[this.timeList.size()]);
-
-            processPeak(System.currentTimeMillis());
-
-            mapToArray(trendingCache, trendingCacheKeys, trendingCacheTimes);
-            mapToArray(trendingHistory, trendingHistoryKeys, trendingFrequency);
-            mapToArray(searchHistory, searchHistoryKeys, searchFrequency);
-
-            Gson gson = new Gson();
-            String jsonString = gson.toJson(
-                new Formatter(trendingCacheKeys, trendingCacheTimes, trendingHistoryKeys,
-                    trendingFrequency, searchHistoryKeys, searchFrequency, timeList, peak));
-
             fw.write(jsonString);
             fw.close();
         } catch (IOException ioe) {
@@ -390,6 +865,78 @@ public class WikiMediator {
         }
     }
 
+    /**
+     * Writes a snapshot of the statistics kept in the event log, set by
+     * Builder.withEventLog, and deletes the segments of the event log
+     * it covers, so that the next mediator only loads the snapshot and
+     * replays the requests made after it. The snapshot is written in
+     * the binary format of StatsSnapshot and replaces the previous one
+     * atomically, so a crash leaves one of them intact. SnapshotExport
+     * turns a snapshot into JSON for reading.
+     * Snapshots are also written periodically in the background, as
+     * set by Builder.withSnapshotInterval. Does nothing if there is no
+     * event log.
+     */
+    synchronized public void checkpoint() {
+        if (eventLog == null) {
+            return;
+        }
+        StatsSnapshot snapshot;
+        long segment;
+        logLock.writeLock().lock();
+        try {
+            long next = eventLog.roll();
+            snapshot = read(() -> new StatsSnapshot(next, load.peak(), load.window(),
+                searchHistory.counts(), trendingWindow.buckets(System.currentTimeMillis())));
+            segment = next;
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+            return;
+        } finally {
+            logLock.writeLock().unlock();
+        }
+        try {
+            snapshot.write(new File(SNAPSHOT));
+            eventLog.deleteBefore(segment);
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Collects the statistics written by log.
+     *
+     * @return the current statistics of the mediator
+     */
+    private Formatter capture() {
+        List<String> trendingKeys = new ArrayList<>();
+        List<Long> trendingTimes = new ArrayList<>();
+        List<Integer> trendingCounts = new ArrayList<>();
+        Map<Long, Map<String, Integer>> buckets =
+            trendingWindow.buckets(System.currentTimeMillis());
+        for (Map.Entry<Long, Map<String, Integer>> bucket : buckets.entrySet()) {
+            for (Map.Entry<String, Integer> count : bucket.getValue().entrySet()) {
+                trendingKeys.add(count.getKey());
+                trendingTimes.add(bucket.getKey());
+                trendingCounts.add(count.getValue());
+            }
+        }
+        Map<String, Long> searchCounts = searchHistory.counts();
+        String[] searchHistoryKeys = new String[searchCounts.size()];
+        Long[] searchFrequency = new Long[searchCounts.size()];
+        long[] window = load.window();
+        Long[] timeList = new Long[window.length];
+        for (int i = 0; i < window.length; i++) {
+            timeList[i] = window[i];
+        }
+
+        mapToArray(searchCounts, searchHistoryKeys, searchFrequency);
+
+        return new Formatter(trendingKeys.toArray(new String[0]),
+            trendingTimes.toArray(new Long[0]), trendingCounts.toArray(new Integer[0]),
+            searchHistoryKeys, searchFrequency, timeList, load.peak());
+    }
+
     /**
      * Modifies arr1, and arr2 by obtaining the keys of map and inputting them into arr1
      * and obtaining the values of map and inputting them into arr2. The i'th key-value pair in map
@@ -400,7 +947,7 @@ public class WikiMediator {
      * @param arr2 an array of generic type values from map
      * @param <T>  generic type
      */
-    synchronized private <T> void mapToArray(Map<String, T> map, String[] arr1, T[] arr2) {
+    private <T> void mapToArray(Map<String, T> map, String[] arr1, T[] arr2) {
         int i = 0;
         for (String key : map.keySet()) {
             arr1[i] = key;
@@ -409,20 +956,377 @@ public class WikiMediator {
         }
     }
 
+    /**
+     * Builds WikiMediators with a page cache configured differently
+     * from the defaults, for example:
+     * <pre>
+     *     new WikiMediator.Builder().withMaximumWeight(64 * 1024 * 1024).build();
+     * </pre>
+     */
+    public static class Builder {
+        private int capacity = CAPACITY;
+        private int timeout = TIMEOUT;
+        private long maxWeight = 0;
+        private boolean admission = false;
+        private boolean offHeap = false;
+        private boolean compressed = false;
+        private boolean diskCache = false;
+        private double refreshFraction = 0;
+        private int missingTimeout = 0;
+        private int staleGrace = 0;
+        private int zeitgeistKeys = 0;
+        private long sketchBytes = 0;
+        private WikiSource source = null;
+        private int statsEvents = 0;
+        private StatsLog.Durability durability = null;
+        private int snapshotInterval = SNAPSHOT_INTERVAL;
+
+        /**
+         * Set the number of pages the page cache can hold.
+         *
+         * @param capacity the number of pages the cache can hold
+         * @return this builder
+         */
+        public Builder withCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        /**
+         * Set how long, in seconds, an unused page stays in the cache.
+         *
+         * @param timeout the timeout of cached pages in seconds
+         * @return this builder
+         */
+        public Builder withTimeout(int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Size the page cache by the memory its pages occupy instead
+         * of by their number. The capacity set by withCapacity no
+         * longer applies once this is set.
+         *
+         * @param bytes the estimated number of bytes the cached pages
+         *              may occupy, as measured by Page.weight
+         * @return this builder
+         */
+        public Builder withMaximumWeight(long bytes) {
+            this.maxWeight = bytes;
+            this.capacity = Integer.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * Only cache a newly fetched page when it is requested more
+         * often than the pages it would push out of the cache, which
+         * keeps popular pages cached when many one-off titles are
+         * requested.
+         *
+         * @param admission whether to filter new pages by popularity
+         * @return this builder
+         */
+        public Builder withAdmissionFilter(boolean admission) {
+            this.admission = admission;
+            return this;
+        }
+
+        /**
+         * Keep the contents of cached pages as UTF-8 bytes outside the
+         * Java heap, so that a large page cache does not lengthen
+         * garbage collection pauses. Page.weight then measures the
+         * encoded size, so withMaximumWeight bounds the memory used
+         * outside the heap.
+         *
+         * @param offHeap whether to store page contents off the heap
+         * @return this builder
+         */
+        public Builder withOffHeapPages(boolean offHeap) {
+            this.offHeap = offHeap;
+            this.compressed = compressed && !offHeap;
+            return this;
+        }
+
+        /**
+         * Keep large cached page contents deflated, decompressing them
+         * when they are read. A small set of recently read pages is
+         * kept decompressed. Page.weight then measures the compressed
+         * size, so withMaximumWeight fits several times more pages.
+         * Compressed pages are kept on the heap, so this replaces
+         * withOffHeapPages.
+         *
+         * @param compressed whether to compress cached page contents
+         * @return this builder
+         */
+        public Builder withCompressedPages(boolean compressed) {
+            this.compressed = compressed;
+            this.offHeap = offHeap && !compressed;
+            return this;
+        }
+
+        /**
+         * Keep a second level of cached pages on disk, in the pages
+         * directory under local. Pages fetched from Wikipedia are
+         * written to it and pages evicted from memory are spilled to
+         * it, so a miss in memory, or a restart, can be answered from
+         * disk. Pages on disk time out like pages in memory.
+         *
+         * @param diskCache whether to keep pages on disk
+         * @return this builder
+         */
+        public Builder withDiskCache(boolean diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        /**
+         * Reload cached pages from Wikipedia in the background while
+         * they are still being requested, once they were fetched more
+         * than (1 - fraction) of the timeout ago, so that popular
+         * pages stay current without a request ever waiting for them.
+         *
+         * @param fraction the last part of the timeout, between 0 and
+         *                 1, in which a requested page is reloaded; 0
+         *                 disables refresh-ahead
+         * @return this builder
+         */
+        public Builder withRefreshAhead(double fraction) {
+            this.refreshFraction = fraction;
+            return this;
+        }
+
+        /**
+         * Bound the memory used to count queries for zeitgeist by
+         * tracking at most keys distinct queries, with the Space-Saving
+         * algorithm. A query seen for the first time while keys
+         * queries are tracked replaces the least used one and starts
+         * from its count, so counts may be overestimated by at most
+         * the total number of queries divided by keys. Every query
+         * used more often than that is still tracked, and zeitgeist
+         * lists the most used queries exactly unless their counts lie
+         * within that error of each other. By default every query is
+         * counted exactly.
+         *
+         * @param keys the number of queries tracked; 0 counts every
+         *             query exactly
+         * @return this builder
+         */
+        public Builder withZeitgeistCapacity(int keys) {
+            this.zeitgeistKeys = keys;
+            this.sketchBytes = 0;
+            return this;
+        }
+
+        /**
+         * Count queries for zeitgeist in a fixed amount of memory,
+         * however many distinct queries are seen. Counts are estimated
+         * by a count-min sketch with conservative update, and the
+         * heavyHitters queries with the highest estimates are kept in
+         * a heap to answer zeitgeist. An estimate never undercounts,
+         * and overcounts by at most e * 32 / bytes of all queries with
+         * a probability of about 98%, as reported by zeitgeistError.
+         * Only the heavy hitters are written by log, so the counts of
+         * other queries start from 0 after a restart. This replaces
+         * withZeitgeistCapacity.
+         *
+         * @param bytes        the memory of the sketch in bytes; 0
+         *                     disables the sketch
+         * @param heavyHitters the number of queries zeitgeist can list,
+         *                     at least 1 if bytes is not 0; otherwise
+         *                     building the mediator throws
+         *                     IllegalArgumentException
+         * @return this builder
+         */
+        public Builder withZeitgeistSketch(long bytes, int heavyHitters) {
+            this.sketchBytes = bytes;
+            this.zeitgeistKeys = heavyHitters;
+            return this;
+        }
+
+        /**
+         * Keep serving cached pages for a grace period after they time
+         * out. A request for such a page gets the stale content at
+         * once while a background thread fetches the current version,
+         * instead of waiting for Wikipedia. getPageEntry tells whether
+         * the content was stale, and can insist on a fresh page.
+         *
+         * @param grace the duration, in seconds, a timed out page is
+         *              still served; 0 disables stale pages
+         * @return this builder
+         */
+        public Builder withStalePages(int grace) {
+            this.staleGrace = grace;
+            return this;
+        }
+
+        /**
+         * Remember titles that Wikipedia has no page for, so that
+         * requests for them are answered with empty content at once
+         * instead of asking Wikipedia again. Missing titles are kept
+         * in a rotating Bloom filter of bounded size, and are
+         * forgotten after their own timeout, which is normally much
+         * shorter than the timeout of cached pages so that newly
+         * created pages appear quickly.
+         *
+         * @param timeout how long, in seconds, a missing title is
+         *                remembered; 0 disables the negative cache
+         * @return this builder
+         */
+        public Builder withNegativeCache(int timeout) {
+            this.missingTimeout = timeout;
+            return this;
+        }
+
+        /**
+         * Update the statistics behind zeitgeist, trending and
+         * peakLoad30s on a single background thread. Each request only
+         * publishes an event to a ring of events allocated up front,
+         * and never waits for the statistics. When the ring is full,
+         * events are dropped and counted rather than waited for, as
+         * reported by statsPipeline. zeitgeist, trending and
+         * peakLoad30s apply the waiting events before reading, so they
+         * still see every request made before them.
+         *
+         * @param events the number of events the ring holds, rounded up
+         *               to a power of two; 0 updates the statistics in
+         *               each request
+         * @return this builder
+         */
+        public Builder withAsyncStatistics(int events) {
+            this.statsEvents = events;
+            return this;
+        }
+
+        /**
+         * Keep the statistics behind zeitgeist, trending and
+         * peakLoad30s in an append-only binary log of requests, in the
+         * events directory under local, instead of in the data file
+         * written by log. Every request is appended as it is made, so
+         * the statistics survive a crash, and log only has to flush
+         * the event log. Snapshots of the statistics are written
+         * periodically, as set by withSnapshotInterval, and the log
+         * before them is deleted; the mediator loads the last snapshot
+         * when it is created and replays the requests made after it.
+         * durability sets when appended requests are forced
+         * to disk: SYNC waits for the disk in each request, with
+         * concurrent requests sharing one force; PERIODIC forces the
+         * log every 200 ms in the background; NONE only forces it in
+         * log.
+         *
+         * @param durability when requests are forced to disk; null
+         *                   keeps the statistics in the data file
+         * @return this builder
+         */
+        public Builder withEventLog(StatsLog.Durability durability) {
+            this.durability = durability;
+            return this;
+        }
+
+        /**
+         * Set how often a snapshot of the statistics is written when
+         * they are kept in an event log, set by withEventLog. Startup
+         * then replays at most this much of the event log, however
+         * long the mediator has been running.
+         *
+         * @param seconds the time between two snapshots in seconds; 0
+         *                only writes snapshots when checkpoint is called
+         * @return this builder
+         */
+        public Builder withSnapshotInterval(int seconds) {
+            this.snapshotInterval = seconds;
+            return this;
+        }
+
+        /**
+         * Fetch pages and search results from source instead of from
+         * the English Wikipedia, for example to use a mirror or to
+         * test the mediator without a network.
+         *
+         * @param source the source of pages and search results; null
+         *               uses the English Wikipedia
+         * @return this builder
+         */
+        public Builder withSource(WikiSource source) {
+            this.source = source;
+            return this;
+        }
+
+        /**
+         * Create a mediator with the settings of this builder.
+         *
+         * @return a new WikiMediator
+         */
+        public WikiMediator build() {
+            return new WikiMediator(this);
+        }
+    }
+
+    private static class Checkpointer implements Runnable {
+        private final WeakReference<WikiMediator> mediator;
+        private volatile ScheduledFuture<?> future;
+        /**
+         * Rep Invariant:
+         * mediator is not null
+         * future is not null once schedule has returned
+         */
+        /**
+         * Abstraction Function:
+         * Represents the periodic background snapshots of mediator.
+         * The task cancels itself once mediator has been garbage
+         * collected.
+         */
+        /**
+         * Thread safety argument:
+         * mediator is final and WikiMediator.checkpoint is synchronized
+         * future is volatile and only written once
+         */
+
+        private Checkpointer(WikiMediator mediator) {
+            this.mediator = new WeakReference<>(mediator);
+        }
+
+        /**
+         * Starts writing snapshots of mediator every period.
+         *
+         * @param mediator     the mediator to snapshot
+         * @param periodMillis the time between two snapshots in
+         *                     milliseconds
+         */
+        static void schedule(WikiMediator mediator, long periodMillis) {
+            Checkpointer task = new Checkpointer(mediator);
+            task.future = SNAPSHOTS.scheduleWithFixedDelay(
+                task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void run() {
+            WikiMediator target = mediator.get();
+            if (target == null) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            target.checkpoint();
+        }
+    }
+
     private class Formatter {
-        private final String[] trendingCacheKeys;
-        private final Long[] trendingCacheTimes;
-        private final String[] trendingHistoryKeys;
-        private final Integer[] trendingFrequency;
+        private final String[] trendingKeys;
+        private final Long[] trendingTimes;
+        private final Integer[] trendingCounts;
         private final String[] searchHistoryKeys;
-        private final Integer[] searchFrequency;
+        private final Long[] searchFrequency;
         private final Long[] timeList;
         private final int peak;
         /**
          * Rep Invariant:
-         * trendingCacheKeys, trendingCacheTimes, trendingHistoryKeys,
-         * trendingFrequency, searchHistoryKeys, searchFrequency,
-         * timeList, peak are not null
+         * trendingKeys, trendingTimes, trendingCounts,
+         * searchHistoryKeys, searchFrequency, timeList, peak
+         * are not null
+         * trendingKeys, trendingTimes and trendingCounts have
+         * the same length
          */
         /**
          * Abstraction Function:
@@ -439,23 +1343,20 @@ public class WikiMediator {
         /**
          * Creates a new instance of Formatter with all the necessary
          * statistical information for a WikiMediator instance.
-         * @param trendingCacheKeys the keys of the WikiMediator trendingCache
-         * @param trendingCacheTimes the values of the WikiMediator trendingCache
-         * @param trendingHistoryKeys the keys of the WikiMediator trendingHistory
-         * @param trendingFrequency the values of the WikiMediator trendingHistory
+         * @param trendingKeys the keys counted in each bucket of the WikiMediator trendingWindow
+         * @param trendingTimes the start time of the bucket of each of trendingKeys
+         * @param trendingCounts the count of each of trendingKeys in its bucket
          * @param searchHistoryKeys the keys of the WikiMediator searchHistory
          * @param searchFrequency the values of the WikiMediator searchHistory
          * @param timeList the timeList of WikiMediator which contains access times
          * @param peak the peak 30 second load of WikiMediator
          */
-        public Formatter(String[] trendingCacheKeys, Long[] trendingCacheTimes,
-                         String[] trendingHistoryKeys, Integer[] trendingFrequency,
-                         String[] searchHistoryKeys, Integer[] searchFrequency, Long[] timeList,
+        public Formatter(String[] trendingKeys, Long[] trendingTimes, Integer[] trendingCounts,
+                         String[] searchHistoryKeys, Long[] searchFrequency, Long[] timeList,
                          int peak) {
-            this.trendingCacheKeys = trendingCacheKeys;
-            this.trendingCacheTimes = trendingCacheTimes;
-            this.trendingHistoryKeys = trendingHistoryKeys;
-            this.trendingFrequency = trendingFrequency;
+            this.trendingKeys = trendingKeys;
+            this.trendingTimes = trendingTimes;
+            this.trendingCounts = trendingCounts;
             this.searchHistoryKeys = searchHistoryKeys;
             this.searchFrequency = searchFrequency;
             this.timeList = timeList;
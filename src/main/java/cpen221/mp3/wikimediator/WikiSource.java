@@ -0,0 +1,25 @@
+package cpen221.mp3.wikimediator;
+
+import java.util.List;
+
+public interface WikiSource {
+
+    /**
+     * Returns the text of the page with title.
+     *
+     * @param title the title of the page
+     * @return the text of the page, or null or empty if there is no
+     * such page
+     */
+    String getPageText(String title);
+
+    /**
+     * Returns up to limit titles of pages that match query.
+     *
+     * @param query the query string
+     * @param limit the maximum number of titles returned
+     * @return the titles of the matching pages, best match first
+     */
+    List<String> search(String query, int limit);
+
+}
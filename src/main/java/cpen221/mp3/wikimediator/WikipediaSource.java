@@ -0,0 +1,42 @@
+package cpen221.mp3.wikimediator;
+
+import org.fastily.jwiki.core.NS;
+import org.fastily.jwiki.core.Wiki;
+
+import java.util.List;
+
+class WikipediaSource implements WikiSource {
+
+    private final Wiki wiki;
+    /**
+     * Rep Invariant:
+     * wiki is not null
+     */
+    /**
+     * Abstraction Function:
+     * Represents the main namespace of the English Wikipedia, reached
+     * through wiki.
+     */
+    /**
+     * Thread safety argument:
+     * wiki is final and only sends independent HTTP requests, so any
+     * number of threads may call it at once
+     */
+
+    /**
+     * Create a source that reads from the English Wikipedia.
+     */
+    WikipediaSource() {
+        this.wiki = new Wiki.Builder().withDomain("en.wikipedia.org").build();
+    }
+
+    @Override
+    public String getPageText(String title) {
+        return wiki.getPageText(title);
+    }
+
+    @Override
+    public List<String> search(String query, int limit) {
+        return wiki.search(query, limit, NS.MAIN);
+    }
+}
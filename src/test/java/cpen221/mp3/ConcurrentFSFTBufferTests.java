@@ -0,0 +1,115 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.ConcurrentFSFTBuffer;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.NotFoundException;
+import cpen221.mp3.fsftbuffer.TestType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentFSFTBufferTests {
+
+    @Test
+    public void testPutGet() throws NotFoundException {
+        ConcurrentFSFTBuffer<TestType> test = new ConcurrentFSFTBuffer<>(64, 10, 4);
+        assertEquals(4, test.segmentCount());
+        TestType a = new TestType("a", 1);
+        assertTrue(test.put(a));
+        assertFalse(test.put(a));
+        assertEquals(a, test.get("a"));
+        assertTrue(test.update(new TestType("a", 2)));
+        assertEquals(2, test.get("a").val());
+        assertFalse(test.touch("b"));
+    }
+
+    @Test
+    public void testSegmentsRoundedToCapacity() {
+        ConcurrentFSFTBuffer<TestType> test = new ConcurrentFSFTBuffer<>(5, 10, 16);
+        assertEquals(4, test.segmentCount());
+        int held = 0;
+        for (int i = 0; i < 100; i++) {
+            test.put(new TestType(Integer.toString(i)));
+        }
+        for (int i = 0; i < 100; i++) {
+            if (test.touch(Integer.toString(i))) {
+                held++;
+            }
+        }
+        assertTrue(held <= 5);
+    }
+
+    @Test
+    public void testTimeout() {
+        AtomicLong time = new AtomicLong(0);
+        ConcurrentFSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(16).withTimeout(1).withClock(time::get).buildConcurrent(4);
+        test.put(new TestType("a"));
+        test.put(new TestType("b"));
+        time.set(500);
+        assertTrue(test.touch("a"));
+        time.set(1001);
+        assertTrue(test.touch("a"));
+        assertFalse(test.touch("b"));
+    }
+
+    @Test
+    public void testConcurrentGets() throws InterruptedException {
+        ConcurrentFSFTBuffer<TestType> test = new ConcurrentFSFTBuffer<>(4096, 10, 8);
+        for (int i = 0; i < 1024; i++) {
+            test.put(new TestType(Integer.toString(i), i));
+        }
+        AtomicInteger misses = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 1024; i++) {
+                    try {
+                        if (test.get(Integer.toString(i)).val() != i) {
+                            misses.incrementAndGet();
+                        }
+                    } catch (NotFoundException nfe) {
+                        misses.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, misses.get());
+    }
+
+
+    @Test
+    public void testBulkOperations() {
+        ConcurrentFSFTBuffer<TestType> test = new ConcurrentFSFTBuffer<>(1024, 10, 8);
+        List<TestType> pages = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            pages.add(new TestType("page" + i, i));
+            ids.add("page" + i);
+        }
+        Map<String, Boolean> added = test.putAll(pages);
+        assertEquals(200, added.size());
+        assertFalse(added.containsValue(false));
+        ids.add("missing");
+        Map<String, TestType> found = test.getAll(ids);
+        assertEquals(200, found.size());
+        assertEquals(42, found.get("page42").val());
+        assertFalse(found.containsKey("missing"));
+
+        assertEquals(100, test.invalidateAll(t -> t.val() % 2 == 0));
+        assertEquals(100, test.getAll(ids).size());
+        assertEquals(100, test.invalidateAll(ids));
+        assertTrue(test.getAll(ids).isEmpty());
+    }
+}
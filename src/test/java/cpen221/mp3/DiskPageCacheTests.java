@@ -0,0 +1,97 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.DiskPageCache;
+import cpen221.mp3.fsftbuffer.Page;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class DiskPageCacheTests {
+
+    @Test
+    public void testPutGet() throws IOException {
+        File dir = Files.createTempDirectory("pages").toFile();
+        AtomicLong time = new AtomicLong(0);
+        DiskPageCache cache = new DiskPageCache(dir, 1024, 4, time::get);
+        cache.put("a", "alpha", 1000);
+        cache.put("b", "beta", 1000);
+        assertEquals("alpha", cache.get("a"));
+        assertEquals("beta", cache.get("b"));
+        assertNull(cache.get("c"));
+        cache.put("a", "alpha 2", 1000);
+        assertEquals("alpha 2", cache.get("a"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        File dir = Files.createTempDirectory("pages").toFile();
+        AtomicLong time = new AtomicLong(0);
+        DiskPageCache cache = new DiskPageCache(dir, 1024, 4, time::get);
+        cache.put("a", "alpha", 1000);
+        cache.put("b", "beta", 1000);
+        time.set(999);
+        cache.spill(new Page("a", "alpha"), 2000);
+        cache.spill(new Page("b", "beta"), 999);
+        cache.spill(new Page("c", "gamma"), 1500);
+        assertEquals("alpha", cache.get("a"));
+        assertEquals("beta", cache.get("b"));
+        time.set(1000);
+        assertEquals("alpha", cache.get("a"));
+        assertNull(cache.get("b"));
+        time.set(1001);
+        assertNull(cache.get("a"));
+        assertEquals("gamma", cache.get("c"));
+        time.set(1501);
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        File dir = Files.createTempDirectory("pages").toFile();
+        AtomicLong time = new AtomicLong(0);
+        DiskPageCache cache = new DiskPageCache(dir, 256, 4, time::get);
+        for (int i = 0; i < 20; i++) {
+            cache.put("page" + i, "content of page " + i, 1000 + i);
+        }
+        cache.spill(new Page("page19", "content of page 19"), 5000);
+        cache.flush();
+
+        time.set(1010);
+        DiskPageCache reloaded = new DiskPageCache(dir, 256, 4, time::get);
+        assertEquals("content of page 19", reloaded.get("page19"));
+        assertEquals("content of page 15", reloaded.get("page15"));
+        assertNull(reloaded.get("page5"));
+        assertNull(reloaded.get("page0"));
+        reloaded.put("page20", "content of page 20", 5000);
+        assertEquals("content of page 20", reloaded.get("page20"));
+    }
+
+    @Test
+    public void testStrayFileIgnored() throws IOException {
+        File dir = Files.createTempDirectory("pages").toFile();
+        assertTrue(new File(dir, "segment-backup.dat").createNewFile());
+        AtomicLong time = new AtomicLong(0);
+        DiskPageCache cache = new DiskPageCache(dir, 1024, 4, time::get);
+        cache.put("a", "alpha", 1000);
+        assertEquals("alpha", cache.get("a"));
+    }
+
+    @Test
+    public void testOldestSegmentDropped() throws IOException {
+        File dir = Files.createTempDirectory("pages").toFile();
+        AtomicLong time = new AtomicLong(0);
+        DiskPageCache cache = new DiskPageCache(dir, 128, 2, time::get);
+        for (int i = 0; i < 20; i++) {
+            cache.put("page" + i, "content of page " + i, 1000);
+        }
+        assertNull(cache.get("page0"));
+        assertEquals("content of page 19", cache.get("page19"));
+        assertTrue(dir.listFiles().length <= 2);
+    }
+}
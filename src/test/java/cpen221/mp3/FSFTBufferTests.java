@@ -1,10 +1,27 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.CacheEntry;
+import cpen221.mp3.fsftbuffer.CacheStats;
 import cpen221.mp3.fsftbuffer.FSFTBuffer;
 import cpen221.mp3.fsftbuffer.NotFoundException;
+import cpen221.mp3.fsftbuffer.RemovalCause;
+import cpen221.mp3.fsftbuffer.RemovalListener;
 import cpen221.mp3.fsftbuffer.TestType;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
 import static org.junit.Assert.*;
 
 public class FSFTBufferTests {
@@ -268,4 +285,511 @@ public class FSFTBufferTests {
         }
 
     }
+
+    @Test
+    public void testGetRefreshesRecency() {
+        FSFTBuffer<TestType> test = new FSFTBuffer<>(3, 500);
+        test.put(new TestType("a"));
+        test.put(new TestType("b"));
+        test.put(new TestType("c"));
+        try {
+            test.get("a");
+        } catch (NotFoundException nfe) {
+            fail();
+        }
+        test.put(new TestType("d"));
+        assertTrue(test.touch("a"));
+        assertFalse(test.touch("b"));
+        assertTrue(test.touch("c"));
+        assertTrue(test.touch("d"));
+    }
+
+    @Test
+    public void testUpdateKeepsRecency() {
+        FSFTBuffer<TestType> test = new FSFTBuffer<>(2, 500);
+        test.put(new TestType("a"));
+        test.put(new TestType("b"));
+        assertTrue(test.update(new TestType("a", 1)));
+        test.put(new TestType("c"));
+        assertFalse(test.touch("a"));
+        assertTrue(test.touch("b"));
+    }
+
+    @Test
+    public void testManyObjects() throws NotFoundException {
+        FSFTBuffer<TestType> test = new FSFTBuffer<>(10000, 500);
+        for (int i = 0; i < 20000; i++) {
+            assertTrue(test.put(new TestType(Integer.toString(i), i)));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(test.touch(Integer.toString(i)));
+        }
+        for (int i = 10000; i < 20000; i++) {
+            assertEquals(i, test.get(Integer.toString(i)).val());
+        }
+    }
+
+    @Test
+    public void testVirtualClockExpiry() {
+        AtomicLong time = new AtomicLong(0);
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(100000).withTimeout(10).withClock(time::get).build();
+        for (int i = 0; i < 100000; i++) {
+            test.put(new TestType(Integer.toString(i)));
+            if (i == 49999) {
+                time.set(5000);
+            }
+        }
+        time.set(10001);
+        assertFalse(test.touch("0"));
+        assertFalse(test.touch("49999"));
+        assertTrue(test.touch("50000"));
+        time.set(15001);
+        assertTrue(test.touch("50000"));
+        assertFalse(test.touch("99999"));
+    }
+
+    @Test
+    public void testBackgroundExpiry() throws InterruptedException {
+        AtomicLong time = new AtomicLong(0);
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(1).withTimeout(1).withClock(time::get)
+            .withBackgroundExpiry(10).build();
+        test.put(new TestType("a"));
+        time.set(1001);
+        Thread.sleep(100);
+        time.set(0);
+        assertFalse(test.touch("a"));
+    }
+
+    @Test
+    public void testMaximumWeight() {
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(Integer.MAX_VALUE).withTimeout(10)
+            .withMaximumWeight(10, TestType::val).build();
+        assertTrue(test.put(new TestType("a", 4)));
+        assertTrue(test.put(new TestType("b", 4)));
+        assertEquals(8, test.weight());
+        assertTrue(test.touch("a"));
+        assertTrue(test.put(new TestType("c", 5)));
+        assertEquals(9, test.weight());
+        assertFalse(test.touch("b"));
+        assertFalse(test.put(new TestType("d", 11)));
+        assertTrue(test.update(new TestType("c", 7)));
+        assertEquals(7, test.weight());
+        assertFalse(test.touch("a"));
+    }
+
+    @Test
+    public void testAdmissionFilterResistsScan() {
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(10).withTimeout(10).withAdmissionFilter().build();
+        for (int i = 0; i < 10; i++) {
+            test.put(new TestType("hot" + i));
+            for (int j = 0; j < 5; j++) {
+                test.touch("hot" + i);
+            }
+        }
+        int admitted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (test.put(new TestType("scan" + i))) {
+                admitted++;
+            }
+            if (i % 10 == 0) {
+                for (int j = 0; j < 10; j++) {
+                    test.touch("hot" + j);
+                }
+            }
+        }
+        assertTrue(admitted < 10);
+        int hot = 0;
+        for (int i = 0; i < 10; i++) {
+            if (test.touch("hot" + i)) {
+                hot++;
+            }
+        }
+        assertTrue(hot >= 9);
+    }
+
+    @Test
+    public void testWeightedAdmissionFilterAges() {
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(Integer.MAX_VALUE).withTimeout(10)
+            .withMaximumWeight(20, t -> 10).withAdmissionFilter(10).build();
+        assertTrue(test.put(new TestType("a")));
+        assertTrue(test.put(new TestType("b")));
+        for (int i = 0; i < 15; i++) {
+            assertFalse(test.touch("c"));
+        }
+        for (int i = 0; i < 200; i++) {
+            test.touch("scan" + i);
+        }
+        for (int i = 0; i < 10; i++) {
+            assertTrue(test.touch("a"));
+            assertTrue(test.touch("b"));
+        }
+        assertFalse(test.put(new TestType("c")));
+        assertTrue(test.touch("a"));
+        assertTrue(test.touch("b"));
+    }
+
+    @Test
+    public void testAdmissionFilterAdmitsPopular() {
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(2).withTimeout(10).withAdmissionFilter().build();
+        assertTrue(test.put(new TestType("a")));
+        assertTrue(test.put(new TestType("b")));
+        for (int i = 0; i < 3; i++) {
+            assertFalse(test.touch("c"));
+        }
+        assertTrue(test.put(new TestType("c")));
+        assertFalse(test.touch("a"));
+        assertTrue(test.touch("c"));
+    }
+
+
+    @Test
+    public void testRefreshAhead() throws NotFoundException, InterruptedException {
+        AtomicLong time = new AtomicLong(0);
+        AtomicLong version = new AtomicLong(1);
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(10).withTimeout(10).withClock(time::get)
+            .withRefreshAhead(0.2, id -> id.equals("gone") ? null
+                : new TestType(id, (int) version.get()), 1).build();
+        test.put(new TestType("a", 0));
+        test.put(new TestType("gone", 0));
+        time.set(7000);
+        assertEquals(0, test.get("a").val());
+        assertEquals(0, test.stats().refreshCount());
+
+        time.set(8500);
+        assertEquals(0, test.get("a").val());
+        test.get("gone");
+        assertEquals(2, test.stats().refreshCount());
+        for (int i = 0; i < 100 && test.stats().refreshSuccessCount() + test.stats().refreshFailureCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, test.stats().refreshSuccessCount());
+        assertEquals(1, test.stats().refreshFailureCount());
+        assertEquals(1, test.get("a").val());
+        assertEquals(0, test.get("gone").val());
+
+        time.set(16000);
+        assertEquals(1, test.get("a").val());
+        assertEquals(3, test.stats().refreshCount());
+    }
+
+
+    @Test
+    public void testRefreshAfterLoaderError() throws NotFoundException, InterruptedException {
+        AtomicLong time = new AtomicLong(0);
+        AtomicInteger calls = new AtomicInteger();
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(10).withTimeout(10).withClock(time::get)
+            .withRefreshAhead(0.2, id -> {
+                if (calls.incrementAndGet() == 1) {
+                    throw new AssertionError("loader broke");
+                }
+                return new TestType(id, 1);
+            }, 1).build();
+        test.put(new TestType("a", 0));
+        time.set(8500);
+        assertEquals(0, test.get("a").val());
+        for (int i = 0; i < 100 && test.stats().refreshFailureCount() < 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, test.stats().refreshFailureCount());
+
+        assertEquals(0, test.get("a").val());
+        assertEquals(2, test.stats().refreshCount());
+        for (int i = 0; i < 100 && test.stats().refreshSuccessCount() < 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, test.get("a").val());
+    }
+
+    @Test
+    public void testLoaderSharesConcurrentMisses() throws InterruptedException {
+        FSFTBuffer<TestType> test = new FSFTBuffer<>(10, 10);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        AtomicInteger found = new AtomicInteger();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    TestType a = test.get("a", id -> {
+                        loads.incrementAndGet();
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return new TestType(id, 7);
+                    });
+                    if (a.val() == 7) {
+                        found.incrementAndGet();
+                    }
+                } catch (InterruptedException | NotFoundException e) {
+                    fail();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(8, found.get());
+        assertTrue(test.touch("a"));
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws NotFoundException {
+        FSFTBuffer<TestType> test = new FSFTBuffer<>(10, 10);
+        try {
+            test.get("a", id -> {
+                throw new IllegalStateException("upstream down");
+            });
+            fail();
+        } catch (IllegalStateException ise) {
+            assertEquals("upstream down", ise.getMessage());
+        }
+        try {
+            test.get("a", id -> null);
+            fail();
+        } catch (NotFoundException nfe) {
+            assertFalse(test.touch("a"));
+        }
+        assertEquals(3, test.get("a", id -> new TestType(id, 3)).val());
+        assertEquals(3, test.get("a", id -> new TestType(id, 4)).val());
+    }
+
+    @Test
+    public void testGetAsync() throws Exception {
+        FSFTBuffer<TestType> test = new FSFTBuffer<>(10, 10);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        Function<String, TestType> loader = id -> {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return new TestType(id, 5);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CompletableFuture<TestType> first = test.getAsync("a", loader, executor);
+        CompletableFuture<TestType> second = test.getAsync("a", loader, executor);
+        assertFalse(first.isDone());
+        release.countDown();
+        assertEquals(5, first.get(1, TimeUnit.SECONDS).val());
+        assertEquals(5, second.get(1, TimeUnit.SECONDS).val());
+        assertEquals(1, loads.get());
+        assertTrue(test.getAsync("a", loader, executor).isDone());
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testBulkOperations() {
+        List<RemovalCause> causes = new ArrayList<>();
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(3).withTimeout(10)
+            .withSynchronousRemovalListener((t, cause) -> causes.add(cause)).build();
+        assertTrue(test.put(new TestType("a", 1)));
+        Map<String, Boolean> added = test.putAll(List.of(
+            new TestType("a", 3), new TestType("b", 2)));
+        assertEquals(2, added.size());
+        assertFalse(added.get("a"));
+        assertTrue(added.get("b"));
+        assertTrue(test.put(new TestType("c", 3)));
+
+        Map<String, TestType> found = test.getAll(List.of("c", "x", "a"));
+        assertEquals(List.of("c", "a"), new ArrayList<>(found.keySet()));
+        assertEquals(1, found.get("a").val());
+
+        assertEquals(1, test.invalidateAll(t -> t.val() >= 3));
+        assertFalse(test.touch("c"));
+        assertEquals(1, test.invalidateAll(List.of("b", "x")));
+        assertTrue(test.invalidate("a"));
+        assertFalse(test.invalidate("a"));
+        assertEquals(List.of(RemovalCause.EXPLICIT, RemovalCause.EXPLICIT,
+            RemovalCause.EXPLICIT), causes);
+    }
+
+
+    @Test
+    public void testStats() throws NotFoundException {
+        AtomicLong time = new AtomicLong(0);
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(2).withTimeout(1).withClock(time::get).build();
+        test.put(new TestType("a"));
+        test.put(new TestType("b"));
+        test.get("a");
+        test.getAll(List.of("a", "x"));
+        test.put(new TestType("c"));
+        test.get("c", id -> new TestType(id));
+        test.get("d", id -> new TestType(id));
+        try {
+            test.get("e", id -> null);
+            fail();
+        } catch (NotFoundException nfe) {
+            time.set(5000);
+        }
+        CacheStats stats = test.stats();
+        assertEquals(3, stats.hitCount());
+        assertEquals(3, stats.missCount());
+        assertEquals(0.5, stats.hitRate(), 1e-9);
+        assertEquals(4, stats.putCount());
+        assertEquals(2, stats.evictionCount());
+        assertEquals(2, stats.expirationCount());
+        assertEquals(1, stats.loadSuccessCount());
+        assertEquals(1, stats.loadFailureCount());
+        assertTrue(stats.totalLoadTime() > 0);
+        assertEquals(0, stats.size());
+    }
+
+
+    @Test
+    public void testAsynchronousRemovalListener() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch notified = new CountDownLatch(3);
+        List<RemovalCause> causes = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(1).withTimeout(10)
+            .withRemovalListener((t, cause) -> {
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+                causes.add(cause);
+                notified.countDown();
+            }, executor).build();
+        assertTrue(test.put(new TestType("a")));
+        assertTrue(test.put(new TestType("b")));
+        assertTrue(test.update(new TestType("b", 2)));
+        assertTrue(test.invalidate("b"));
+        assertTrue(causes.isEmpty());
+        release.countDown();
+        assertTrue(notified.await(1, TimeUnit.SECONDS));
+        assertEquals(List.of(RemovalCause.SIZE, RemovalCause.REPLACED, RemovalCause.EXPLICIT),
+            causes);
+        executor.shutdown();
+    }
+
+
+    @Test
+    public void testGracePeriod() throws NotFoundException, InterruptedException {
+        AtomicLong time = new AtomicLong(0);
+        AtomicLong version = new AtomicLong(1);
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(10).withTimeout(10).withGracePeriod(5).withClock(time::get)
+            .withRefreshAhead(0, id -> new TestType(id, (int) version.get()), 1).build();
+        test.put(new TestType("a", 0));
+        test.put(new TestType("b", 0));
+        time.set(9000);
+        assertFalse(test.getEntry("a", id -> null).isStale());
+        assertEquals(0, test.stats().refreshCount());
+
+        time.set(11000);
+        CacheEntry<TestType> stale = test.getEntry("b", id -> null);
+        assertTrue(stale.isStale());
+        assertEquals(0, stale.value().val());
+        for (int i = 0; i < 100 && test.stats().refreshSuccessCount() < 1; i++) {
+            Thread.sleep(10);
+        }
+        CacheEntry<TestType> fresh = test.getEntry("b", id -> null);
+        assertFalse(fresh.isStale());
+        assertEquals(1, fresh.value().val());
+
+        time.set(24001);
+        assertFalse(test.touch("a"));
+        CacheEntry<TestType> loaded = test.getEntry("a", id -> new TestType(id, 2));
+        assertFalse(loaded.isStale());
+        assertEquals(2, loaded.value().val());
+    }
+
+
+    @Test
+    public void testTouchStale() throws NotFoundException {
+        AtomicLong time = new AtomicLong(0);
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(10).withTimeout(10).withGracePeriod(5).withClock(time::get).build();
+        test.put(new TestType("a", 0));
+        time.set(9000);
+        assertTrue(test.touch("a"));
+
+        time.set(20000);
+        assertFalse(test.touch("a"));
+        assertTrue(test.getEntry("a", id -> null).isStale());
+
+        time.set(24001);
+        try {
+            test.get("a");
+            fail();
+        } catch (NotFoundException nfe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRemovalDeadline() {
+        AtomicLong time = new AtomicLong(0);
+        List<Long> deadlines = new ArrayList<>();
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(1).withTimeout(10).withClock(time::get)
+            .withSynchronousRemovalListener(new RemovalListener<>() {
+                @Override
+                public void onRemoval(TestType t, RemovalCause cause) {
+                    fail();
+                }
+
+                @Override
+                public void onRemoval(TestType t, RemovalCause cause, long deadline) {
+                    deadlines.add(deadline);
+                }
+            }).build();
+        assertTrue(test.put(new TestType("a", 1)));
+        time.set(3000);
+        assertTrue(test.put(new TestType("b", 2)));
+        assertEquals(List.of(10000L), deadlines);
+    }
+
+
+    @Test
+    public void testListenerFailureCounted() {
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(1).withTimeout(10)
+            .withSynchronousRemovalListener((t, cause) -> {
+                throw new IllegalStateException("listener down");
+            }).build();
+        assertTrue(test.put(new TestType("a")));
+        assertTrue(test.put(new TestType("b")));
+        assertTrue(test.touch("b"));
+        assertEquals(1, test.stats().listenerFailureCount());
+    }
+
+
+    @Test
+    public void testRejectedLoad() throws NotFoundException {
+        List<RemovalCause> causes = new ArrayList<>();
+        FSFTBuffer<TestType> test = new FSFTBuffer.Builder<TestType>()
+            .withCapacity(1).withTimeout(10).withAdmissionFilter()
+            .withSynchronousRemovalListener((t, cause) -> causes.add(cause)).build();
+        assertTrue(test.put(new TestType("a")));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(test.touch("a"));
+        }
+        assertEquals(2, test.get("b", id -> new TestType(id, 2)).val());
+        assertEquals(List.of(RemovalCause.REJECTED), causes);
+        assertTrue(test.touch("a"));
+        assertEquals(0, test.stats().evictionCount());
+    }
 }
@@ -0,0 +1,58 @@
+package cpen221.mp3;
+
+import cpen221.mp3.fsftbuffer.NegativeCache;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class NegativeCacheTests {
+
+    @Test
+    public void testKnownMissing() {
+        AtomicLong time = new AtomicLong(0);
+        NegativeCache cache = new NegativeCache(1000, 0.01, 3000, time::get);
+        cache.add("missing");
+        assertTrue(cache.isKnownMissing("missing"));
+        assertFalse(cache.isKnownMissing("present"));
+        assertEquals(2, cache.lookupCount());
+        assertEquals(1, cache.hitCount());
+        cache.confirmExists("present");
+        assertEquals(0, cache.falsePositiveCount());
+    }
+
+    @Test
+    public void testTimeout() {
+        AtomicLong time = new AtomicLong(0);
+        NegativeCache cache = new NegativeCache(1000, 0.01, 3000, time::get);
+        cache.add("a");
+        time.set(2000);
+        cache.add("b");
+        time.set(2999);
+        assertTrue(cache.isKnownMissing("a"));
+        time.set(4000);
+        assertFalse(cache.isKnownMissing("a"));
+        assertTrue(cache.isKnownMissing("b"));
+        time.set(100000);
+        assertFalse(cache.isKnownMissing("b"));
+        assertEquals(0.0, cache.expectedFalsePositiveRate(), 0.0);
+    }
+
+    @Test
+    public void testBoundedFalsePositives() {
+        AtomicLong time = new AtomicLong(0);
+        NegativeCache cache = new NegativeCache(1000, 0.01, 60000, time::get);
+        for (int i = 0; i < 10000; i++) {
+            cache.add("missing" + i);
+        }
+        for (int i = 9000; i < 10000; i++) {
+            assertTrue(cache.isKnownMissing("missing" + i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            cache.confirmExists("present" + i);
+        }
+        assertTrue(cache.falsePositiveCount() < 200);
+        assertTrue(cache.expectedFalsePositiveRate() < 0.015);
+    }
+}
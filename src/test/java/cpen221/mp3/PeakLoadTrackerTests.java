@@ -0,0 +1,41 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.PeakLoadTracker;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PeakLoadTrackerTests {
+
+    @Test
+    public void testSlidingWindow() {
+        PeakLoadTracker tracker = new PeakLoadTracker(30000);
+        for (int i = 0; i < 25; i++) {
+            tracker.record(i);
+        }
+        assertEquals(25, tracker.peak());
+        for (int i = 0; i < 75; i++) {
+            tracker.record(30024 + i);
+        }
+        assertEquals(75, tracker.peak());
+        assertEquals(75, tracker.window().length);
+        tracker.record(200000);
+        assertEquals(75, tracker.peak());
+        assertArrayEquals(new long[]{200000}, tracker.window());
+    }
+
+    @Test
+    public void testSameMillisecond() {
+        PeakLoadTracker tracker = new PeakLoadTracker(1000);
+        tracker.record(500);
+        tracker.record(500);
+        tracker.record(499);
+        tracker.record(1499);
+        assertEquals(4, tracker.peak());
+        tracker.record(1500);
+        assertEquals(4, tracker.peak());
+        assertArrayEquals(new long[]{1499, 1500}, tracker.window());
+        tracker.restorePeak(10);
+        assertEquals(10, tracker.peak());
+    }
+}
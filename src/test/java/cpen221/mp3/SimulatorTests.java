@@ -0,0 +1,127 @@
+package cpen221.mp3;
+
+import cpen221.mp3.simulator.ArcPolicy;
+import cpen221.mp3.simulator.CacheSimulator;
+import cpen221.mp3.simulator.ClockPolicy;
+import cpen221.mp3.simulator.EvictionPolicy;
+import cpen221.mp3.simulator.FSFTBufferPolicy;
+import cpen221.mp3.simulator.LfuPolicy;
+import cpen221.mp3.simulator.LruPolicy;
+import cpen221.mp3.simulator.Trace;
+import cpen221.mp3.simulator.TwoQueuePolicy;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SimulatorTests {
+
+    @Test
+    public void testReadJsonTrace() throws IOException {
+        String json = "{\"id\": \"1\", \"type\": \"getPage\", \"pageTitle\": \"A\"}\n"
+            + "{\n  \"id\": \"2\",\n  \"type\": \"search\",\n  \"query\": \"A\"\n}\n"
+            + "{\"id\": \"3\", \"type\": \"getPage\", \"pageTitle\": \"B\", \"timestamp\": 5000}\n"
+            + "{\"id\": \"4\", \"type\": \"getPage\", \"pageTitle\": \"A\"}\n";
+        Trace trace = Trace.read(new StringReader(json), 100);
+        assertEquals(3, trace.size());
+        assertEquals("A", trace.key(0));
+        assertEquals(0, trace.time(0));
+        assertEquals("B", trace.key(1));
+        assertEquals(5000, trace.time(1));
+        assertEquals(5100, trace.time(2));
+        assertSame(trace.key(0), trace.key(2));
+
+        Trace array = Trace.read(new StringReader("[" + json.replace("}\n{", "},{") + "]"), 100);
+        assertEquals(3, array.size());
+    }
+
+    @Test
+    public void testReadTitleTrace() throws IOException {
+        Trace trace = Trace.read(new StringReader("Barack Obama\n\n1000\tCanada\nUBC\n"), 10);
+        assertEquals(3, trace.size());
+        assertEquals("Canada", trace.key(1));
+        assertEquals(1000, trace.time(1));
+        assertEquals(1010, trace.time(2));
+    }
+
+    @Test
+    public void testLruAndClock() {
+        Trace trace = Trace.of(Arrays.asList("a", "b", "a", "c", "b", "a"), 1);
+        assertEquals(1, CacheSimulator.simulate(trace, new LruPolicy(2)));
+        assertEquals(1, CacheSimulator.simulate(trace, new ClockPolicy(2)));
+        assertEquals(3, CacheSimulator.simulate(trace, new LruPolicy(3)));
+    }
+
+    @Test
+    public void testFSFTBufferMatchesLruWithoutTimeouts() {
+        Trace trace = zipf(50000, 1000, 100);
+        for (int capacity : new int[] {1, 10, 100}) {
+            assertEquals(CacheSimulator.simulate(trace, new LruPolicy(capacity)),
+                CacheSimulator.simulate(trace, new FSFTBufferPolicy(capacity, 3600, false)));
+        }
+        assertTrue(CacheSimulator.simulate(trace, new FSFTBufferPolicy(100, 1, false))
+            < CacheSimulator.simulate(trace, new LruPolicy(100)));
+    }
+
+    @Test
+    public void testScanResistantPolicies() {
+        List<String> keys = new ArrayList<>();
+        for (int round = 0; round < 50; round++) {
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < 10; i++) {
+                    keys.add("hot" + i);
+                }
+            }
+            for (int i = 0; i < 12; i++) {
+                keys.add("scan" + round + "-" + i);
+            }
+        }
+        Trace trace = Trace.of(keys, 1);
+        long lru = CacheSimulator.simulate(trace, new LruPolicy(20));
+        for (EvictionPolicy policy : Arrays.asList(new TwoQueuePolicy(20), new ArcPolicy(20),
+            new LfuPolicy(20))) {
+            assertTrue(CacheSimulator.simulate(trace, policy) > lru);
+        }
+    }
+
+    @Test
+    public void testSweep() {
+        Trace trace = zipf(10000, 500, 1000);
+        List<CacheSimulator.Result> results = CacheSimulator.sweep(trace,
+            Arrays.asList(CacheSimulator.Policy.values()), new int[] {10, 100}, new int[] {1, 60});
+        assertEquals(5 * 2 + 2 * 2 * 2, results.size());
+        for (CacheSimulator.Result result : results) {
+            assertTrue(result.hitRatio() >= 0 && result.hitRatio() <= 1);
+        }
+    }
+
+    /**
+     * Creates a trace of keys drawn from a Zipf-like distribution.
+     *
+     * @param length   the number of requests
+     * @param keys     the number of distinct keys
+     * @param interval the time between two requests in milliseconds
+     * @return a skewed trace
+     */
+    private static Trace zipf(int length, int keys, long interval) {
+        Random random = new Random(221);
+        double[] cumulative = new double[keys];
+        double total = 0;
+        for (int i = 0; i < keys; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+        List<String> requests = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            requests.add("key" + (index < 0 ? -index - 1 : index));
+        }
+        return Trace.of(requests, interval);
+    }
+}
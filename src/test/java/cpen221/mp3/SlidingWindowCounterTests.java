@@ -0,0 +1,50 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.SlidingWindowCounter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SlidingWindowCounterTests {
+
+    @Test
+    public void testWindow() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(30000, 30);
+        counter.add("a", 1000);
+        counter.add("a", 1500);
+        counter.add("b", 5000);
+        counter.add("c", 29000);
+        counter.add("c", 29500);
+        counter.add("c", 29999);
+        assertEquals(Arrays.asList("c", "a", "b"), counter.top(10, 29999));
+        assertEquals(Arrays.asList("c", "b"), counter.top(10, 31000));
+        assertEquals(0, counter.count("a", 31000));
+        assertEquals(Collections.singletonList("c"), counter.top(1, 34999));
+        assertEquals(Collections.emptyList(), counter.top(10, 1000000));
+    }
+
+    @Test
+    public void testRestore() {
+        SlidingWindowCounter counter = new SlidingWindowCounter(30000, 30);
+        counter.add("a", 10000);
+        counter.add("b", 20000);
+        counter.add("b", 20100);
+        Map<Long, Map<String, Integer>> buckets = counter.buckets(25000);
+        assertEquals(Arrays.asList(10000L, 20000L), Arrays.asList(buckets.keySet().toArray()));
+
+        SlidingWindowCounter restored = new SlidingWindowCounter(30000, 30);
+        for (Map.Entry<Long, Map<String, Integer>> bucket : buckets.entrySet()) {
+            for (Map.Entry<String, Integer> count : bucket.getValue().entrySet()) {
+                restored.add(count.getKey(), bucket.getKey(), count.getValue());
+            }
+        }
+        restored.add("old", 100);
+        assertEquals(2, restored.count("b", 25000));
+        assertEquals(Arrays.asList("b", "a"), restored.top(10, 39000));
+        assertEquals(Collections.singletonList("b"), restored.top(10, 40000));
+    }
+}
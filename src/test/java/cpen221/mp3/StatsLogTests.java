@@ -0,0 +1,101 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.StatsLog;
+import cpen221.mp3.wikimediator.StatsPipeline;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StatsLogTests {
+
+    @Test
+    public void testReplay() throws IOException {
+        File dir = Files.createTempDirectory("stats").toFile();
+        StatsLog log = new StatsLog(dir, StatsLog.Durability.NONE, 1, 0, (t, o, q) -> fail());
+        log.append(10, StatsPipeline.REQUEST | StatsPipeline.QUERY, "ubc");
+        log.append(20, StatsPipeline.REQUEST, null);
+        log.append(30, StatsPipeline.QUERY, "café");
+        log.close();
+
+        List<String> events = new ArrayList<>();
+        StatsLog reopened = new StatsLog(dir, StatsLog.Durability.NONE, 1, 0,
+            (time, operation, query) -> events.add(time + " " + operation + " " + query));
+        assertEquals(3, reopened.recoveredCount());
+        assertEquals(List.of("10 3 ubc", "20 1 null", "30 2 café"), events);
+    }
+
+    @Test
+    public void testTornRecord() throws IOException {
+        File dir = Files.createTempDirectory("stats").toFile();
+        StatsLog log = new StatsLog(dir, StatsLog.Durability.NONE, 1, 0, (t, o, q) -> fail());
+        log.append(10, StatsPipeline.QUERY, "first");
+        log.append(20, StatsPipeline.QUERY, "second");
+        log.close();
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, "events-0.log"), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        List<String> events = new ArrayList<>();
+        log = new StatsLog(dir, StatsLog.Durability.NONE, 1, 0,
+            (time, operation, query) -> events.add(query));
+        assertEquals(List.of("first"), events);
+        log.append(30, StatsPipeline.QUERY, "third");
+        log.close();
+
+        events.clear();
+        new StatsLog(dir, StatsLog.Durability.NONE, 1, 0,
+            (time, operation, query) -> events.add(query)).close();
+        assertEquals(List.of("first", "third"), events);
+    }
+
+    @Test
+    public void testGroupCommit() throws IOException, InterruptedException {
+        File dir = Files.createTempDirectory("stats").toFile();
+        StatsLog log = new StatsLog(dir, StatsLog.Durability.SYNC, 1, 0, (t, o, q) -> fail());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    log.append(i, StatsPipeline.REQUEST, null);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(800, log.appendedCount());
+        assertTrue(log.syncCount() >= 1 && log.syncCount() <= 800);
+        log.close();
+
+        StatsLog reopened = new StatsLog(dir, StatsLog.Durability.NONE, 1, 0, (t, o, q) -> { });
+        assertEquals(800, reopened.recoveredCount());
+    }
+
+    @Test
+    public void testRollAndDelete() throws IOException {
+        File dir = Files.createTempDirectory("stats").toFile();
+        StatsLog log = new StatsLog(dir, StatsLog.Durability.NONE, 1, 0, (t, o, q) -> fail());
+        log.append(10, StatsPipeline.QUERY, "old");
+        assertEquals(1, log.roll());
+        log.append(20, StatsPipeline.QUERY, "new");
+        log.deleteBefore(1);
+        assertFalse(new File(dir, "events-0.log").exists());
+        log.close();
+
+        List<String> events = new ArrayList<>();
+        StatsLog reopened = new StatsLog(dir, StatsLog.Durability.NONE, 1, 1,
+            (time, operation, query) -> events.add(query));
+        assertEquals(List.of("new"), events);
+        assertEquals(1, reopened.segment());
+        reopened.close();
+    }
+}
@@ -0,0 +1,112 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.StatsPipeline;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StatsPipelineTests {
+
+    @Test(timeout = 10000)
+    public void testConcurrentPublishers() throws InterruptedException {
+        long[] applied = new long[2];
+        StatsPipeline pipeline = new StatsPipeline(1 << 16, (time, operation, query) -> {
+            applied[0]++;
+            applied[1] += time;
+        });
+        int threads = 8;
+        int events = 5000;
+        List<Thread> publishers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < events; i++) {
+                    assertTrue(pipeline.publish(i, StatsPipeline.REQUEST, null));
+                }
+            });
+            publishers.add(thread);
+            thread.start();
+        }
+        for (Thread thread : publishers) {
+            thread.join();
+        }
+        long expectedSum = (long) threads * events * (events - 1) / 2;
+        assertArrayEquals(new long[]{threads * events, expectedSum},
+            pipeline.read(() -> applied.clone()));
+        assertEquals(threads * events, pipeline.publishedCount());
+        assertEquals(0, pipeline.dropCount());
+        assertEquals(0, pipeline.occupancy());
+    }
+
+    @Test(timeout = 10000)
+    public void testFullRingDrops() throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> applied = new ArrayList<>();
+        StatsPipeline pipeline = new StatsPipeline(5, (time, operation, query) -> {
+            if (query.equals("first")) {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            applied.add(query);
+        });
+        assertEquals(8, pipeline.capacity());
+
+        assertTrue(pipeline.publish(0, StatsPipeline.QUERY, "first"));
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 8; i++) {
+            assertTrue(pipeline.publish(i, StatsPipeline.QUERY, "q" + i));
+        }
+        assertEquals(8, pipeline.occupancy());
+        assertFalse(pipeline.publish(9, StatsPipeline.QUERY, "dropped"));
+        assertEquals(1, pipeline.dropCount());
+        assertEquals(9, pipeline.publishedCount());
+
+        release.countDown();
+        List<String> seen = pipeline.read(() -> new ArrayList<>(applied));
+        assertEquals(9, seen.size());
+        assertEquals("first", seen.get(0));
+        assertEquals("q7", seen.get(8));
+        assertFalse(seen.contains("dropped"));
+    }
+
+    @Test(timeout = 10000)
+    public void testHandlerFailureCounted() {
+        List<String> applied = new ArrayList<>();
+        StatsPipeline pipeline = new StatsPipeline(8, (time, operation, query) -> {
+            if (query.equals("bad")) {
+                throw new IllegalStateException(query);
+            }
+            applied.add(query);
+        });
+        assertTrue(pipeline.publish(0, StatsPipeline.QUERY, "good"));
+        assertTrue(pipeline.publish(1, StatsPipeline.QUERY, "bad"));
+        assertTrue(pipeline.publish(2, StatsPipeline.QUERY, "after"));
+        assertEquals(List.of("good", "after"), pipeline.read(() -> new ArrayList<>(applied)));
+        assertEquals(1, pipeline.failureCount());
+        assertEquals(3, pipeline.publishedCount());
+    }
+
+    @Test(timeout = 10000)
+    public void testClose() throws InterruptedException {
+        CountDownLatch consumed = new CountDownLatch(1);
+        List<String> applied = new ArrayList<>();
+        StatsPipeline pipeline = new StatsPipeline(8, (time, operation, query) -> {
+            applied.add(query);
+            consumed.countDown();
+        });
+        assertTrue(pipeline.publish(0, StatsPipeline.QUERY, "woken"));
+        assertTrue(consumed.await(5, TimeUnit.SECONDS));
+        pipeline.close();
+        assertTrue(pipeline.publish(1, StatsPipeline.QUERY, "closed"));
+        assertEquals(List.of("woken", "closed"), pipeline.read(() -> new ArrayList<>(applied)));
+    }
+}
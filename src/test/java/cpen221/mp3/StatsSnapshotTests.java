@@ -0,0 +1,117 @@
+package cpen221.mp3;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import cpen221.mp3.wikimediator.SnapshotExport;
+import cpen221.mp3.wikimediator.StatsSnapshot;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StatsSnapshotTests {
+
+    private static StatsSnapshot sample() {
+        Map<String, Long> history = new HashMap<>();
+        history.put("ubc", 5L);
+        history.put("café", 1L);
+        Map<Long, Map<String, Integer>> trending = new HashMap<>();
+        trending.put(1000L, Map.of("ubc", 2));
+        trending.put(3000L, Map.of("ubc", 3));
+        return new StatsSnapshot(4, 9, new long[]{1000, 1000, 1500, 4000}, history, trending);
+    }
+
+    private static List<String> visit(File file, long[] segment) throws IOException {
+        List<String> parts = new ArrayList<>();
+        segment[0] = StatsSnapshot.read(file, new StatsSnapshot.Visitor() {
+            @Override
+            public void peak(int peak) {
+                parts.add("peak " + peak);
+            }
+
+            @Override
+            public void load(long time, int count) {
+                parts.add("load " + time + " " + count);
+            }
+
+            @Override
+            public void history(String key, long count) {
+                parts.add("history " + key + " " + count);
+            }
+
+            @Override
+            public void trending(String key, long time, int count) {
+                parts.add("trending " + key + " " + time + " " + count);
+            }
+        });
+        return parts;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "stats.snapshot");
+        sample().write(file);
+        assertTrue(StatsSnapshot.isSnapshot(file));
+
+        long[] segment = new long[1];
+        List<String> parts = visit(file, segment);
+        assertEquals(4, segment[0]);
+        assertEquals("peak 9", parts.get(0));
+        assertTrue(parts.contains("history ubc 5"));
+        assertTrue(parts.contains("history café 1"));
+        int first = parts.indexOf("trending ubc 1000 2");
+        assertTrue(first > 0 && parts.indexOf("trending ubc 3000 3") > first);
+        assertEquals(List.of("load 1000 2", "load 1500 1", "load 4000 1"),
+            parts.subList(parts.size() - 3, parts.size()));
+    }
+
+    @Test
+    public void testCorruption() throws IOException {
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "stats.snapshot");
+        sample().write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0xFF);
+        }
+        try {
+            visit(file, new long[1]);
+            fail();
+        } catch (IOException ioe) {
+            // expected
+        }
+
+        sample().write(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(4);
+            raf.writeInt(StatsSnapshot.VERSION + 1);
+        }
+        try {
+            visit(file, new long[1]);
+            fail();
+        } catch (IOException ioe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testExport() throws IOException {
+        File file = new File(Files.createTempDirectory("snapshot").toFile(), "stats.snapshot");
+        sample().write(file);
+        JsonObject json = JsonParser.parseString(SnapshotExport.export(file)).getAsJsonObject();
+        assertEquals(9, json.get("peak").getAsInt());
+        assertEquals(4, json.get("segment").getAsLong());
+        assertEquals(4, json.get("timeList").getAsJsonArray().size());
+        assertEquals(2, json.get("searchHistoryKeys").getAsJsonArray().size());
+        assertEquals(2, json.get("trendingKeys").getAsJsonArray().size());
+    }
+}
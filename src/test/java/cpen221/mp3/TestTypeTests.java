@@ -1,6 +1,10 @@
 package cpen221.mp3;
 
+import cpen221.mp3.fsftbuffer.CacheStats;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.OffHeapStore;
 import cpen221.mp3.fsftbuffer.Page;
+import cpen221.mp3.fsftbuffer.PageCompressor;
 import cpen221.mp3.fsftbuffer.TestType;
 import org.junit.Test;
 
@@ -74,4 +78,91 @@ public class TestTypeTests {
         Page p1 = new Page("p1", "a");
         assertTrue(p1.equals(p1));
     }
+
+    @Test
+    public void testOffHeapPage() {
+        OffHeapStore store = new OffHeapStore(1024);
+        Page p1 = Page.offHeap("p1", "caf\u00e9 content", store);
+        assertEquals("caf\u00e9 content", p1.getContent());
+        assertEquals(new Page("p1", "caf\u00e9 content"), p1);
+        assertEquals(13, store.allocatedBytes());
+        p1.release();
+        assertEquals(0, store.allocatedBytes());
+        try {
+            p1.getContent();
+            fail();
+        } catch (IllegalStateException ise) {
+            assertEquals(1, 1);
+        }
+    }
+
+    @Test
+    public void testOffHeapStoreReusesSpace() {
+        OffHeapStore store = new OffHeapStore(1024);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            text.append('x');
+        }
+        Page a = Page.offHeap("a", text.toString(), store);
+        Page b = Page.offHeap("b", text.toString(), store);
+        Page c = Page.offHeap("c", text.toString(), store);
+        assertEquals(1024, store.reservedBytes());
+        b.release();
+        Page d = Page.offHeap("d", text.toString(), store);
+        assertEquals(1024, store.reservedBytes());
+        Page large = Page.offHeap("large", text.toString() + text + text + text, store);
+        assertEquals(2224, store.reservedBytes());
+        large.release();
+        assertEquals(1024, store.reservedBytes());
+        assertEquals(text.toString(), a.getContent());
+        assertEquals(text.toString(), c.getContent());
+        assertEquals(text.toString(), d.getContent());
+    }
+
+    @Test
+    public void testOffHeapPagesReleasedOnEviction() {
+        OffHeapStore store = new OffHeapStore(1024);
+        FSFTBuffer<Page> buffer = new FSFTBuffer.Builder<Page>().withCapacity(2).withTimeout(10)
+            .withSynchronousRemovalListener((page, cause) -> page.release()).build();
+        buffer.put(Page.offHeap("a", "aaaa", store));
+        buffer.put(Page.offHeap("b", "bbbb", store));
+        buffer.put(Page.offHeap("c", "cccc", store));
+        assertEquals(8, store.allocatedBytes());
+        buffer.update(Page.offHeap("b", "bb", store));
+        assertEquals(6, store.allocatedBytes());
+    }
+
+    @Test
+    public void testCompressedPage() {
+        PageCompressor compressor = new PageCompressor(16, 1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("== Section ").append(i % 10).append(" ==\n");
+        }
+        Page p1 = Page.compressed("p1", text.toString(), compressor);
+        assertTrue(p1.weight() < text.length() / 2);
+        assertTrue(compressor.compressionRatio() > 2);
+        assertEquals(text.toString(), p1.getContent());
+        assertEquals(text.toString(), p1.getContent());
+        assertEquals(1, compressor.decodeCount());
+        assertEquals(1, compressor.hotHitCount());
+        assertEquals(new Page("p1", text.toString()), p1);
+        p1.release();
+        assertEquals(text.toString(), p1.getContent());
+
+        FSFTBuffer<Page> buffer = new FSFTBuffer.Builder<Page>().build();
+        CacheStats stats = buffer.stats().withCompression(compressor);
+        assertEquals(compressor.compressionRatio(), stats.compressionRatio(), 1e-9);
+        assertEquals(2, stats.decodeCount());
+        assertEquals(compressor.totalDecodeTime(), stats.totalDecodeTime());
+    }
+
+    @Test
+    public void testSmallPageNotCompressed() {
+        PageCompressor compressor = new PageCompressor(1024, 4);
+        Page p1 = Page.compressed("p1", "short", compressor);
+        assertEquals("short", p1.getContent());
+        assertEquals(new Page("p1", "short").weight(), p1.weight());
+        assertEquals(0, compressor.decodeCount());
+    }
 }
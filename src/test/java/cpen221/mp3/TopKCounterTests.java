@@ -0,0 +1,103 @@
+package cpen221.mp3;
+
+import cpen221.mp3.wikimediator.CountMinTopK;
+import cpen221.mp3.wikimediator.TopKCounter;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TopKCounterTests {
+
+    @Test
+    public void testExactCounts() {
+        TopKCounter counter = new TopKCounter();
+        for (String key : new String[]{"a", "b", "a", "c", "a", "b", "d"}) {
+            counter.add(key);
+        }
+        assertEquals(Arrays.asList("a", "b", "c", "d"), counter.top(10));
+        assertEquals(Arrays.asList("a", "b"), counter.top(2));
+        assertEquals(3, counter.count("a"));
+        assertTrue(counter.isExact());
+
+        counter.add("a", -2);
+        counter.add("d", 5);
+        counter.add("c", -1);
+        assertEquals(Arrays.asList("d", "b", "a"), counter.top(10));
+        assertEquals(0, counter.count("c"));
+        assertEquals(3, counter.size());
+        assertEquals(6, (long) counter.counts().get("d"));
+    }
+
+    @Test
+    public void testSpaceSavingBound() {
+        TopKCounter counter = new TopKCounter(50);
+        Map<String, Long> exact = new HashMap<>();
+        Random random = new Random(221);
+        int total = 100000;
+        for (int i = 0; i < total; i++) {
+            int rank = random.nextDouble() < 0.5 ? random.nextInt(5) : random.nextInt(10000);
+            String key = "q" + rank;
+            counter.add(key);
+            exact.merge(key, 1L, Long::sum);
+        }
+        assertFalse(counter.isExact());
+        assertEquals(50, counter.size());
+        List<String> top = counter.top(5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(top.contains("q" + i));
+        }
+        for (String key : counter.counts().keySet()) {
+            long estimate = counter.count(key);
+            assertTrue(estimate >= exact.get(key));
+            assertTrue(estimate - exact.get(key) <= counter.error(key));
+            assertTrue(counter.error(key) <= total / 50);
+        }
+    }
+
+
+    @Test
+    public void testCountMinTopK() {
+        CountMinTopK counter = new CountMinTopK(16 * 1024, 5);
+        Map<String, Long> exact = new HashMap<>();
+        Random random = new Random(221);
+        for (int i = 0; i < 100000; i++) {
+            int rank = random.nextDouble() < 0.5 ? random.nextInt(5) : random.nextInt(50000);
+            String key = "q" + rank;
+            counter.add(key);
+            exact.merge(key, 1L, Long::sum);
+        }
+        assertFalse(counter.isExact());
+        List<String> top = counter.top(10);
+        assertEquals(5, top.size());
+        for (int i = 0; i < 5; i++) {
+            assertTrue(top.contains("q" + i));
+        }
+        int within = 0;
+        for (Map.Entry<String, Long> entry : exact.entrySet()) {
+            long estimate = counter.count(entry.getKey());
+            assertTrue(estimate >= entry.getValue());
+            if (estimate - entry.getValue() <= counter.maxError()) {
+                within++;
+            }
+        }
+        assertTrue(within >= 0.95 * exact.size());
+        assertTrue(counter.confidence() > 0.98);
+    }
+
+
+    @Test
+    public void testCountMinTopKNeedsHeavyHitters() {
+        try {
+            new CountMinTopK(1024, 0);
+            fail();
+        } catch (IllegalArgumentException iae) {
+            // expected
+        }
+    }
+}
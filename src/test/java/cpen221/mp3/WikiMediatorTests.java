@@ -1,12 +1,19 @@
 package cpen221.mp3;
 
+import cpen221.mp3.wikimediator.StatsLog;
 import cpen221.mp3.wikimediator.WikiMediator;
+import cpen221.mp3.wikimediator.WikiSource;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
@@ -397,4 +404,222 @@ public class WikiMediatorTests {
         
     }
 
+    @Test(timeout = 10000)
+    public void slowFetchesOverlap() throws InterruptedException {
+        try {
+            PrintWriter pw = new PrintWriter("./local/log.txt");
+            pw.write("");
+            pw.close();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+        int fetches = 8;
+        CountDownLatch started = new CountDownLatch(fetches);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        WikiSource slow = new WikiSource() {
+            @Override
+            public String getPageText(String title) {
+                maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return "text of " + title;
+            }
+
+            @Override
+            public List<String> search(String query, int limit) {
+                return new ArrayList<>();
+            }
+        };
+        WikiMediator wm = new WikiMediator.Builder().withSource(slow).build();
+
+        List<Thread> threads = new ArrayList<>();
+        List<String> pages = new CopyOnWriteArrayList<>();
+        for (int i = 0; i < fetches; i++) {
+            String title = "page " + i;
+            Thread thread = new Thread(() -> pages.add(wm.getPage(title)));
+            threads.add(thread);
+            thread.start();
+        }
+
+        // every fetch is waiting for Wikipedia at the same time, and
+        // cheap requests are still answered meanwhile
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(fetches, maxInFlight.get());
+        assertEquals(fetches + 1, wm.peakLoad30s());
+        assertEquals(3, wm.zeitgeist(3).size());
+        assertEquals(new ArrayList<>(), wm.search("query", 5));
+
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(fetches, pages.size());
+        assertTrue(pages.contains("text of page 0"));
+        assertEquals("text of page 0", wm.getPage("page 0"));
+        assertEquals(fetches, maxInFlight.get());
+    }
+
+    @Test(timeout = 10000)
+    public void asyncStatistics() throws InterruptedException {
+        try {
+            PrintWriter pw = new PrintWriter("./local/log.txt");
+            pw.write("");
+            pw.close();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+        WikiSource source = new WikiSource() {
+            @Override
+            public String getPageText(String title) {
+                return "text of " + title;
+            }
+
+            @Override
+            public List<String> search(String query, int limit) {
+                return new ArrayList<>();
+            }
+        };
+        WikiMediator wm = new WikiMediator.Builder().withSource(source)
+            .withAsyncStatistics(1024).build();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 50; j++) {
+                    wm.getPage("popular");
+                    wm.search("rare " + (j % 10), 1);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals("popular", wm.zeitgeist(1).get(0));
+        assertEquals("popular", wm.trending(1).get(0));
+        assertEquals(403, wm.peakLoad30s());
+        assertEquals(403, wm.statsPipeline().publishedCount());
+        assertEquals(0, wm.statsPipeline().dropCount());
+    }
+
+    @Test
+    public void eventLogReplay() {
+        clearEventLog();
+        WikiMediator wm = new WikiMediator.Builder().withSource(echoSource())
+            .withEventLog(StatsLog.Durability.SYNC).withSnapshotInterval(0).build();
+        wm.getPage("cpen 221");
+        wm.getPage("cpen 221");
+        wm.search("ubc", 1);
+        assertEquals(4, wm.peakLoad30s());
+
+        WikiMediator restarted = new WikiMediator.Builder().withSource(echoSource())
+            .withEventLog(StatsLog.Durability.SYNC).withSnapshotInterval(0).build();
+        assertEquals(List.of("cpen 221", "ubc"), restarted.zeitgeist(5));
+        assertEquals(List.of("cpen 221", "ubc"), restarted.trending(5));
+        assertEquals(7, restarted.peakLoad30s());
+        clearEventLog();
+    }
+
+    @Test
+    public void checkpointCompactsLog() {
+        clearEventLog();
+        WikiMediator wm = new WikiMediator.Builder().withSource(echoSource())
+            .withEventLog(StatsLog.Durability.SYNC).withSnapshotInterval(0).build();
+        wm.getPage("before");
+        wm.getPage("before");
+        wm.checkpoint();
+        assertTrue(new File("./local/stats.snapshot").exists());
+        assertFalse(new File("./local/events/events-0.log").exists());
+        wm.getPage("after");
+
+        WikiMediator restarted = new WikiMediator.Builder().withSource(echoSource())
+            .withEventLog(StatsLog.Durability.SYNC).withSnapshotInterval(0).build();
+        assertEquals(List.of("before", "after"), restarted.zeitgeist(5));
+        assertEquals(List.of("before", "after"), restarted.trending(5));
+        assertEquals(6, restarted.peakLoad30s());
+        clearEventLog();
+    }
+
+    @Test(timeout = 10000)
+    public void sourceFailurePropagates() {
+        AtomicInteger calls = new AtomicInteger();
+        WikiMediator wm = new WikiMediator.Builder().withSource(new WikiSource() {
+            @Override
+            public String getPageText(String title) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("upstream down");
+            }
+
+            @Override
+            public List<String> search(String query, int limit) {
+                return new ArrayList<>();
+            }
+        }).build();
+        try {
+            wm.getPage("cpen 221");
+            fail();
+        } catch (IllegalStateException ise) {
+            assertEquals("upstream down", ise.getMessage());
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void eventLogFailureReported() throws IOException {
+        clearEventLog();
+        File events = new File("./local/events");
+        events.delete();
+        try {
+            assertTrue(events.createNewFile());
+            WikiMediator wm = new WikiMediator.Builder().withSource(echoSource())
+                .withEventLog(StatsLog.Durability.SYNC).withSnapshotInterval(0).build();
+            assertNotNull(wm.eventLogFailure());
+            assertEquals("text of ubc", wm.getPage("ubc"));
+            assertEquals(List.of("ubc"), wm.zeitgeist(5));
+        } finally {
+            events.delete();
+        }
+    }
+
+    /**
+     * Returns a source whose pages hold their own title and whose
+     * searches find nothing.
+     *
+     * @return a source that needs no network
+     */
+    private static WikiSource echoSource() {
+        return new WikiSource() {
+            @Override
+            public String getPageText(String title) {
+                return "text of " + title;
+            }
+
+            @Override
+            public List<String> search(String query, int limit) {
+                return new ArrayList<>();
+            }
+        };
+    }
+
+    /**
+     * Deletes the event log and snapshot of earlier mediators.
+     */
+    private static void clearEventLog() {
+        File[] segments = new File("./local/events").listFiles();
+        if (segments != null) {
+            for (File segment : segments) {
+                segment.delete();
+            }
+        }
+        new File("./local/stats.snapshot").delete();
+    }
 }
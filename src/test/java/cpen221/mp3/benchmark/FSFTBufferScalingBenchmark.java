@@ -0,0 +1,109 @@
+package cpen221.mp3.benchmark;
+
+import cpen221.mp3.fsftbuffer.ConcurrentFSFTBuffer;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.NotFoundException;
+import cpen221.mp3.fsftbuffer.TestType;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+    Measures the throughput of a read-heavy workload (one put for every
+    nineteen gets) on FSFTBuffer and ConcurrentFSFTBuffer from one thread
+    up to twice the number of available processors.
+
+    Run with: java cpen221.mp3.benchmark.FSFTBufferScalingBenchmark [seconds]
+ */
+public class FSFTBufferScalingBenchmark {
+    private static final int CAPACITY = 4096;
+    private static final int KEYS = 8192;
+    private static final int TIMEOUT = 3600;
+
+    private interface Operation {
+        void run(String id, boolean write);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long millis = 1000L * (args.length > 0 ? Integer.parseInt(args[0]) : 2);
+        String[] ids = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            ids[i] = "page-" + i;
+        }
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("%8s %18s %18s%n", "threads", "FSFTBuffer ops/s", "Concurrent ops/s");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            FSFTBuffer<TestType> single = new FSFTBuffer<>(CAPACITY, TIMEOUT);
+            ConcurrentFSFTBuffer<TestType> striped =
+                new ConcurrentFSFTBuffer<>(CAPACITY, TIMEOUT, maxThreads * 2);
+            for (String id : ids) {
+                single.put(new TestType(id));
+                striped.put(new TestType(id));
+            }
+            double singleRate = measure(threads, millis, ids, (id, write) -> {
+                if (write) {
+                    single.put(new TestType(id));
+                } else {
+                    try {
+                        single.get(id);
+                    } catch (NotFoundException nfe) {
+                        // a miss is as much work as a hit for this benchmark
+                    }
+                }
+            });
+            double stripedRate = measure(threads, millis, ids, (id, write) -> {
+                if (write) {
+                    striped.put(new TestType(id));
+                } else {
+                    try {
+                        striped.get(id);
+                    } catch (NotFoundException nfe) {
+                        // a miss is as much work as a hit for this benchmark
+                    }
+                }
+            });
+            System.out.printf("%8d %18.0f %18.0f%n", threads, singleRate, stripedRate);
+        }
+    }
+
+    /**
+     * Runs operation from a number of threads for a fixed duration.
+     *
+     * @param threads   the number of threads calling operation
+     * @param millis    how long to run for, in milliseconds
+     * @param ids       the ids to pick from uniformly at random
+     * @param operation the buffer operation under test
+     * @return the number of operations completed per second
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static double measure(int threads, long millis, String[] ids, Operation operation)
+        throws InterruptedException {
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException ie) {
+                    return;
+                }
+                long count = 0;
+                while (System.nanoTime() < deadline[0]) {
+                    operation.run(ids[random.nextInt(ids.length)], random.nextInt(20) == 0);
+                    count++;
+                }
+                ops.add(count);
+                done.countDown();
+            }).start();
+        }
+        deadline[0] = System.nanoTime() + millis * 1_000_000L;
+        start.countDown();
+        done.await();
+        return ops.sum() * 1000.0 / millis;
+    }
+}
@@ -0,0 +1,91 @@
+package cpen221.mp3.benchmark;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import cpen221.mp3.fsftbuffer.FSFTBuffer;
+import cpen221.mp3.fsftbuffer.NotFoundException;
+import cpen221.mp3.fsftbuffer.OffHeapStore;
+import cpen221.mp3.fsftbuffer.Page;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+    Compares garbage collection pauses of a page cache that keeps page
+    contents on the heap with one that keeps them in an OffHeapStore.
+    The cache is filled with large pages, then pages are replaced while
+    short-lived garbage is allocated, as request handling would.
+
+    Run each mode in its own JVM with the same heap size, for example:
+        java -Xmx1g -XX:MaxDirectMemorySize=2g
+            cpen221.mp3.benchmark.OffHeapGcBenchmark heap
+        java -Xmx1g -XX:MaxDirectMemorySize=2g
+            cpen221.mp3.benchmark.OffHeapGcBenchmark offheap
+ */
+public class OffHeapGcBenchmark {
+    private static final int PAGES = 2000;
+    private static final int PAGE_SIZE = 200 * 1024;
+    private static final int ROUNDS = 20000;
+
+    public static void main(String[] args) {
+        boolean offHeap = args.length > 0 && args[0].equals("offheap");
+        AtomicLong maxPause = new AtomicLong();
+        AtomicLong totalPause = new AtomicLong();
+        AtomicLong pauses = new AtomicLong();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(
+                    GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    long duration = GarbageCollectionNotificationInfo
+                        .from((CompositeData) notification.getUserData()).getGcInfo().getDuration();
+                    maxPause.accumulateAndGet(duration, Math::max);
+                    totalPause.addAndGet(duration);
+                    pauses.incrementAndGet();
+                }
+            }, null, null);
+        }
+
+        OffHeapStore store = new OffHeapStore();
+        FSFTBuffer<Page> cache = new FSFTBuffer.Builder<Page>()
+            .withCapacity(PAGES).withTimeout(3600)
+            .withRemovalListener((page, cause) -> page.release()).build();
+        Random random = new Random(221);
+        char[] text = new char[PAGE_SIZE];
+        long start = System.nanoTime();
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            String title = "page-" + random.nextInt(PAGES * 2);
+            try {
+                checksum += cache.get(title).getContent().length();
+            } catch (NotFoundException nfe) {
+                for (int i = 0; i < text.length; i++) {
+                    text[i] = (char) ('a' + random.nextInt(26));
+                }
+                String content = new String(text);
+                Page page = offHeap ? Page.offHeap(title, content, store) : new Page(title, content);
+                if (!cache.put(page)) {
+                    page.release();
+                }
+            }
+            List<byte[]> garbage = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                garbage.add(new byte[1024]);
+            }
+            checksum += garbage.size();
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        System.out.println("mode:              " + (offHeap ? "offheap" : "heap"));
+        System.out.println("elapsed ms:        " + elapsed);
+        System.out.println("gc pauses:         " + pauses.get());
+        System.out.println("total gc ms:       " + totalPause.get());
+        System.out.println("max gc pause ms:   " + maxPause.get());
+        System.out.println("off-heap bytes:    " + store.allocatedBytes());
+        System.out.println("checksum:          " + checksum);
+    }
+}
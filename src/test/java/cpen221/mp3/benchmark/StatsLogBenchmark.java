@@ -0,0 +1,105 @@
+package cpen221.mp3.benchmark;
+
+import cpen221.mp3.wikimediator.PeakLoadTracker;
+import cpen221.mp3.wikimediator.SlidingWindowCounter;
+import cpen221.mp3.wikimediator.StatsLog;
+import cpen221.mp3.wikimediator.StatsPipeline;
+import cpen221.mp3.wikimediator.TopKCounter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/*
+    Measures the append throughput of the statistics event log and the
+    time to recover the statistics from it. Appending threads write
+    requests for queries drawn from a fixed set of titles, then the log
+    is read once without applying its events, to time the scan alone,
+    and reopened again and replayed into the structures behind
+    zeitgeist, trending and peakLoad30s, as a restarted WikiMediator
+    would.
+
+    Run with the durability policy, the number of events and the number
+    of appending threads, for example:
+        java cpen221.mp3.benchmark.StatsLogBenchmark PERIODIC 10000000 1
+        java cpen221.mp3.benchmark.StatsLogBenchmark SYNC 100000 16
+ */
+public class StatsLogBenchmark {
+    private static final int TITLES = 100_000;
+    private static final long COMMIT_MILLIS = 200;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        StatsLog.Durability durability = args.length > 0
+            ? StatsLog.Durability.valueOf(args[0]) : StatsLog.Durability.PERIODIC;
+        int events = args.length > 1 ? Integer.parseInt(args[1]) : 10_000_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        File directory = Files.createTempDirectory("stats").toFile();
+        File file = new File(directory, "events-0.log");
+
+        String[] titles = new String[TITLES];
+        for (int i = 0; i < TITLES; i++) {
+            titles[i] = "Page title " + i;
+        }
+        StatsLog log = new StatsLog(directory, durability, COMMIT_MILLIS, 0, (t, o, q) -> { });
+        long start = System.nanoTime();
+        List<Thread> appenders = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int share = events / threads + (t < events % threads ? 1 : 0);
+            long seed = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < share; i++) {
+                    log.append(System.currentTimeMillis(),
+                        StatsPipeline.REQUEST | StatsPipeline.QUERY,
+                        titles[random.nextInt(TITLES)]);
+                }
+            });
+            appenders.add(thread);
+            thread.start();
+        }
+        for (Thread thread : appenders) {
+            thread.join();
+        }
+        long appendNanos = System.nanoTime() - start;
+        log.close();
+
+        start = System.nanoTime();
+        new StatsLog(directory, StatsLog.Durability.NONE, COMMIT_MILLIS, 0, (t, o, q) -> { }).close();
+        long scanNanos = System.nanoTime() - start;
+
+        PeakLoadTracker load = new PeakLoadTracker(30_000);
+        SlidingWindowCounter trending = new SlidingWindowCounter(30_000, 30);
+        TopKCounter zeitgeist = new TopKCounter();
+        start = System.nanoTime();
+        StatsLog recovered = new StatsLog(directory, StatsLog.Durability.NONE, COMMIT_MILLIS, 0,
+            (time, operation, query) -> {
+                if ((operation & StatsPipeline.REQUEST) != 0) {
+                    load.record(time);
+                }
+                if ((operation & StatsPipeline.QUERY) != 0) {
+                    zeitgeist.add(query);
+                    trending.add(query, time);
+                }
+            });
+        long recoverNanos = System.nanoTime() - start;
+        recovered.close();
+
+        System.out.println("durability:          " + durability);
+        System.out.println("threads:             " + threads);
+        System.out.println("events:              " + events);
+        System.out.println("log bytes:           " + file.length());
+        System.out.println("append ms:           " + appendNanos / 1_000_000);
+        System.out.println("appends per second:  " + (long) (events / (appendNanos / 1e9)));
+        System.out.println("forces:              " + log.syncCount());
+        System.out.println("recovered events:    " + recovered.recoveredCount());
+        System.out.println("log scan ms:         " + scanNanos / 1_000_000);
+        System.out.println("recovery ms:         " + recoverNanos / 1_000_000);
+        System.out.println("peak load:           " + load.peak());
+        System.out.println("top query:           " + zeitgeist.top(1));
+        Files.delete(file.toPath());
+        Files.delete(directory.toPath());
+    }
+}
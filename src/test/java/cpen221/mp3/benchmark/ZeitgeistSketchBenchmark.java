@@ -0,0 +1,131 @@
+package cpen221.mp3.benchmark;
+
+import cpen221.mp3.wikimediator.CountMinTopK;
+import cpen221.mp3.wikimediator.TopKCounter;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/*
+    Compares the exact query counts used by zeitgeist with the
+    count-min sketch mode. A stream of queries whose popularity follows
+    a Zipf distribution, with a long tail of distinct queries, is
+    counted by both. The benchmark reports the heap each one retains,
+    how many of the true top queries the sketch finds, and how far its
+    estimates of those queries are from the truth.
+
+    Run with a heap large enough for the exact counts, for example:
+        java -Xmx2g cpen221.mp3.benchmark.ZeitgeistSketchBenchmark
+ */
+public class ZeitgeistSketchBenchmark {
+    private static final int QUERIES = 5_000_000;
+    private static final int DISTINCT = 1_000_000;
+    private static final double SKEW = 1.05;
+    private static final int TOP = 100;
+    private static final long SKETCH_BYTES = 1024 * 1024;
+
+    public static void main(String[] args) {
+        String[] stream = zipf(new Random(221));
+
+        long before = usedHeap();
+        TopKCounter exact = new TopKCounter();
+        long start = System.nanoTime();
+        for (String query : stream) {
+            exact.add(query);
+        }
+        long exactNanos = System.nanoTime() - start;
+        long exactBytes = usedHeap() - before;
+
+        before = usedHeap();
+        CountMinTopK sketch = new CountMinTopK(SKETCH_BYTES, TOP);
+        start = System.nanoTime();
+        for (String query : stream) {
+            sketch.add(query);
+        }
+        long sketchNanos = System.nanoTime() - start;
+        long sketchBytes = usedHeap() - before;
+
+        List<String> truth = exact.top(TOP);
+        Set<String> found = new HashSet<>(sketch.top(TOP));
+        int recall = 0;
+        double relativeError = 0;
+        long worstError = 0;
+        for (String query : truth) {
+            if (found.contains(query)) {
+                recall++;
+            }
+            long error = sketch.count(query) - exact.count(query);
+            relativeError += (double) error / exact.count(query);
+            worstError = Math.max(worstError, error);
+        }
+        long outsideBound = 0;
+        for (Map.Entry<String, Long> entry : exact.counts().entrySet()) {
+            if (sketch.count(entry.getKey()) - entry.getValue() > sketch.maxError()) {
+                outsideBound++;
+            }
+        }
+
+        System.out.println("queries:                 " + stream.length);
+        System.out.println("distinct queries:        " + exact.counts().size());
+        System.out.println("exact heap bytes:        " + exactBytes);
+        System.out.println("sketch heap bytes:       " + sketchBytes);
+        System.out.println("sketch fixed bytes:      " + sketch.bytes());
+        System.out.println("exact ns per query:      " + exactNanos / QUERIES);
+        System.out.println("sketch ns per query:     " + sketchNanos / QUERIES);
+        System.out.println("top " + TOP + " recall:          " + recall + "/" + TOP);
+        System.out.printf("mean relative error:     %.5f%n", relativeError / TOP);
+        System.out.println("worst top error:         " + worstError);
+        System.out.println("error bound:             " + sketch.maxError()
+            + " with confidence " + sketch.confidence());
+        System.out.println("queries outside bound:   " + outsideBound);
+    }
+
+    /**
+     * Generates a stream of queries whose ranks follow a Zipf
+     * distribution, by inverting its cumulative distribution.
+     *
+     * @param random the source of randomness
+     * @return the queries in the order they are made
+     */
+    private static String[] zipf(Random random) {
+        double[] cumulative = new double[DISTINCT];
+        double sum = 0;
+        for (int rank = 0; rank < DISTINCT; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, SKEW);
+            cumulative[rank] = sum;
+        }
+        String[] stream = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            stream[i] = "query-" + (rank < 0 ? -rank - 1 : rank);
+        }
+        return stream;
+    }
+
+    /**
+     * Returns the heap in use once garbage collections stop freeing
+     * memory.
+     *
+     * @return the number of bytes of heap in use
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        long last;
+        do {
+            last = used;
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            used = runtime.totalMemory() - runtime.freeMemory();
+        } while (used < last);
+        return used;
+    }
+}